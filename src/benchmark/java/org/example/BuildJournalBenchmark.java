@@ -0,0 +1,59 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.json.JSONObject;
+
+/**
+ * Checks that a large build journal is recovered quickly at startup.
+ *
+ * <p>Run it with {@code ./gradlew benchmarkJournal}. It writes a journal of 100,000 builds,
+ * 100 of them still open, recovers it, prints the recovery time and the compacted size and fails
+ * if recovery takes 10 seconds or more.</p>
+ */
+public final class BuildJournalBenchmark {
+    private static final int BUILDS = 100_000;
+    private static final int OPEN = 100;
+    private static final long MAX_RECOVERY_MILLIS = 10_000;
+
+    private BuildJournalBenchmark() {}
+
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("journal", ".log", new File("."));
+        try {
+            writeJournal(file);
+            long journalBytes = file.length();
+
+            BuildJournal.Recovery recovery = new BuildJournal(file).recover();
+            System.out.println("Recovered " + recovery.lines + " journal lines (" + journalBytes / 1024 + " KiB) in "
+                + recovery.durationMillis + " ms; compacted to " + file.length() / 1024 + " KiB");
+            if (recovery.durationMillis >= MAX_RECOVERY_MILLIS) {
+                throw new IllegalStateException("Recovery took " + recovery.durationMillis + " ms, expected under "
+                    + MAX_RECOVERY_MILLIS);
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private static void writeJournal(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < BUILDS; i++) {
+                BuildJob job = new BuildJob("build-" + i, "owner/repo", "https://example.org/repo.git", "main", true,
+                    "abc", null, 1234);
+                writer.write(job.toJournalEntry().put("op", "accepted").put("delivery", "delivery-" + i).toString());
+                writer.write('\n');
+                if (i < BUILDS - OPEN) {
+                    writer.write(new JSONObject().put("op", "started").put("id", job.id).toString());
+                    writer.write('\n');
+                    writer.write(new JSONObject().put("op", "finished").put("id", job.id).toString());
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.example.util.Utils;
+
+/**
+ * Measures the peak heap and the response size of {@code GET /builds} before and after it
+ * streamed its response.
+ *
+ * <p>Run it with {@code ./gradlew benchmark}, which starts one JVM per mode with a bounded
+ * heap ({@code benchmarkHeap}, default {@code 256m}) and its data directory in
+ * {@code build/benchmark}:</p>
+ * <ul>
+ *   <li>{@code before} answers as the server originally did: it parses every build file
+ *       whole with {@code new JSONArray(...)}, collects the summaries in one array and writes
+ *       it pretty-printed with {@code toString(2)}, uncompressed.</li>
+ *   <li>{@code after} writes each summary as {@link BuildHistoryStore#forEachBuildSummary}
+ *       passes it on, like the endpoint now does.</li>
+ * </ul>
+ *
+ * <p>Both modes first write the same build files, {@code benchmarkRepositories} repositories
+ * of {@code benchmarkBuilds} builds each with {@code benchmarkLogKb} KiB of logs, and then
+ * report the peak heap use while answering and the body size both uncompressed and gzip
+ * compressed. The original server always sent the uncompressed body; the endpoint now sends
+ * the compressed one to clients that accept gzip.</p>
+ */
+public final class BuildListBenchmark {
+    private static final long KB = 1024L;
+    private static final String BUILDS_FILENAME = "builds.json";
+
+    private BuildListBenchmark() {}
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "after";
+        int repositories = Integer.getInteger("benchmarkRepositories", 20);
+        int builds = Integer.getInteger("benchmarkBuilds", 200);
+        int logKb = Integer.getInteger("benchmarkLogKb", 16);
+        writeBuildFiles(repositories, builds, logKb);
+
+        System.gc();
+        resetPeakHeap();
+        BodySize body = new BodySize();
+        try {
+            if ("before".equals(mode)) {
+                body.write((listBuildSummariesBefore().toString(2) + "\n").getBytes(StandardCharsets.UTF_8));
+            } else if ("after".equals(mode)) {
+                JsonResponseWriter json = new JsonResponseWriter(body, false, false);
+                json.beginArray();
+                BuildHistoryStore.forEachBuildSummary(json::element);
+                json.endArray();
+                json.close();
+            } else {
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+            }
+            body.finish();
+        } catch (OutOfMemoryError e) {
+            System.out.println(mode + ": out of memory with " + Runtime.getRuntime().maxMemory() / KB + " KiB heap");
+            return;
+        }
+        System.out.println(mode + ": " + repositories * builds + " builds, peak heap " + peakHeap() / KB
+            + " KiB, body " + body.uncompressed.count + " B uncompressed, " + body.compressed.count + " B gzip");
+    }
+
+    /**
+     * The original {@code BuildHistoryStore.listBuildSummaries}, which parsed every build file
+     * whole before building the summaries.
+     */
+    private static JSONArray listBuildSummariesBefore() throws IOException {
+        List<JSONObject> builds = new ArrayList<JSONObject>();
+        for (File buildsFile : findBuildFiles(new File(Utils.dataDir(), "repositories"))) {
+            String content = new String(Files.readAllBytes(buildsFile.toPath()), StandardCharsets.UTF_8).trim();
+            JSONArray repositoryBuilds = new JSONArray(content);
+            for (int i = 0; i < repositoryBuilds.length(); i++) {
+                builds.add(repositoryBuilds.getJSONObject(i));
+            }
+        }
+        JSONArray output = new JSONArray();
+        for (JSONObject build : builds) {
+            String buildId = build.optString("id", "");
+            output.put(new JSONObject()
+                .put("id", buildId)
+                .put("repository", build.optString("repository", ""))
+                .put("commit", build.optString("commit", ""))
+                .put("buildDate", build.optString("buildDate", ""))
+                .put("status", build.optString("status", ""))
+                .put("url", "/builds/" + buildId));
+        }
+        return output;
+    }
+
+    private static List<File> findBuildFiles(File directory) {
+        List<File> buildFiles = new ArrayList<File>();
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return buildFiles;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                buildFiles.addAll(findBuildFiles(child));
+            } else if (BUILDS_FILENAME.equals(child.getName())) {
+                buildFiles.add(child);
+            }
+        }
+        return buildFiles;
+    }
+
+    /**
+     * Counts the bytes of a response body, and of the same body gzip-compressed, in one pass.
+     */
+    private static final class BodySize extends OutputStream {
+        final ByteCounter uncompressed = new ByteCounter();
+        final ByteCounter compressed = new ByteCounter();
+        private final GZIPOutputStream gzip;
+
+        BodySize() throws IOException {
+            gzip = new GZIPOutputStream(compressed);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            uncompressed.count++;
+            gzip.write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            uncompressed.count += length;
+            gzip.write(bytes, offset, length);
+        }
+
+        void finish() throws IOException {
+            gzip.finish();
+        }
+    }
+
+    private static final class ByteCounter extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+
+    /**
+     * Writes the build files one record at a time, so the benchmark itself stays small.
+     */
+    private static void writeBuildFiles(int repositories, int builds, int logKb) throws IOException {
+        String logs = "> Task :test\n".repeat((int) (logKb * KB / 13));
+        for (int r = 0; r < repositories; r++) {
+            String repository = "bench_owner/repo" + r;
+            File buildsFile = new File(new File(new File(Utils.dataDir(), "repositories"), repository), BUILDS_FILENAME);
+            if (buildsFile.isFile()) {
+                continue;
+            }
+            Files.createDirectories(buildsFile.getParentFile().toPath());
+            try (BufferedWriter writer = Files.newBufferedWriter(buildsFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write('[');
+                for (int b = 0; b < builds; b++) {
+                    if (b > 0) {
+                        writer.write(',');
+                    }
+                    new JSONObject()
+                        .put("id", "bench-" + r + "-" + b)
+                        .put("repository", repository)
+                        .put("commit", "abc123")
+                        .put("buildDate", "2026-02-12T00:00:00Z")
+                        .put("status", "success")
+                        .put("logs", logs)
+                        .write(writer);
+                }
+                writer.write(']');
+            }
+        }
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
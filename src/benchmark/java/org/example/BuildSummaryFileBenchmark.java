@@ -0,0 +1,75 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+
+/**
+ * Checks that a query scans the build summary quickly.
+ *
+ * <p>Run it with {@code ./gradlew benchmarkSummary}. It writes a summary of a million rows,
+ * runs a query grouped by day once to warm up and once measured, prints the scan throughput
+ * and fails if the measured scan takes two seconds or more.</p>
+ */
+public final class BuildSummaryFileBenchmark {
+    private static final int ROWS = 1_000_000;
+    private static final long MAX_SCAN_MICROS = 2_000_000;
+
+    private BuildSummaryFileBenchmark() {}
+
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory(new File(".").toPath(), "summary").toFile();
+        try {
+            BuildSummaryFile summary = new BuildSummaryFile(directory);
+            summary.append(new JSONObject()
+                .put("repository", "owner/a")
+                .put("branch", "main")
+                .put("status", "success")
+                .put("buildDate", "2026-03-01T10:00:00Z")
+                .put("durations", new JSONObject().put("totalMillis", 1000)));
+            appendRows(new File(directory, "builds.bin"));
+
+            BuildSummaryFile.Query query = new BuildSummaryFile.Query();
+            query.groupBy = "day";
+            summary.query(query);
+            JSONObject result = summary.query(query);
+            long micros = Math.max(1, result.getLong("scanMicros"));
+            System.out.println("Scanned " + result.getLong("scannedRows") + " rows in " + micros + " us ("
+                + result.getLong("scannedRows") * 1_000_000L / micros + " rows/s)");
+            if (micros >= MAX_SCAN_MICROS) {
+                throw new IllegalStateException("Scan took " + micros + " us, expected under " + MAX_SCAN_MICROS);
+            }
+        } finally {
+            try (Stream<File> files = Files.walk(directory.toPath()).map(path -> path.toFile())) {
+                files.sorted(Comparator.reverseOrder()).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Appends one row per minute from the start of 2026 directly to the rows file.
+     */
+    private static void appendRows(File rowsFile) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ROWS * BuildSummaryFile.ROW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long start = BuildSummaryFile.parseTime("2026-01-01");
+        for (int i = 0; i < ROWS; i++) {
+            int offset = i * BuildSummaryFile.ROW_SIZE;
+            buffer.putLong(offset, start + i * 60_000L);
+            buffer.put(offset + 16, (byte) (i % 4));
+            buffer.putInt(offset + 24, i % 10_000);
+        }
+        try (FileChannel channel = FileChannel.open(rowsFile.toPath(), StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.example;
+
+/**
+ * Checks that the webhook admission check stays cheap during a burst.
+ *
+ * <p>Run it with {@code ./gradlew benchmarkIntake}. It admits a million webhooks spread over
+ * 1000 repositories, prints the time per check and fails if a check takes 20 µs or more.</p>
+ */
+public final class IntakeLimiterBenchmark {
+    private static final int REQUESTS = 1_000_000;
+    private static final long MAX_NANOS_PER_CHECK = 20_000;
+
+    private IntakeLimiterBenchmark() {}
+
+    public static void main(String[] args) {
+        IntakeLimiter limiter = new IntakeLimiter(500, 60, 20);
+        long started = System.nanoTime();
+        int admitted = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            if (limiter.admit("owner/repo-" + (i % 1000), 0, i / 100).admitted) {
+                admitted++;
+            }
+        }
+        long nanosPerCheck = (System.nanoTime() - started) / REQUESTS;
+        System.out.println("Intake check: " + nanosPerCheck + " ns per webhook, " + admitted + " of " + REQUESTS
+            + " admitted");
+        if (nanosPerCheck >= MAX_NANOS_PER_CHECK) {
+            throw new IllegalStateException(nanosPerCheck + " ns per check, expected under " + MAX_NANOS_PER_CHECK);
+        }
+    }
+}
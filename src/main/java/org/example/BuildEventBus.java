@@ -0,0 +1,297 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+/**
+ * Publishes build state transitions to server-sent event subscribers.
+ *
+ * <p>Events are kept in a bounded ring buffer ({@code eventBufferSize} system property,
+ * default 1024) and get IDs of the form {@code <boot time>-<sequence>}. Publishing only
+ * appends to the buffer and to the queue of every matching subscriber, so build workers never
+ * wait for clients. Each subscriber has its own bounded queue ({@code eventQueueSize} system
+ * property, default 256) and its own writer thread, so a slow client only delays itself. A
+ * subscriber whose queue is full is disconnected; EventSource clients reconnect with
+ * {@code Last-Event-ID} and replay what they missed from the ring buffer, after a
+ * {@code reset} event if it has been overwritten in the meantime.</p>
+ *
+ * <p>Since every subscriber holds a thread, at most {@code maxEventSubscribers} (system
+ * property, default 64) streams are open at once; further subscriptions are refused.</p>
+ */
+public class BuildEventBus {
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+    private static final int DEFAULT_MAX_SUBSCRIBERS = 64;
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final BuildEventBus SHARED = new BuildEventBus(bufferSize(), queueSize(), maxSubscribers());
+
+    private final String bootId = Long.toString(System.currentTimeMillis(), 36);
+    private final JSONObject[] buffer;
+    private final int queueSize;
+    private final int maxSubscribers;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private long nextSequence = 1;
+
+    /**
+     * Creates a bus with the given ring buffer size and the default subscriber queue size.
+     *
+     * @param bufferSize the number of most recent events kept for replay
+     */
+    public BuildEventBus(int bufferSize) {
+        this(bufferSize, DEFAULT_QUEUE_SIZE, DEFAULT_MAX_SUBSCRIBERS);
+    }
+
+    /**
+     * Creates a bus with the given ring buffer and subscriber queue sizes and the default
+     * subscriber limit.
+     *
+     * @param bufferSize the number of most recent events kept for replay
+     * @param queueSize the number of events a subscriber may fall behind before it is disconnected
+     */
+    public BuildEventBus(int bufferSize, int queueSize) {
+        this(bufferSize, queueSize, DEFAULT_MAX_SUBSCRIBERS);
+    }
+
+    /**
+     * Creates a bus with the given ring buffer and subscriber queue sizes and subscriber limit.
+     *
+     * @param bufferSize the number of most recent events kept for replay
+     * @param queueSize the number of events a subscriber may fall behind before it is disconnected
+     * @param maxSubscribers the number of event streams that may be open at once
+     */
+    public BuildEventBus(int bufferSize, int queueSize, int maxSubscribers) {
+        this.buffer = new JSONObject[Math.max(1, bufferSize)];
+        this.queueSize = Math.max(1, queueSize);
+        this.maxSubscribers = Math.max(1, maxSubscribers);
+    }
+
+    /**
+     * Returns the bus used by the server.
+     *
+     * @return the shared bus
+     */
+    public static BuildEventBus shared() {
+        return SHARED;
+    }
+
+    /**
+     * One connected event stream.
+     */
+    public final class Subscription {
+        private final String repository;
+        private final String branch;
+        private final Writer writer;
+        private final Runnable onClose;
+        private final List<String> replay;
+        private final BlockingQueue<String> frames;
+        private final Thread thread;
+        private volatile boolean closed;
+
+        private Subscription(String repository, String branch, Writer writer, Runnable onClose, List<String> replay) {
+            this.repository = repository;
+            this.branch = branch;
+            this.writer = writer;
+            this.onClose = onClose;
+            this.replay = replay;
+            this.frames = new ArrayBlockingQueue<String>(queueSize);
+            this.thread = new Thread(() -> write(this), "event-subscriber");
+            this.thread.setDaemon(true);
+        }
+
+        private boolean matches(JSONObject event) {
+            return (repository == null || repository.equals(event.optString("repository")))
+                && (branch == null || branch.equals(event.optString("branch")));
+        }
+    }
+
+    /**
+     * Publishes an event about a job.
+     *
+     * @param type the event type, for example {@code queued} or {@code finished}
+     * @param job the job the event is about
+     * @param details additional fields for the event data, may be null
+     */
+    public void publish(String type, BuildJob job, JSONObject details) {
+        JSONObject event = details == null ? new JSONObject() : new JSONObject(details.toString());
+        event.put("type", type);
+        event.put("buildId", job.id);
+        event.put("repository", job.repository);
+        event.put("branch", job.branch);
+        event.put("time", System.currentTimeMillis());
+        List<Subscription> overflowed = new ArrayList<Subscription>();
+        synchronized (this) {
+            event.put("id", bootId + "-" + nextSequence);
+            event.put("sequence", nextSequence);
+            buffer[(int) (nextSequence % buffer.length)] = event;
+            nextSequence++;
+            // Under the lock, so every queue receives the events in sequence order
+            String frame = null;
+            for (Subscription subscription : subscriptions) {
+                if (subscription.matches(event)) {
+                    frame = frame != null ? frame : frame(event);
+                    if (!subscription.frames.offer(frame)) {
+                        overflowed.add(subscription);
+                    }
+                }
+            }
+        }
+        for (Subscription subscription : overflowed) {
+            System.out.println("Disconnecting an event stream that fell " + queueSize + " events behind");
+            unsubscribe(subscription);
+        }
+    }
+
+    /**
+     * Opens an event stream.
+     *
+     * @param repository only deliver events of this repository, or null for all
+     * @param branch only deliver events of this branch, or null for all
+     * @param lastEventId the {@code Last-Event-ID} sent by a reconnecting client, or null
+     * @param writer where the event stream is written
+     * @param onClose called once when the stream is closed
+     * @return the subscription, or null if {@link #isFull} and nothing was subscribed
+     */
+    public Subscription subscribe(String repository, String branch, String lastEventId, Writer writer, Runnable onClose) {
+        Subscription subscription;
+        synchronized (this) {
+            if (isFull()) {
+                return null;
+            }
+            long cursor = nextSequence - 1;
+            String prefix = bootId + "-";
+            if (lastEventId != null && lastEventId.startsWith(prefix)) {
+                try {
+                    cursor = Math.min(cursor, Long.parseLong(lastEventId.substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    cursor = 0;
+                }
+            } else if (lastEventId != null) {
+                // ID from before a restart: replay everything still buffered
+                cursor = 0;
+            }
+
+            // Bounded by the ring buffer, so it is written before the queue instead of through it
+            List<String> replay = new ArrayList<String>();
+            long oldest = Math.max(1, nextSequence - buffer.length);
+            if (cursor + 1 < oldest) {
+                replay.add("event: reset\ndata: {}\n\n");
+            }
+            subscription = new Subscription(repository, branch, writer, onClose, replay);
+            for (long sequence = Math.max(cursor + 1, oldest); sequence < nextSequence; sequence++) {
+                JSONObject event = buffer[(int) (sequence % buffer.length)];
+                if (subscription.matches(event)) {
+                    replay.add(frame(event));
+                }
+            }
+            subscriptions.add(subscription);
+        }
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Closes an event stream.
+     *
+     * @param subscription the subscription to close
+     */
+    public void unsubscribe(Subscription subscription) {
+        if (subscriptions.remove(subscription)) {
+            subscription.closed = true;
+            subscription.thread.interrupt();
+            subscription.onClose.run();
+        }
+    }
+
+    /**
+     * Returns the number of open event streams.
+     *
+     * @return the subscriber count
+     */
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Checks whether the subscriber limit is reached, so a new stream would be refused.
+     *
+     * @return true if no further subscriber is accepted
+     */
+    public boolean isFull() {
+        return subscriptions.size() >= maxSubscribers;
+    }
+
+    /**
+     * Closes all event streams and stops their writer threads.
+     */
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            unsubscribe(subscription);
+        }
+    }
+
+    private static String frame(JSONObject event) {
+        return "id: " + event.getString("id") + "\n"
+            + "event: " + event.getString("type") + "\n"
+            + "data: " + event.toString() + "\n\n";
+    }
+
+    /**
+     * Writes the replayed and then the queued events of a subscription until it is closed,
+     * with a keepalive comment after {@value #HEARTBEAT_SECONDS} seconds without events.
+     *
+     * @param subscription the subscription to serve
+     */
+    private void write(Subscription subscription) {
+        try {
+            for (String frame : subscription.replay) {
+                subscription.writer.write(frame);
+            }
+            subscription.replay.clear();
+            subscription.writer.flush();
+            while (!subscription.closed) {
+                String frame = subscription.frames.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                subscription.writer.write(frame != null ? frame : ": keepalive\n\n");
+                if (subscription.frames.isEmpty()) {
+                    subscription.writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            unsubscribe(subscription);
+        } catch (InterruptedException e) {
+            // Closed by unsubscribe
+        }
+    }
+
+    private static int bufferSize() {
+        try {
+            return Integer.parseInt(System.getProperty("eventBufferSize", String.valueOf(DEFAULT_BUFFER_SIZE)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_BUFFER_SIZE;
+        }
+    }
+
+    private static int queueSize() {
+        try {
+            return Integer.parseInt(System.getProperty("eventQueueSize", String.valueOf(DEFAULT_QUEUE_SIZE)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_QUEUE_SIZE;
+        }
+    }
+
+    private static int maxSubscribers() {
+        try {
+            return Integer.parseInt(System.getProperty("maxEventSubscribers", String.valueOf(DEFAULT_MAX_SUBSCRIBERS)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_MAX_SUBSCRIBERS;
+        }
+    }
+}
@@ -2,21 +2,56 @@ package org.example;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import org.example.util.Utils;
 
 /**
  * Stores and retrieves CI build history in JSON files under data/repositories.
+ *
+ * <p>Every appended build is also summarized in a {@link BuildSummaryFile} under
+ * data/summary, which answers aggregate queries without parsing the JSON records. The summary
+ * is rebuilt from the JSON records if it is missing. Rolling {@link BuildStatistics} are
+ * updated with every appended build and restored from their snapshot and the summary.</p>
+ *
+ * <p>A generation counter, global and per repository, is increased after every appended build.
+ * It is kept in memory so HTTP validators ({@link #etag}, {@link #lastModifiedMillis}) can be
+ * checked without reading any file. Generations restart at zero with the server, so the ETag
+ * also contains the server's start time.</p>
+ *
+ * <p>The IDs of all stored builds are also kept in memory, loaded together with the summary,
+ * so {@link #hasBuild} needs no file access after the first call.</p>
+ *
+ * <p>Every call is recorded as a {@link FlightEvents.StoreCall} Flight Recorder event with
+ * the records and bytes it read.</p>
  */
 public final class BuildHistoryStore {
-    private static final File REPOSITORIES_DIR = new File("data/repositories");
+    private static final File REPOSITORIES_DIR = new File(Utils.dataDir(), "repositories");
     private static final String BUILDS_FILENAME = "builds.json";
+    private static final BuildSummaryFile SUMMARY = new BuildSummaryFile(new File(Utils.dataDir(), "summary"));
+    private static final BuildStatistics STATISTICS = new BuildStatistics(new File(Utils.dataDir(), "summary/stats.json"));
+    private static final long STARTED_AT_MILLIS = System.currentTimeMillis();
+    private static final String STORE_ID = Long.toString(STARTED_AT_MILLIS, 36);
+    private static final AtomicLong GENERATION = new AtomicLong();
+    private static final Map<String, Long> REPOSITORY_GENERATIONS = new ConcurrentHashMap<String, Long>();
+    private static final Map<String, Long> REPOSITORY_MODIFIED_MILLIS = new ConcurrentHashMap<String, Long>();
+    private static volatile long modifiedMillis = STARTED_AT_MILLIS;
+    // Guarded by the class lock; null until first needed
+    private static Set<String> storedBuildIds;
 
     private BuildHistoryStore() {}
 
@@ -28,39 +63,259 @@ public final class BuildHistoryStore {
      * @throws IOException if reading or writing build files fails
      */
     public static synchronized void appendBuild(String repositoryFullName, JSONObject buildRecord) throws IOException {
-        File repositoryDir = new File(REPOSITORIES_DIR, repositoryFullName);
-        File buildsFile = new File(repositoryDir, BUILDS_FILENAME);
-        JSONArray existingBuilds = readBuildsArray(buildsFile);
-        existingBuilds.put(new JSONObject(buildRecord.toString()));
-        writeBuildsArray(buildsFile, existingBuilds);
+        FlightEvents.StoreCall event = begin("appendBuild", repositoryFullName);
+        try {
+            ensureSummary(event);
+            File buildsFile = buildsFile(repositoryFullName);
+            JSONArray existingBuilds = readBuildsArray(buildsFile, event);
+            existingBuilds.put(new JSONObject(buildRecord.toString()));
+            writeBuildsArray(buildsFile, existingBuilds, event);
+            SUMMARY.append(buildRecord);
+            STATISTICS.record(buildRecord);
+            if (storedBuildIds != null) {
+                storedBuildIds.add(buildRecord.optString("id", ""));
+            }
+        } finally {
+            event.commit();
+        }
+
+        // Only after the write, so a validator never describes data that is not on disk yet
+        long now = System.currentTimeMillis();
+        REPOSITORY_MODIFIED_MILLIS.put(repositoryFullName, now);
+        REPOSITORY_GENERATIONS.merge(repositoryFullName, 1L, Long::sum);
+        modifiedMillis = now;
+        GENERATION.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of builds appended since the server started.
+     *
+     * @param repositoryFullName the repository to count, or null for all repositories
+     * @return the generation
+     */
+    public static long generation(String repositoryFullName) {
+        if (repositoryFullName == null) {
+            return GENERATION.get();
+        }
+        return REPOSITORY_GENERATIONS.getOrDefault(repositoryFullName, 0L);
+    }
+
+    /**
+     * Returns an ETag that changes whenever a build is appended.
+     *
+     * <p>The tag is weak because the same generation is served compact, indented or
+     * gzip-compressed.</p>
+     *
+     * @param repositoryFullName the repository the response covers, or null for all repositories
+     * @return the ETag header value
+     */
+    public static String etag(String repositoryFullName) {
+        return "W/\"" + STORE_ID + "-" + generation(repositoryFullName) + "\"";
+    }
+
+    /**
+     * Returns the ETag of one stored build record.
+     *
+     * <p>Stored records never change. The tag includes the store's startup time like the list
+     * tags do, but that time is part of every tag a client sees, so a matching tag does not prove
+     * the build exists; check {@link #hasBuild} before answering from the tag alone.</p>
+     *
+     * @param buildId the build ID
+     * @return a weak ETag
+     */
+    public static String buildEtag(String buildId) {
+        return "W/\"" + STORE_ID + "-" + buildId + "\"";
+    }
+
+    /**
+     * Checks whether a build with the given ID is stored, without reading its record.
+     *
+     * @param buildId the build ID
+     * @return true if a stored record has this ID
+     * @throws IOException if loading the stored IDs fails
+     */
+    public static synchronized boolean hasBuild(String buildId) throws IOException {
+        FlightEvents.StoreCall event = begin("hasBuild", null);
+        try {
+            ensureSummary(event);
+            if (storedBuildIds == null) {
+                Set<String> buildIds = new HashSet<String>();
+                List<File> buildFiles = REPOSITORIES_DIR.isDirectory() ? findBuildFiles(REPOSITORIES_DIR) : new ArrayList<File>();
+                for (File buildsFile : buildFiles) {
+                    readBuilds(buildsFile, event, build -> buildIds.add(build.optString("id", "")));
+                }
+                storedBuildIds = buildIds;
+            }
+            return storedBuildIds.contains(buildId);
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns when a build was last appended, or when the server started if none was since.
+     *
+     * @param repositoryFullName the repository, or null for all repositories
+     * @return epoch milliseconds
+     */
+    public static long lastModifiedMillis(String repositoryFullName) {
+        if (repositoryFullName == null) {
+            return modifiedMillis;
+        }
+        return REPOSITORY_MODIFIED_MILLIS.getOrDefault(repositoryFullName, STARTED_AT_MILLIS);
+    }
+
+    /**
+     * Aggregates the summaries of all stored builds.
+     *
+     * @param query the filters and grouping
+     * @return the aggregates, see {@link BuildSummaryFile#query}
+     * @throws IOException if reading the summary fails
+     */
+    public static JSONObject queryBuilds(BuildSummaryFile.Query query) throws IOException {
+        FlightEvents.StoreCall event = begin("queryBuilds", query.repository);
+        try {
+            synchronized (BuildHistoryStore.class) {
+                ensureSummary(event);
+            }
+            JSONObject result = SUMMARY.query(query);
+            long scannedRows = result.optLong("scannedRows");
+            event.recordsScanned += scannedRows;
+            event.bytesRead += scannedRows * BuildSummaryFile.ROW_SIZE;
+            return result;
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns build counts, success rates and duration percentiles of the last hour, day and week.
+     *
+     * @param repositoryFullName only report this repository, or null for all
+     * @return the statistics, see {@link BuildStatistics#toJson}
+     * @throws IOException if loading the statistics fails
+     */
+    public static synchronized JSONObject statistics(String repositoryFullName) throws IOException {
+        FlightEvents.StoreCall event = begin("statistics", repositoryFullName);
+        try {
+            ensureSummary(event);
+            if (!STATISTICS.isLoaded()) {
+                long rows = SUMMARY.rowCount();
+                STATISTICS.load(SUMMARY);
+                event.recordsScanned += rows;
+                event.bytesRead += rows * BuildSummaryFile.ROW_SIZE;
+            }
+            return STATISTICS.toJson(repositoryFullName, System.currentTimeMillis());
+        } finally {
+            event.commit();
+        }
+    }
+
+    private static void ensureSummary(FlightEvents.StoreCall event) throws IOException {
+        if (!SUMMARY.exists()) {
+            List<JSONObject> builds = loadAllBuilds(event);
+            SUMMARY.rebuild(builds);
+            STATISTICS.invalidate();
+            Set<String> buildIds = new HashSet<String>();
+            for (JSONObject build : builds) {
+                buildIds.add(build.optString("id", ""));
+            }
+            storedBuildIds = buildIds;
+        }
+    }
+
+    private static FlightEvents.StoreCall begin(String operation, String repositoryFullName) {
+        FlightEvents.StoreCall event = new FlightEvents.StoreCall(
+            operation, repositoryFullName == null ? "" : repositoryFullName
+        );
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Receives build records one at a time.
+     */
+    public interface BuildConsumer {
+        /**
+         * Called once per build.
+         *
+         * @param build the build record
+         * @throws IOException if handling the build fails
+         */
+        void accept(JSONObject build) throws IOException;
     }
 
     /**
      * Lists all builds across all repositories as summary records.
      *
-     * @return summaries sorted by buildDate descending
+     * @return summaries in stored order, repository by repository
      * @throws IOException if reading build files fails
      */
-    public static synchronized JSONArray listBuildSummaries() throws IOException {
-        List<JSONObject> summaries = new ArrayList<JSONObject>();
-        for (JSONObject build : loadAllBuilds()) {
-            JSONObject summary = new JSONObject();
-            String buildId = build.optString("id", "");
-            summary.put("id", buildId);
-            summary.put("repository", build.optString("repository", ""));
-            summary.put("commit", build.optString("commit", ""));
-            summary.put("buildDate", build.optString("buildDate", ""));
-            summary.put("status", build.optString("status", ""));
-            summary.put("url", "/builds/" + buildId);
-            summaries.add(summary);
-        }
+    public static JSONArray listBuildSummaries() throws IOException {
         JSONArray output = new JSONArray();
-        for (JSONObject summary : summaries) {
-            output.put(summary);
-        }
+        forEachBuildSummary(output::put);
         return output;
     }
 
+    /**
+     * Passes the summary record of every stored build to a consumer, one repository at a time.
+     *
+     * <p>Each build file is parsed record by record and only the small summaries of one
+     * repository are held at once. The consumer is called without holding the store's lock,
+     * so it may write to a slow client.</p>
+     *
+     * @param consumer receives the summaries
+     * @throws IOException if reading build files or the consumer fails
+     */
+    public static void forEachBuildSummary(BuildConsumer consumer) throws IOException {
+        forEachBuildSummary(null, consumer);
+    }
+
+    /**
+     * Passes the summary record of every stored build of one or all repositories to a consumer.
+     *
+     * @param repositoryFullName the repository, or null for all repositories
+     * @param consumer receives the summaries
+     * @throws IOException if reading build files or the consumer fails
+     * @see #forEachBuildSummary(BuildConsumer)
+     */
+    public static void forEachBuildSummary(String repositoryFullName, BuildConsumer consumer) throws IOException {
+        // Includes the time spent in the consumer, which is usually writing to a client
+        FlightEvents.StoreCall event = begin("forEachBuildSummary", repositoryFullName);
+        try {
+            List<File> buildFiles;
+            synchronized (BuildHistoryStore.class) {
+                if (repositoryFullName != null) {
+                    buildFiles = List.of(buildsFile(repositoryFullName));
+                } else {
+                    buildFiles = REPOSITORIES_DIR.isDirectory() ? findBuildFiles(REPOSITORIES_DIR) : new ArrayList<File>();
+                }
+            }
+            for (File buildsFile : buildFiles) {
+                List<JSONObject> summaries = new ArrayList<JSONObject>();
+                synchronized (BuildHistoryStore.class) {
+                    readBuilds(buildsFile, event, build -> summaries.add(summary(build)));
+                }
+                for (JSONObject summary : summaries) {
+                    consumer.accept(summary);
+                }
+            }
+        } finally {
+            event.commit();
+        }
+    }
+
+    private static JSONObject summary(JSONObject build) {
+        String buildId = build.optString("id", "");
+        return new JSONObject()
+            .put("id", buildId)
+            .put("repository", build.optString("repository", ""))
+            .put("commit", build.optString("commit", ""))
+            .put("buildDate", build.optString("buildDate", ""))
+            .put("status", build.optString("status", ""))
+            .put("url", "/builds/" + buildId);
+    }
+
     /**
      * Finds a build by ID across all repositories.
      *
@@ -73,22 +328,80 @@ public final class BuildHistoryStore {
             return null;
         }
 
-        for (JSONObject build : loadAllBuilds()) {
-            if (buildId.equals(build.optString("id", ""))) {
-                return new JSONObject(build.toString());
+        FlightEvents.StoreCall event = begin("getBuildById", null);
+        try {
+            for (JSONObject build : loadAllBuilds(event)) {
+                if (buildId.equals(build.optString("id", ""))) {
+                    return new JSONObject(build.toString());
+                }
             }
+            return null;
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Lists all stored builds of a single repository in the order they were appended.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @return copies of the stored build records
+     * @throws IOException if reading the build file fails
+     */
+    public static synchronized List<JSONObject> listBuilds(String repositoryFullName) throws IOException {
+        FlightEvents.StoreCall event = begin("listBuilds", repositoryFullName);
+        try {
+            return listBuilds(repositoryFullName, event);
+        } finally {
+            event.commit();
         }
-        return null;
     }
 
-    private static List<JSONObject> loadAllBuilds() throws IOException {
+    private static List<JSONObject> listBuilds(String repositoryFullName, FlightEvents.StoreCall event) throws IOException {
+        List<JSONObject> builds = new ArrayList<JSONObject>();
+        JSONArray repositoryBuilds = readBuildsArray(buildsFile(repositoryFullName), event);
+        for (int i = 0; i < repositoryBuilds.length(); i++) {
+            builds.add(repositoryBuilds.getJSONObject(i));
+        }
+        return builds;
+    }
+
+    /**
+     * Finds the most recent build of a branch where both build and tests succeeded.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @param branch the branch name
+     * @return the latest green build record or null if the branch has none
+     * @throws IOException if reading the build file fails
+     */
+    public static synchronized JSONObject getLastSuccessfulBuild(String repositoryFullName, String branch) throws IOException {
+        FlightEvents.StoreCall event = begin("getLastSuccessfulBuild", repositoryFullName);
+        try {
+            List<JSONObject> builds = listBuilds(repositoryFullName, event);
+            for (int i = builds.size() - 1; i >= 0; i--) {
+                JSONObject build = builds.get(i);
+                if (branch.equals(build.optString("branch", "")) && "success".equals(build.optString("status", ""))) {
+                    return build;
+                }
+            }
+            return null;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private static File buildsFile(String repositoryFullName) {
+        return new File(new File(REPOSITORIES_DIR, repositoryFullName), BUILDS_FILENAME);
+    }
+
+    private static List<JSONObject> loadAllBuilds(FlightEvents.StoreCall event) throws IOException {
         List<JSONObject> builds = new ArrayList<JSONObject>();
         if (!REPOSITORIES_DIR.isDirectory()) {
             return builds;
         }
 
         for (File buildsFile : findBuildFiles(REPOSITORIES_DIR)) {
-            JSONArray repositoryBuilds = readBuildsArray(buildsFile);
+            JSONArray repositoryBuilds = readBuildsArray(buildsFile, event);
             for (int i = 0; i < repositoryBuilds.length(); i++) {
                 builds.add(repositoryBuilds.getJSONObject(i));
             }
@@ -117,28 +430,76 @@ public final class BuildHistoryStore {
         }
     }
 
-    private static JSONArray readBuildsArray(File buildsFile) throws IOException {
+    /**
+     * Parses a build file one record at a time instead of materializing the whole array.
+     */
+    private static void readBuilds(File buildsFile, FlightEvents.StoreCall event, BuildConsumer consumer) throws IOException {
+        if (!buildsFile.isFile()) {
+            return;
+        }
+        event.bytesRead += buildsFile.length();
+        try (Reader reader = Files.newBufferedReader(buildsFile.toPath(), StandardCharsets.UTF_8)) {
+            JSONTokener tokener = new JSONTokener(reader);
+            char next = tokener.nextClean();
+            if (next == 0) {
+                return;
+            }
+            if (next != '[') {
+                throw tokener.syntaxError("A JSON array text must start with '['");
+            }
+            if (tokener.nextClean() == ']') {
+                return;
+            }
+            tokener.back();
+            while (true) {
+                Object value = tokener.nextValue();
+                if (!(value instanceof JSONObject)) {
+                    throw tokener.syntaxError("Expected a build object");
+                }
+                event.recordsScanned++;
+                consumer.accept((JSONObject) value);
+                next = tokener.nextClean();
+                if (next == ']') {
+                    return;
+                }
+                if (next != ',') {
+                    throw tokener.syntaxError("Expected ',' or ']'");
+                }
+            }
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON in " + buildsFile.getAbsolutePath(), e);
+        }
+    }
+
+    private static JSONArray readBuildsArray(File buildsFile, FlightEvents.StoreCall event) throws IOException {
         if (!buildsFile.isFile()) {
             return new JSONArray();
         }
 
-        String content = new String(Files.readAllBytes(buildsFile.toPath()), StandardCharsets.UTF_8).trim();
+        byte[] bytes = Files.readAllBytes(buildsFile.toPath());
+        event.bytesRead += bytes.length;
+        String content = new String(bytes, StandardCharsets.UTF_8).trim();
         if (content.isEmpty()) {
             return new JSONArray();
         }
 
         try {
-            return new JSONArray(content);
+            JSONArray builds = new JSONArray(content);
+            event.recordsScanned += builds.length();
+            return builds;
         } catch (JSONException e) {
             throw new IOException("Invalid JSON in " + buildsFile.getAbsolutePath(), e);
         }
     }
 
-    private static void writeBuildsArray(File buildsFile, JSONArray buildsArray) throws IOException {
+    private static void writeBuildsArray(File buildsFile, JSONArray buildsArray, FlightEvents.StoreCall event)
+            throws IOException {
         File parentDir = buildsFile.getParentFile();
         if (parentDir != null) {
             Files.createDirectories(parentDir.toPath());
         }
-        Files.write(buildsFile.toPath(), buildsArray.toString(2).getBytes(StandardCharsets.UTF_8));
+        byte[] bytes = buildsArray.toString(2).getBytes(StandardCharsets.UTF_8);
+        Files.write(buildsFile.toPath(), bytes);
+        event.bytesWritten += bytes.length;
     }
 }
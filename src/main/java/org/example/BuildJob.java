@@ -0,0 +1,194 @@
+package org.example;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A build requested by a GitHub push event, from the moment it is accepted until it finishes.
+ */
+public final class BuildJob {
+    public final String id;
+    public final String repository;
+    public final String cloneUrl;
+    public final String branch;
+    public final boolean defaultBranch;
+    public final String commit;
+    public final String statusesUrl;
+    public final long queuedAtMillis;
+
+    private volatile String state = "queued";
+    private volatile long startedAtMillis;
+    private volatile JSONObject record;
+    private volatile Consumer<String> logListener;
+
+    public BuildJob(String id, String repository, String cloneUrl, String branch, boolean defaultBranch, String commit,
+            String statusesUrl, long queuedAtMillis) {
+        this.id = id;
+        this.repository = repository;
+        this.cloneUrl = cloneUrl;
+        this.branch = branch;
+        this.defaultBranch = defaultBranch;
+        this.commit = commit;
+        this.statusesUrl = statusesUrl;
+        this.queuedAtMillis = queuedAtMillis;
+    }
+
+    /**
+     * Creates a job from a GitHub push event payload.
+     *
+     * <p>The pushed branch is compared with the repository's {@code default_branch}; payloads
+     * without that field treat {@code main} and {@code master} as default branches.</p>
+     *
+     * @param json the parsed webhook payload
+     * @return a new queued job with a random ID
+     * @throws JSONException if the payload lacks the repository or ref fields
+     */
+    public static BuildJob fromPayload(JSONObject json) {
+        JSONObject repository = json.getJSONObject("repository");
+        String commit = json.optString("after", null);
+        String branch = json.getString("ref").replace("refs/heads/", "");
+        String defaultBranch = repository.optString("default_branch", "");
+        boolean isDefaultBranch = defaultBranch.isEmpty()
+            ? "main".equals(branch) || "master".equals(branch)
+            : defaultBranch.equals(branch);
+        return new BuildJob(
+            UUID.randomUUID().toString(),
+            repository.getString("full_name"),
+            repository.getString("clone_url"),
+            branch,
+            isDefaultBranch,
+            commit,
+            GitHubStatusClient.resolveStatusesUrl(repository.optString("statuses_url", null), commit),
+            System.currentTimeMillis()
+        );
+    }
+
+    /**
+     * Describes the job for the {@link BuildJournal}.
+     *
+     * @return JSON object with every field needed to queue the job again
+     */
+    public JSONObject toJournalEntry() {
+        return new JSONObject()
+            .put("id", id)
+            .put("repository", repository)
+            .put("cloneUrl", cloneUrl)
+            .put("branch", branch)
+            .put("defaultBranch", defaultBranch)
+            .put("commit", commit == null ? JSONObject.NULL : commit)
+            .put("statusesUrl", statusesUrl == null ? JSONObject.NULL : statusesUrl)
+            .put("queuedAtMillis", queuedAtMillis);
+    }
+
+    /**
+     * Recreates a job from its {@link BuildJournal} entry, keeping its ID and queue time.
+     *
+     * @param entry the journal entry written by {@link #toJournalEntry}
+     * @return a queued job
+     * @throws JSONException if the entry lacks required fields
+     */
+    public static BuildJob fromJournalEntry(JSONObject entry) {
+        return new BuildJob(
+            entry.getString("id"),
+            entry.getString("repository"),
+            entry.getString("cloneUrl"),
+            entry.getString("branch"),
+            entry.optBoolean("defaultBranch"),
+            entry.isNull("commit") ? null : entry.getString("commit"),
+            entry.isNull("statusesUrl") ? null : entry.getString("statusesUrl"),
+            entry.getLong("queuedAtMillis")
+        );
+    }
+
+    /**
+     * Returns the current state: {@code queued}, {@code running} or {@code finished}.
+     *
+     * @return the job state
+     */
+    public String state() {
+        return state;
+    }
+
+    /**
+     * Marks the job as started.
+     */
+    public void markStarted() {
+        startedAtMillis = System.currentTimeMillis();
+        state = "running";
+    }
+
+    /**
+     * Marks the job as finished.
+     */
+    public void markFinished() {
+        state = "finished";
+    }
+
+    /**
+     * Attaches the stored build record once the pipeline has written it.
+     *
+     * @param record the build record
+     */
+    public void setRecord(JSONObject record) {
+        this.record = record;
+    }
+
+    /**
+     * Returns the stored build record.
+     *
+     * @return the record, or null if the pipeline has not produced one
+     */
+    public JSONObject record() {
+        return record;
+    }
+
+    /**
+     * Sets a listener that receives each part of the build log as the pipeline produces it.
+     *
+     * @param listener receives log text, or null to stop listening
+     */
+    public void setLogListener(Consumer<String> listener) {
+        this.logListener = listener;
+    }
+
+    /**
+     * Passes a part of the build log to the log listener, if one is set.
+     *
+     * @param text the log text
+     */
+    public void log(String text) {
+        Consumer<String> listener = logListener;
+        if (listener != null) {
+            listener.accept(text);
+        }
+    }
+
+    /**
+     * Returns how long the job waited in the queue, or has waited so far if it has not started.
+     *
+     * @return queue wait in milliseconds
+     */
+    public long queueWaitMillis() {
+        long end = startedAtMillis == 0 ? System.currentTimeMillis() : startedAtMillis;
+        return end - queuedAtMillis;
+    }
+
+    /**
+     * Describes the job for clients asking about a build that has no stored record yet.
+     *
+     * @return JSON summary of the job
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("repository", repository);
+        json.put("commit", commit == null ? "" : commit);
+        json.put("branch", branch);
+        json.put("status", state);
+        json.put("queueWaitMillis", queueWaitMillis());
+        return json;
+    }
+}
@@ -0,0 +1,403 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.example.util.Utils;
+
+/**
+ * Write-ahead journal of accepted builds, so queued and running builds survive a restart.
+ *
+ * <p>Every accepted webhook is appended to {@code data/journal.log} and forced to disk before
+ * it is acknowledged, followed later by a line when its build starts and one when it has
+ * finished. Each line is one JSON object with an {@code op} of {@code accepted},
+ * {@code started}, {@code finished} or {@code delivery}.</p>
+ *
+ * <p>On startup, {@link #recover} replays the journal: builds that were accepted but never
+ * started are queued again, and builds that were running when the server stopped are
+ * reported as interrupted. The journal is then rewritten with only the open builds and the
+ * most recent {@value #DELIVERIES} GitHub delivery IDs, which are used to ignore redelivered
+ * webhooks ({@code X-GitHub-Delivery}). The same compaction runs whenever the journal has
+ * grown to several times its live content.</p>
+ *
+ * <p>Delivery IDs are forgotten after {@code deliveryTtlHours} (system property, default 24),
+ * so the set stays bounded in time as well as in size.</p>
+ */
+public class BuildJournal {
+    static final int DELIVERIES = 10000;
+    private static final int MIN_COMPACTION_LINES = 1000;
+    private static final long DEFAULT_DELIVERY_TTL_HOURS = 24;
+    private static final BuildJournal SHARED = new BuildJournal(
+        new File(Utils.dataDir(), "journal.log"), Long.getLong("deliveryTtlHours", DEFAULT_DELIVERY_TTL_HOURS) * 3600 * 1000
+    );
+
+    private final File file;
+    private final long deliveryTtlMillis;
+    private final Map<String, JSONObject> open = new LinkedHashMap<String, JSONObject>();
+    // In insertion order, which is about the order of receipt, so expired IDs gather at the head
+    private final Map<String, Delivery> deliveries = new LinkedHashMap<String, Delivery>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Delivery> eldest) {
+            return size() > DELIVERIES;
+        }
+    };
+    private FileChannel channel;
+    private long lines;
+
+    /**
+     * The outcome of {@link #recover}.
+     */
+    public static final class Recovery {
+        /** Builds that had not started; they should be queued again. */
+        public final List<BuildJob> requeued = new ArrayList<BuildJob>();
+        /** Builds that were running; they should be recorded as interrupted. */
+        public final List<BuildJob> interrupted = new ArrayList<BuildJob>();
+        /** Lines read from the journal. */
+        public long lines;
+        /** Lines that could not be parsed, such as one torn by a crash. */
+        public long skippedLines;
+        public long durationMillis;
+    }
+
+    /**
+     * A remembered webhook delivery.
+     */
+    private static final class Delivery {
+        final String buildId;
+        final long receivedAtMillis;
+
+        Delivery(String buildId, long receivedAtMillis) {
+            this.buildId = buildId;
+            this.receivedAtMillis = receivedAtMillis;
+        }
+    }
+
+    /**
+     * Creates a journal stored in the given file that remembers deliveries for 24 hours.
+     *
+     * @param file the journal file
+     */
+    public BuildJournal(File file) {
+        this(file, DEFAULT_DELIVERY_TTL_HOURS * 3600 * 1000);
+    }
+
+    /**
+     * Creates a journal stored in the given file.
+     *
+     * @param file the journal file
+     * @param deliveryTtlMillis how long a delivery ID is remembered
+     */
+    public BuildJournal(File file, long deliveryTtlMillis) {
+        this.file = file;
+        this.deliveryTtlMillis = deliveryTtlMillis;
+    }
+
+    /**
+     * Returns the journal used by the server.
+     *
+     * @return the shared journal
+     */
+    public static BuildJournal shared() {
+        return SHARED;
+    }
+
+    /**
+     * Reads the journal left by the previous run and compacts it.
+     *
+     * @return the builds to queue again and the builds that were interrupted
+     * @throws IOException if the journal cannot be read or rewritten
+     */
+    public synchronized Recovery recover() throws IOException {
+        long started = System.currentTimeMillis();
+        Recovery recovery = new Recovery();
+        open.clear();
+        deliveries.clear();
+        closeChannel();
+        if (file.isFile()) {
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    recovery.lines++;
+                    if (!replay(line)) {
+                        recovery.skippedLines++;
+                    }
+                }
+            }
+        }
+        for (JSONObject entry : open.values()) {
+            BuildJob job = BuildJob.fromJournalEntry(entry);
+            if (entry.optBoolean("started")) {
+                recovery.interrupted.add(job);
+            } else {
+                recovery.requeued.add(job);
+            }
+        }
+        compact();
+        recovery.durationMillis = System.currentTimeMillis() - started;
+        return recovery;
+    }
+
+    /**
+     * Journals an accepted build before it is acknowledged.
+     *
+     * @param job the accepted job
+     * @param deliveryId the {@code X-GitHub-Delivery} header, or null
+     * @return the ID of the build already accepted for this delivery, or null if the job was
+     *         journaled
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized String accept(BuildJob job, String deliveryId) throws IOException {
+        String existingBuildId = duplicateOf(deliveryId);
+        if (existingBuildId != null) {
+            return existingBuildId;
+        }
+        long now = System.currentTimeMillis();
+        JSONObject entry = job.toJournalEntry();
+        if (deliveryId != null) {
+            entry.put("delivery", deliveryId).put("receivedAtMillis", now);
+        }
+        write(new JSONObject(entry.toString()).put("op", "accepted"));
+        if (deliveryId != null) {
+            deliveries.put(deliveryId, new Delivery(job.id, now));
+        }
+        open.put(job.id, entry);
+        return null;
+    }
+
+    /**
+     * Looks up a webhook delivery without journaling anything, so a redelivery can be answered
+     * before any other work is done.
+     *
+     * @param deliveryId the {@code X-GitHub-Delivery} header, or null
+     * @return the ID of the build accepted for this delivery, or null if it is new or expired
+     */
+    public synchronized String duplicateOf(String deliveryId) {
+        expireDeliveries(System.currentTimeMillis());
+        Delivery delivery = deliveryId == null ? null : deliveries.get(deliveryId);
+        return delivery == null ? null : delivery.buildId;
+    }
+
+    private void expireDeliveries(long now) {
+        Iterator<Delivery> iterator = deliveries.values().iterator();
+        while (iterator.hasNext() && now - iterator.next().receivedAtMillis > deliveryTtlMillis) {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Journals that a build has started.
+     *
+     * @param buildId the build ID
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void started(String buildId) throws IOException {
+        JSONObject entry = open.get(buildId);
+        if (entry == null) {
+            return;
+        }
+        entry.put("started", true);
+        write(new JSONObject().put("op", "started").put("id", buildId));
+    }
+
+    /**
+     * Journals that a build has finished and its record is stored.
+     *
+     * @param buildId the build ID
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void finished(String buildId) throws IOException {
+        if (open.remove(buildId) == null) {
+            return;
+        }
+        write(new JSONObject().put("op", "finished").put("id", buildId));
+        if (lines > MIN_COMPACTION_LINES && lines > 2L * (open.size() + deliveries.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Wraps a build runner so the start and end of every run are journaled.
+     *
+     * <p>A run that ends without a record, because the runner failed before storing one, gets
+     * an interrupted record and an error status before it is journaled as finished. A run
+     * interrupted by a shutdown stays open, so it is recovered at the next start.</p>
+     *
+     * @param runner runs one job to completion and stores its record
+     * @return a runner that journals around the given one
+     */
+    public Consumer<BuildJob> journaled(Consumer<BuildJob> runner) {
+        return job -> {
+            try {
+                started(job.id);
+            } catch (IOException e) {
+                System.out.println("Failed to journal start of build " + job.id);
+            }
+            try {
+                runner.accept(job);
+            } finally {
+                if (job.record() == null && Thread.currentThread().isInterrupted()) {
+                    System.out.println("Build " + job.id + " interrupted; leaving it open in the journal");
+                } else {
+                    finish(job);
+                }
+            }
+        };
+    }
+
+    private void finish(BuildJob job) {
+        if (job.record() == null) {
+            try {
+                job.setRecord(BuildPipeline.recordInterrupted(job, "Build failed before producing a record"));
+            } catch (IOException e) {
+                // Left open, so recovery stores the record after a restart
+                System.out.println("Failed to store record of build " + job.id);
+                return;
+            }
+        }
+        try {
+            finished(job.id);
+        } catch (IOException e) {
+            System.out.println("Failed to journal end of build " + job.id);
+        }
+    }
+
+    /**
+     * Returns the number of builds that are accepted but not finished.
+     *
+     * @return open builds
+     */
+    public synchronized int openBuilds() {
+        return open.size();
+    }
+
+    private boolean replay(String line) {
+        JSONObject entry;
+        try {
+            entry = new JSONObject(line);
+        } catch (JSONException e) {
+            return false;
+        }
+        String id = entry.optString("id", null);
+        switch (entry.optString("op")) {
+            case "accepted":
+                if (id == null) {
+                    return false;
+                }
+                entry.remove("op");
+                open.put(id, entry);
+                if (entry.has("delivery")) {
+                    remember(entry, id);
+                }
+                return true;
+            case "started":
+                JSONObject started = id == null ? null : open.get(id);
+                if (started != null) {
+                    started.put("started", true);
+                }
+                return id != null;
+            case "finished":
+                if (id != null) {
+                    open.remove(id);
+                }
+                return id != null;
+            case "delivery":
+                if (id == null || !entry.has("delivery")) {
+                    return false;
+                }
+                remember(entry, id);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Remembers a replayed delivery; lines written before delivery times were journaled count
+     * as received now.
+     */
+    private void remember(JSONObject entry, String buildId) {
+        long receivedAtMillis = entry.optLong("receivedAtMillis", System.currentTimeMillis());
+        if (System.currentTimeMillis() - receivedAtMillis <= deliveryTtlMillis) {
+            deliveries.remove(entry.getString("delivery"));
+            deliveries.put(entry.getString("delivery"), new Delivery(buildId, receivedAtMillis));
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the live entries and swaps it in atomically.
+     */
+    private void compact() throws IOException {
+        closeChannel();
+        File parentDir = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(parentDir.toPath());
+        File compacted = new File(parentDir, file.getName() + ".tmp");
+        StringBuilder content = new StringBuilder();
+        long written = 0;
+        expireDeliveries(System.currentTimeMillis());
+        for (Map.Entry<String, Delivery> delivery : deliveries.entrySet()) {
+            if (!open.containsKey(delivery.getValue().buildId)) {
+                content.append(new JSONObject().put("op", "delivery").put("delivery", delivery.getKey())
+                    .put("id", delivery.getValue().buildId)
+                    .put("receivedAtMillis", delivery.getValue().receivedAtMillis)).append('\n');
+                written++;
+            }
+        }
+        for (JSONObject entry : open.values()) {
+            JSONObject accepted = new JSONObject(entry.toString()).put("op", "accepted");
+            accepted.remove("started");
+            content.append(accepted).append('\n');
+            written++;
+            if (entry.optBoolean("started")) {
+                content.append(new JSONObject().put("op", "started").put("id", entry.getString("id"))).append('\n');
+                written++;
+            }
+        }
+        try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lines = written;
+    }
+
+    private void write(JSONObject line) throws IOException {
+        if (channel == null) {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap((line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+        lines++;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Runs the CI pipeline of a single {@link BuildJob}: repository setup, the stages of the
+ * repository's {@link PipelineDefinition} (build and tests by default), GitHub commit
+ * statuses and the stored build record.
+ */
+public final class BuildPipeline {
+    private BuildPipeline() {}
+
+    /**
+     * Posts a commit status for a job if a token and statuses URL are available.
+     *
+     * @param job the job the status belongs to
+     * @param state the commit state
+     * @param description a short message describing the status
+     */
+    public static void postStatus(BuildJob job, String state, String description) {
+        String token = System.getProperty("githubToken");
+        boolean hasToken = token != null && !token.isBlank();
+        if (!hasToken || job.statusesUrl == null || job.statusesUrl.isBlank()) {
+            return;
+        }
+        try {
+            GitHubStatusClient.postStatus(job.statusesUrl, state, description, job.repository, token);
+            BuildEventBus.shared().publish(
+                "status-posted", job, new JSONObject().put("state", state).put("description", description)
+            );
+        } catch (IOException e) {
+            System.out.println("Failed to post " + state + " status to GitHub");
+        }
+    }
+
+    /**
+     * Runs the whole pipeline of a job and stores its build record.
+     *
+     * <p>Errors are handled and logged.</p>
+     *
+     * @param job the job to run
+     */
+    public static void run(BuildJob job) {
+        run(job, null, record -> BuildHistoryStore.appendBuild(job.repository, record));
+    }
+
+    /**
+     * Runs the whole pipeline of a job and passes its build record to the given store.
+     *
+     * <p>Used by {@link BuildWorker}, which receives the settings from the coordinator and
+     * sends the record back to it. Errors are handled and logged.</p>
+     *
+     * @param job the job to run
+     * @param settings the repository settings, or null to load them from disk
+     * @param store receives the finished build record
+     */
+    public static void run(BuildJob job, RepositorySettings settings, BuildHistoryStore.BuildConsumer store) {
+        try {
+            execute(job, settings, store);
+        }
+
+        // Needed for SHA-256 to run
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not supported");
+        }
+
+        // Interruption
+        catch (InterruptedException e) {
+            System.out.println("CI job interrupted");
+            Thread.currentThread().interrupt();
+        }
+
+        // IO error
+        catch (IOException e) {
+            System.out.println("IO error during CI job");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stores the record of a build that was running when the server stopped and posts an
+     * error status for its commit.
+     *
+     * <p>If the record was already stored before the server stopped, only the journal is
+     * updated.</p>
+     *
+     * @param job the interrupted job, as recovered from the journal
+     * @throws IOException if the record cannot be stored
+     */
+    public static void recordInterrupted(BuildJob job) throws IOException {
+        if (BuildHistoryStore.getBuildById(job.id) == null) {
+            recordInterrupted(job, "Build interrupted by a server restart");
+        }
+        BuildJournal.shared().finished(job.id);
+    }
+
+    /**
+     * Stores an interrupted build record for a job that never produced its own and posts an
+     * error status for its commit.
+     *
+     * @param job the interrupted job
+     * @param reason why the build was interrupted, used as status description and log
+     * @return the stored record
+     * @throws IOException if the record cannot be stored
+     */
+    static JSONObject recordInterrupted(BuildJob job, String reason) throws IOException {
+        return recordInterrupted(job, reason, record -> BuildHistoryStore.appendBuild(job.repository, record));
+    }
+
+    /**
+     * Passes an interrupted build record for a job that never produced its own to the given
+     * store and posts an error status for its commit.
+     *
+     * @param job the interrupted job
+     * @param reason why the build was interrupted, used as status description and log
+     * @param store receives the record
+     * @return the record
+     * @throws IOException if the record cannot be stored
+     */
+    static JSONObject recordInterrupted(BuildJob job, String reason, BuildHistoryStore.BuildConsumer store)
+            throws IOException {
+        postStatus(job, "error", reason);
+        JSONObject buildRecord = new JSONObject();
+        buildRecord.put("id", job.id);
+        buildRecord.put("repository", job.repository);
+        buildRecord.put("commit", job.commit == null ? "" : job.commit);
+        buildRecord.put("branch", job.branch);
+        buildRecord.put("buildDate", Instant.now().toString());
+        buildRecord.put("buildSuccess", false);
+        buildRecord.put("testsSuccess", false);
+        buildRecord.put("status", "interrupted");
+        buildRecord.put("logs", reason + "\n");
+        store.accept(buildRecord);
+        return buildRecord;
+    }
+
+    /**
+     * Appends a part of the build log and passes it on to the job's log listener.
+     */
+    private static void log(BuildJob job, StringBuilder buildLogs, String text) {
+        // Stages running in parallel log from their own threads
+        synchronized (buildLogs) {
+            buildLogs.append(text);
+            job.log(text);
+        }
+    }
+
+    /**
+     * Test selection, results and sharding of the test stage.
+     */
+    private static final class TestStage {
+        TestSelector.Selection selection;
+        List<TestReportParser.TestCaseResult> testCases;
+        JSONObject sharding;
+    }
+
+    private static void execute(BuildJob job, RepositorySettings settings, BuildHistoryStore.BuildConsumer store)
+            throws IOException, InterruptedException, NoSuchAlgorithmException {
+        String token = System.getProperty("githubToken");
+        if (token == null || token.isBlank()) {
+            System.out.println("No githubToken provided; skipping GitHub status updates");
+        } else if (job.statusesUrl == null || job.statusesUrl.isBlank()) {
+            System.out.println("No statuses URL found in payload; skipping GitHub status updates");
+        }
+
+        // Set initial GitHub commit status to 'Pending'
+        postStatus(job, "pending", "Build started");
+
+        String buildDate = Instant.now().toString();
+        if (settings == null) {
+            settings = RepositorySettings.load(job.repository);
+        }
+
+        WorkspaceManager.Lease workspace = WorkspaceManager.shared().acquire(job.repository, job.cloneUrl, job.branch);
+        try {
+            runInWorkspace(job, settings, workspace, buildDate, store);
+        } finally {
+            WorkspaceManager.shared().release(workspace);
+        }
+    }
+
+    private static void runInWorkspace(BuildJob job, RepositorySettings settings, WorkspaceManager.Lease workspace,
+            String buildDate, BuildHistoryStore.BuildConsumer store) throws IOException, InterruptedException {
+        String fullName = job.repository;
+        StringBuilder buildLogs = new StringBuilder();
+        String sha = job.commit;
+        File repoDir = workspace.dir;
+        String absoluteRepoDir = repoDir.getAbsolutePath();
+
+        boolean buildSuccess = false;
+        boolean testsSuccess = false;
+        TestStage testStage = new TestStage();
+        String timedOutStage = null;
+        BuildPrefetcher.Claim prefetch = null;
+        JSONObject durations = new JSONObject();
+        JSONArray stageRecords = new JSONArray();
+        JSONObject criticalPath = null;
+        long pipelineStartMillis = System.currentTimeMillis();
+        long buildDeadline = pipelineStartMillis + settings.buildTimeoutMillis();
+        try {
+            // Core CI feature #1: Set up the repository
+            boolean cloneRepo = !workspace.warm;
+            long stageStartMillis = System.currentTimeMillis();
+            prefetch = BuildPrefetcher.shared().claim(job);
+            log(job, buildLogs, "Prefetch: " + prefetch.outcome + "\n");
+            CommandRunner.CommandResult repoResult = CommandRunner.cloneOrFetchRepoWithLogs(
+                cloneRepo, job.cloneUrl, absoluteRepoDir, job.branch, sha, stageTimeoutMillis(settings, buildDeadline),
+                prefetch.mirror == null ? null : prefetch.mirror.getAbsolutePath()
+            );
+            if (prefetch.mirror != null && !repoResult.success && !repoResult.timedOut) {
+                log(job, buildLogs, "Repository setup from mirror failed: \n" + repoResult.output + "\n");
+                if (cloneRepo) {
+                    WorkspaceManager.deleteDirectory(repoDir);
+                }
+                repoResult = CommandRunner.cloneOrFetchRepoWithLogs(
+                    cloneRepo, job.cloneUrl, absoluteRepoDir, job.branch, sha, stageTimeoutMillis(settings, buildDeadline),
+                    null
+                );
+            }
+            log(job, buildLogs, "Repository setup: \n" + repoResult.output + "\n");
+            long setupMillis = stageFinished(job, "setup", repoResult, stageStartMillis);
+            durations.put("setupMillis", setupMillis);
+            stageRecords.put(new JSONObject().put("name", "setup").put("needs", new JSONArray())
+                .put("status", repoResult.timedOut ? "timedOut" : repoResult.success ? "success" : "failure")
+                .put("startOffsetMillis", 0).put("durationMillis", setupMillis));
+            if (repoResult.timedOut) {
+                timedOutStage = "setup";
+            }
+
+            PipelineDefinition pipeline = loadPipeline(job, settings, buildLogs);
+            if (pipeline == null || !repoResult.success) {
+                for (PipelineDefinition.Stage stage : pipeline == null ? List.<PipelineDefinition.Stage>of() : pipeline.stages()) {
+                    log(job, buildLogs, stageTitle(stage.name) + ": \nRepository setup failed; "
+                        + (stage.tests ? "tests" : stage.name) + " skipped.\n\n");
+                    stageRecords.put(new JSONObject().put("name", stage.name).put("needs", new JSONArray(stage.needs))
+                        .put("status", "skipped"));
+                }
+            } else {
+                // Core CI feature #2: Build and run tests, in stages
+                List<StageExecutor.StageResult> results = StageExecutor.run(
+                    pipeline,
+                    settings.failFast(),
+                    pipelineStartMillis,
+                    stage -> runStage(job, settings, pipeline, stage, repoDir, buildDeadline, buildLogs, testStage),
+                    result -> {
+                        if (result.started()) {
+                            durations.put(result.stage.name + "Millis", result.durationMillis);
+                            BuildEventBus.shared().publish("stage-finished", job, new JSONObject()
+                                .put("stage", result.stage.name)
+                                .put("status", result.status)
+                                .put("success", "success".equals(result.status))
+                                .put("timedOut", "timedOut".equals(result.status))
+                                .put("durationMillis", result.durationMillis));
+                        }
+                        log(job, buildLogs, stageTitle(result.stage.name) + ": \n" + result.result.output + "\n");
+                    }
+                );
+
+                buildSuccess = true;
+                testsSuccess = true;
+                for (StageExecutor.StageResult result : results) {
+                    stageRecords.put(result.toJson());
+                    boolean success = "success".equals(result.status);
+                    if (result.stage.tests) {
+                        testsSuccess &= success;
+                    } else {
+                        buildSuccess &= success;
+                    }
+                    if (timedOutStage == null && "timedOut".equals(result.status)) {
+                        timedOutStage = result.stage.name;
+                    }
+                }
+                criticalPath = StageExecutor.criticalPath(results);
+                JSONArray pathStages = new JSONArray().put("setup");
+                criticalPath.getJSONArray("stages").forEach(pathStages::put);
+                criticalPath.put("stages", pathStages);
+            }
+        } finally {
+            durations.put("totalMillis", System.currentTimeMillis() - pipelineStartMillis);
+
+            // Send final commit status to GitHub
+            if (timedOutStage != null) {
+                System.out.println("❌ Build timed out in " + timedOutStage + " stage");
+                postStatus(job, "error", "Build timed out in " + timedOutStage + " stage!");
+            } else if (!buildSuccess) {
+                System.out.println("❌ Build failed");
+                postStatus(job, "failure", "Build failed!");
+            } else if (!testsSuccess) {
+                System.out.println("❌ Tests failed");
+                postStatus(job, "failure", "Tests failed!");
+            } else {
+                System.out.println("✅ Build & tests succeeded!");
+                postStatus(job, "success", "Build succeeded and tests passed!");
+            }
+        }
+
+        JSONObject buildRecord = createBuildRecord(
+            job.id,
+            fullName,
+            sha,
+            job.branch,
+            buildDate,
+            buildSuccess,
+            testsSuccess,
+            testStage.selection,
+            testStage.testCases,
+            testStage.sharding,
+            timedOutStage,
+            prefetch,
+            job.queueWaitMillis(),
+            durations,
+            stageRecords,
+            criticalPath,
+            buildLogs.toString()
+        );
+        store.accept(buildRecord);
+        job.setRecord(buildRecord);
+    }
+
+    /**
+     * Reads the repository's pipeline, logging why it cannot be used if it is invalid.
+     *
+     * @return the pipeline, or null if its definition is invalid
+     */
+    private static PipelineDefinition loadPipeline(BuildJob job, RepositorySettings settings, StringBuilder buildLogs) {
+        try {
+            return PipelineDefinition.of(settings);
+        } catch (IllegalArgumentException e) {
+            log(job, buildLogs, "Invalid pipeline stages: " + e.getMessage() + "\n");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the log heading of a stage, such as {@code Build} for {@code build}.
+     */
+    private static String stageTitle(String stage) {
+        return Character.toUpperCase(stage.charAt(0)) + stage.substring(1);
+    }
+
+    /**
+     * Runs one pipeline stage, in the repository checkout if no other stage can run at the
+     * same time and in its own worktree otherwise.
+     */
+    private static CommandRunner.CommandResult runStage(BuildJob job, RepositorySettings settings,
+            PipelineDefinition pipeline, PipelineDefinition.Stage stage, File repoDir, long buildDeadline,
+            StringBuilder buildLogs, TestStage testStage) throws IOException, InterruptedException {
+        File workDir = repoDir;
+        String worktreeLogs = "";
+        if (!pipeline.runsAlone(stage.name)) {
+            workDir = new File(repoDir.getPath() + "-stage-" + stage.name);
+            CommandRunner.CommandResult worktree = CommandRunner.prepareWorktree(
+                repoDir.getAbsolutePath(), workDir.getAbsolutePath()
+            );
+            if (!worktree.success) {
+                return new CommandRunner.CommandResult(false, worktree.output + "Worktree setup failed.\n");
+            }
+            worktreeLogs = worktree.output;
+        }
+        if (!stage.tests) {
+            CommandRunner.CommandResult result = CommandRunner.gradleWithLogs(
+                workDir.getAbsolutePath(), stage.gradleArguments, stageTimeoutMillis(settings, buildDeadline)
+            );
+            return new CommandRunner.CommandResult(result.success, worktreeLogs + result.output, result.timedOut);
+        }
+
+        testStage.selection = TestSelector.select(job.repository, job.branch, job.commit, workDir);
+        log(job, buildLogs, "Test selection: " + testStage.selection.reason + "\n");
+        if (!testStage.selection.skippedModules.isEmpty()) {
+            log(job, buildLogs, "Skipped modules: " + testStage.selection.skippedModules + "\n");
+        }
+        if (testStage.selection.testTasks().isEmpty()) {
+            return new CommandRunner.CommandResult(true, worktreeLogs + "No affected modules; tests skipped.\n");
+        }
+        long testStartMillis = System.currentTimeMillis() / 1000 * 1000;
+        ShardedTestRunner.Result shardedResult = ShardedTestRunner.run(
+            job.repository, workDir, testStage.selection, settings, stageTimeoutMillis(settings, buildDeadline)
+        );
+        testStage.sharding = shardedResult.sharding;
+        testStage.testCases = recordTestResults(job.repository, job.id, job.commit, shardedResult.workDirs, testStartMillis);
+        CommandRunner.CommandResult result = shardedResult.commandResult;
+        return new CommandRunner.CommandResult(result.success, worktreeLogs + result.output, result.timedOut);
+    }
+
+    /**
+     * Returns the time limit for the next stage: the stage timeout, cut short by the
+     * remaining build time.
+     */
+    private static long stageTimeoutMillis(RepositorySettings settings, long buildDeadline) {
+        long remaining = buildDeadline - System.currentTimeMillis();
+        return Math.max(1, Math.min(settings.stageTimeoutMillis(), remaining));
+    }
+
+    private static long stageFinished(BuildJob job, String stage, CommandRunner.CommandResult result, long startMillis) {
+        long durationMillis = System.currentTimeMillis() - startMillis;
+        BuildEventBus.shared().publish("stage-finished", job, new JSONObject()
+            .put("stage", stage)
+            .put("success", result.success)
+            .put("timedOut", result.timedOut)
+            .put("durationMillis", durationMillis));
+        return durationMillis;
+    }
+
+    private static List<TestReportParser.TestCaseResult> recordTestResults(
+        String repository,
+        String buildId,
+        String commit,
+        List<File> workDirs,
+        long testStartMillis
+    ) {
+        try {
+            List<TestReportParser.TestCaseResult> testCases = new ArrayList<TestReportParser.TestCaseResult>();
+            for (File workDir : workDirs) {
+                testCases.addAll(TestReportParser.parse(workDir, testStartMillis));
+            }
+            TestResultStore.appendResults(repository, buildId, commit, testCases);
+            return testCases;
+        } catch (IOException e) {
+            System.out.println("Failed to record test results");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static JSONObject summarizeTests(List<TestReportParser.TestCaseResult> testCases) {
+        int failed = 0;
+        int skipped = 0;
+        long durationMillis = 0;
+        for (TestReportParser.TestCaseResult testCase : testCases) {
+            if ("failed".equals(testCase.outcome)) {
+                failed++;
+            } else if ("skipped".equals(testCase.outcome)) {
+                skipped++;
+            }
+            durationMillis += testCase.durationMillis;
+        }
+        JSONObject summary = new JSONObject();
+        summary.put("total", testCases.size());
+        summary.put("failed", failed);
+        summary.put("skipped", skipped);
+        summary.put("durationMillis", durationMillis);
+        return summary;
+    }
+
+    private static JSONObject createBuildRecord(
+        String buildId,
+        String repository,
+        String commit,
+        String branch,
+        String buildDate,
+        boolean buildSuccess,
+        boolean testsSuccess,
+        TestSelector.Selection testSelection,
+        List<TestReportParser.TestCaseResult> testCases,
+        JSONObject testSharding,
+        String timedOutStage,
+        BuildPrefetcher.Claim prefetch,
+        long queueWaitMillis,
+        JSONObject durations,
+        JSONArray stages,
+        JSONObject criticalPath,
+        String logs
+    ) {
+        JSONObject buildRecord = new JSONObject();
+        buildRecord.put("id", buildId);
+        buildRecord.put("repository", repository);
+        buildRecord.put("commit", commit == null ? "" : commit);
+        buildRecord.put("branch", branch);
+        buildRecord.put("buildDate", buildDate);
+        buildRecord.put("buildSuccess", buildSuccess);
+        buildRecord.put("testsSuccess", testsSuccess);
+        if (timedOutStage != null) {
+            buildRecord.put("status", "timedOut");
+            buildRecord.put("timedOutStage", timedOutStage);
+        } else {
+            buildRecord.put("status", buildSuccess && testsSuccess ? "success" : "failure");
+        }
+        if (testSelection != null) {
+            buildRecord.put("testSelection", testSelection.toJson());
+        }
+        if (testCases != null) {
+            buildRecord.put("tests", summarizeTests(testCases));
+        }
+        if (testSharding != null) {
+            buildRecord.put("testSharding", testSharding);
+        }
+        if (prefetch != null) {
+            buildRecord.put("prefetch", prefetch.toJson());
+        }
+        buildRecord.put("queueWaitMillis", queueWaitMillis);
+        buildRecord.put("durations", durations);
+        buildRecord.put("stages", stages);
+        if (criticalPath != null) {
+            buildRecord.put("criticalPath", criticalPath);
+        }
+        buildRecord.put("logs", logs);
+        return buildRecord;
+    }
+}
@@ -0,0 +1,219 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.JSONObject;
+
+/**
+ * Fetches the pushed commit into a local mirror while its build waits in the queue.
+ *
+ * <p>When a webhook is accepted, {@link #prefetch} updates the repository's bare mirror
+ * (see {@link WorkspaceManager#mirrorDir}) on a small pool of its own
+ * ({@code prefetchThreads} system property, default 2), so network I/O neither takes a build
+ * worker nor runs more than a few transfers at once. When the build starts, {@link #claim}
+ * hands the mirror to the pipeline, which then clones or fetches from local disk instead of
+ * the remote. A prefetch that is still running is waited for, since it already did part of
+ * the transfer.</p>
+ *
+ * <p>Each claim is counted as a {@code hit} (prefetch finished), {@code partial} (still
+ * running), {@code miss} (never prefetched) or {@code failed}. The time saved is the prefetch
+ * time that overlapped the queue wait.</p>
+ */
+public class BuildPrefetcher {
+    private static final int DEFAULT_THREADS = 2;
+    private static final BuildPrefetcher SHARED = new BuildPrefetcher(WorkspaceManager.shared(), threads());
+
+    private final WorkspaceManager workspaces;
+    private final ExecutorService executor;
+    private final Map<String, Prefetch> prefetches = new ConcurrentHashMap<String, Prefetch>();
+    private final Map<String, Object> repositoryLocks = new ConcurrentHashMap<String, Object>();
+    private final Map<String, Long> claims = new TreeMap<String, Long>();
+    private long timeSavedMillis;
+
+    /**
+     * A prefetch of one job's commit.
+     */
+    private static final class Prefetch {
+        volatile long startedAtMillis;
+        volatile long finishedAtMillis;
+        Future<Boolean> future;
+    }
+
+    /**
+     * Outcome of {@link #claim}.
+     */
+    public static final class Claim {
+        /** One of {@code hit}, {@code partial}, {@code miss} or {@code failed}. */
+        public final String outcome;
+        /** The mirror to sync from, or null if the remote has to be used. */
+        public final File mirror;
+        public final long savedMillis;
+
+        Claim(String outcome, File mirror, long savedMillis) {
+            this.outcome = outcome;
+            this.mirror = mirror;
+            this.savedMillis = savedMillis;
+        }
+
+        /**
+         * Describes the claim for the build record.
+         *
+         * @return JSON object with the outcome and time saved
+         */
+        public JSONObject toJson() {
+            return new JSONObject().put("outcome", outcome).put("savedMillis", savedMillis);
+        }
+    }
+
+    /**
+     * Creates a prefetcher using the mirrors of the given workspace manager.
+     *
+     * @param workspaces provides the mirror directories
+     * @param threads the number of concurrent prefetches
+     */
+    public BuildPrefetcher(WorkspaceManager workspaces, int threads) {
+        this.workspaces = workspaces;
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the prefetcher used by the server.
+     *
+     * @return the shared prefetcher
+     */
+    public static BuildPrefetcher shared() {
+        return SHARED;
+    }
+
+    /**
+     * Starts fetching a queued job's commit into the repository's mirror.
+     *
+     * @param job the accepted job
+     */
+    public void prefetch(BuildJob job) {
+        Prefetch prefetch = new Prefetch();
+        prefetch.future = executor.submit(() -> {
+            prefetch.startedAtMillis = System.currentTimeMillis();
+            try {
+                return updateMirror(job);
+            } finally {
+                prefetch.finishedAtMillis = System.currentTimeMillis();
+            }
+        });
+        prefetches.put(job.id, prefetch);
+    }
+
+    /**
+     * Takes the prefetch result of a job that is about to run, waiting for a running prefetch.
+     *
+     * @param job the starting job
+     * @return the mirror to use, if any, and how the prefetch went
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public Claim claim(BuildJob job) throws InterruptedException {
+        Prefetch prefetch = prefetches.remove(job.id);
+        Claim claim;
+        if (prefetch == null) {
+            claim = new Claim("miss", null, 0);
+        } else {
+            long claimedAtMillis = System.currentTimeMillis();
+            boolean finished = prefetch.future.isDone();
+            boolean success;
+            try {
+                success = prefetch.future.get();
+            } catch (ExecutionException e) {
+                success = false;
+            }
+            long startedAtMillis = prefetch.startedAtMillis == 0 ? claimedAtMillis : prefetch.startedAtMillis;
+            long endMillis = finished ? prefetch.finishedAtMillis : claimedAtMillis;
+            long savedMillis = Math.max(0, endMillis - startedAtMillis);
+            File mirror = mirror(job.repository);
+            if (!success || mirror == null) {
+                claim = new Claim("failed", null, 0);
+            } else {
+                claim = new Claim(finished ? "hit" : "partial", mirror, savedMillis);
+            }
+        }
+        synchronized (this) {
+            claims.merge(claim.outcome, 1L, Long::sum);
+            timeSavedMillis += claim.savedMillis;
+        }
+        return claim;
+    }
+
+    /**
+     * Returns prefetch counts and time saved.
+     *
+     * @return JSON object with claims per outcome, hit rate, time saved and pending prefetches
+     */
+    public synchronized JSONObject metrics() {
+        long total = 0;
+        for (long count : claims.values()) {
+            total += count;
+        }
+        long hits = claims.getOrDefault("hit", 0L) + claims.getOrDefault("partial", 0L);
+        return new JSONObject()
+            .put("claims", new JSONObject(claims))
+            .put("hitRate", total == 0 ? 0 : (double) hits / total)
+            .put("timeSavedMillis", timeSavedMillis)
+            .put("pending", prefetches.size());
+    }
+
+    private boolean updateMirror(BuildJob job) throws InterruptedException, IOException {
+        File mirror = mirror(job.repository);
+        if (mirror == null) {
+            return false;
+        }
+        // One transfer per repository at a time; later pushes then only fetch the difference
+        synchronized (repositoryLocks.computeIfAbsent(job.repository, key -> new Object())) {
+            // Always fetch, even if the commit is already present, so the branch refs are current
+            boolean existed = new File(mirror, "HEAD").isFile();
+            RepositorySettings settings;
+            try {
+                settings = RepositorySettings.load(job.repository);
+            } catch (IOException e) {
+                settings = RepositorySettings.of(new JSONObject());
+            }
+            CommandRunner.CommandResult result = CommandRunner.mirrorRepoWithLogs(
+                job.cloneUrl, mirror.getAbsolutePath(), settings.stageTimeoutMillis()
+            );
+            if (!result.success) {
+                System.out.println("Prefetch of " + job.repository + " failed");
+                if (!existed) {
+                    WorkspaceManager.deleteDirectory(mirror);
+                }
+                return false;
+            }
+            return job.commit == null || job.commit.isEmpty() || CommandRunner.hasCommit(mirror.getAbsolutePath(), job.commit);
+        }
+    }
+
+    private File mirror(String repository) {
+        try {
+            return workspaces.mirrorDir(repository);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static int threads() {
+        try {
+            return Integer.parseInt(System.getProperty("prefetchThreads", String.valueOf(DEFAULT_THREADS)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_THREADS;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+
+/**
+ * Queues accepted build jobs and starts them when the host has capacity for them.
+ *
+ * <p>Jobs wait in a {@link FairShareQueue}, which orders them by repository weight
+ * ({@code schedulingWeight}), default-branch priority and a starvation limit of
+ * {@code maxQueueWaitSeconds} (system property, default 900). A single dispatcher thread
+ * looks at the next job of the queue and asks
+ * {@link ResourceMonitor#decide} whether it may start, given the resource hints from the
+ * repository's {@link RepositorySettings} and the resources reserved by running builds. Jobs
+ * that are not admitted stay queued and are re-checked when a build finishes or after a
+ * short delay. Admission decisions are counted per reason and, together with queue-wait
+ * percentiles per repository, exposed by {@link #metrics()}.</p>
+ *
+ * <p>A repository runs at most {@code maxConcurrentBuilds} builds at once (repository
+ * setting, default 1); while it is at its limit, its queued jobs are passed over in favour of
+ * other repositories.</p>
+ */
+public class BuildScheduler {
+    private static final long RECHECK_MILLIS = 1000;
+    private static final long DEFAULT_MAX_QUEUE_WAIT_SECONDS = 900;
+    private static final int WAIT_SAMPLES = 1024;
+
+    private final ResourceMonitor monitor;
+    private final Consumer<BuildJob> runner;
+    private final FairShareQueue queue = new FairShareQueue(maxQueueWaitMillis());
+    private final Map<String, BuildJob> jobs = new ConcurrentHashMap<String, BuildJob>();
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+    private final Map<String, Long> admittedByReason = new TreeMap<String, Long>();
+    private final Map<String, Long> deferredByReason = new TreeMap<String, Long>();
+    private final Map<String, WaitSamples> queueWaits = new TreeMap<String, WaitSamples>();
+    private final Map<String, Integer> runningByRepository = new HashMap<String, Integer>();
+    private final Map<String, Integer> repositoryLimits = new HashMap<String, Integer>();
+    private final List<Consumer<BuildJob>> completionListeners = new CopyOnWriteArrayList<Consumer<BuildJob>>();
+
+    private int running;
+    private double reservedCores;
+    private long reservedMemoryMb;
+    private ResourceMonitor.Snapshot lastSnapshot;
+    // The last deferral counted, so rechecks of the same job do not inflate the counts
+    private String lastDeferredJobId;
+    private String lastDeferredReason;
+
+    /**
+     * Creates a scheduler and starts its dispatcher thread.
+     *
+     * @param monitor source of host resources and admission decisions
+     * @param runner runs one admitted job to completion on a worker thread
+     */
+    public BuildScheduler(ResourceMonitor monitor, Consumer<BuildJob> runner) {
+        this.monitor = monitor;
+        this.runner = runner;
+        Thread dispatcher = new Thread(this::dispatchLoop, "build-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @param job the accepted job
+     */
+    public synchronized void submit(BuildJob job) {
+        jobs.put(job.id, job);
+        queue.add(job);
+        notifyAll();
+        BuildEventBus.shared().publish("queued", job, null);
+    }
+
+    /**
+     * Adds a listener that is called on the worker thread after each job has finished.
+     *
+     * @param listener receives the finished job
+     */
+    public void addCompletionListener(Consumer<BuildJob> listener) {
+        completionListeners.add(listener);
+    }
+
+    /**
+     * Finds a job that is queued or running.
+     *
+     * @param buildId the build ID
+     * @return the job, or null if it is unknown or already finished
+     */
+    public BuildJob getJob(String buildId) {
+        return jobs.get(buildId);
+    }
+
+    /**
+     * Returns the number of builds waiting to start.
+     *
+     * @return queued builds
+     */
+    public synchronized int queuedBuilds() {
+        return queue.size();
+    }
+
+    /**
+     * Returns queue and admission metrics.
+     *
+     * @return JSON object with queue length, running builds, reservations and decision counts
+     */
+    public synchronized JSONObject metrics() {
+        JSONObject admission = new JSONObject();
+        admission.put("queued", queue.size());
+        admission.put("running", running);
+        admission.put("reservedCores", reservedCores);
+        admission.put("reservedMemoryMb", reservedMemoryMb);
+        admission.put("admitted", new JSONObject(admittedByReason));
+        admission.put("deferred", new JSONObject(deferredByReason));
+        if (lastSnapshot != null) {
+            admission.put("host", lastSnapshot.toJson());
+        }
+        JSONObject waits = new JSONObject();
+        for (Map.Entry<String, WaitSamples> entry : queueWaits.entrySet()) {
+            waits.put(entry.getKey(), entry.getValue().toJson());
+        }
+        return new JSONObject().put("admission", admission).put("queueWait", waits);
+    }
+
+    private void dispatchLoop() {
+        try {
+            while (true) {
+                BuildJob next;
+                synchronized (this) {
+                    while ((next = queue.peek(System.currentTimeMillis(), busyRepositories())) == null) {
+                        wait();
+                    }
+                }
+                BuildJob job = next;
+
+                RepositorySettings settings = loadSettings(job.repository);
+                double cores = settings.cpuCores();
+                long memoryMb = settings.memoryMb();
+                ResourceMonitor.Snapshot snapshot = monitor.snapshot();
+
+                synchronized (this) {
+                    lastSnapshot = snapshot;
+                    ResourceMonitor.Decision decision = ResourceMonitor.decide(
+                        snapshot, running, reservedCores, reservedMemoryMb, cores, memoryMb
+                    );
+                    if (!decision.admitted) {
+                        if (!job.id.equals(lastDeferredJobId) || !decision.reason.equals(lastDeferredReason)) {
+                            deferredByReason.merge(decision.reason, 1L, Long::sum);
+                            lastDeferredJobId = job.id;
+                            lastDeferredReason = decision.reason;
+                        }
+                        wait(RECHECK_MILLIS);
+                        continue;
+                    }
+                    admittedByReason.merge(decision.reason, 1L, Long::sum);
+                    queue.remove(job, settings.schedulingWeight());
+                    queueWaits.computeIfAbsent(job.repository, key -> new WaitSamples())
+                        .add(System.currentTimeMillis() - job.queuedAtMillis);
+                    running++;
+                    runningByRepository.merge(job.repository, 1, Integer::sum);
+                    repositoryLimits.put(job.repository, settings.maxConcurrentBuilds());
+                    reservedCores += cores;
+                    reservedMemoryMb += memoryMb;
+                }
+                workers.execute(() -> runJob(job, cores, memoryMb));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runJob(BuildJob job, double cores, long memoryMb) {
+        job.markStarted();
+        BuildEventBus.shared().publish("started", job, new JSONObject().put("queueWaitMillis", job.queueWaitMillis()));
+        try {
+            runner.accept(job);
+        } catch (RuntimeException e) {
+            System.out.println("Build " + job.id + " failed unexpectedly");
+            e.printStackTrace();
+        } finally {
+            job.markFinished();
+            jobs.remove(job.id);
+            JSONObject record = job.record();
+            BuildEventBus.shared().publish(
+                "finished", job, new JSONObject().put("status", record == null ? "error" : record.getString("status"))
+            );
+            synchronized (this) {
+                running--;
+                if (runningByRepository.merge(job.repository, -1, Integer::sum) == 0) {
+                    runningByRepository.remove(job.repository);
+                    repositoryLimits.remove(job.repository);
+                }
+                reservedCores -= cores;
+                reservedMemoryMb -= memoryMb;
+                notifyAll();
+            }
+            for (Consumer<BuildJob> listener : completionListeners) {
+                listener.accept(job);
+            }
+        }
+    }
+
+    /**
+     * Returns the repositories that run as many builds as they may.
+     */
+    private Set<String> busyRepositories() {
+        Set<String> busy = new HashSet<String>();
+        for (Map.Entry<String, Integer> entry : runningByRepository.entrySet()) {
+            if (entry.getValue() >= repositoryLimits.getOrDefault(entry.getKey(), 1)) {
+                busy.add(entry.getKey());
+            }
+        }
+        return busy;
+    }
+
+    private static long maxQueueWaitMillis() {
+        try {
+            return 1000 * Long.parseLong(
+                System.getProperty("maxQueueWaitSeconds", String.valueOf(DEFAULT_MAX_QUEUE_WAIT_SECONDS))
+            );
+        } catch (NumberFormatException e) {
+            return 1000 * DEFAULT_MAX_QUEUE_WAIT_SECONDS;
+        }
+    }
+
+    /**
+     * The most recent queue waits of one repository.
+     */
+    private static final class WaitSamples {
+        private final long[] samples = new long[WAIT_SAMPLES];
+        private long count;
+
+        void add(long waitMillis) {
+            samples[(int) (count % WAIT_SAMPLES)] = waitMillis;
+            count++;
+        }
+
+        JSONObject toJson() {
+            long[] sorted = Arrays.copyOf(samples, (int) Math.min(count, WAIT_SAMPLES));
+            Arrays.sort(sorted);
+            return new JSONObject()
+                .put("count", count)
+                .put("p50Millis", percentile(sorted, 0.50))
+                .put("p90Millis", percentile(sorted, 0.90))
+                .put("p99Millis", percentile(sorted, 0.99))
+                .put("maxMillis", sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+        }
+
+        private static long percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+
+    private RepositorySettings loadSettings(String repository) {
+        try {
+            return RepositorySettings.load(repository);
+        } catch (IOException e) {
+            System.out.println("Invalid settings for " + repository + "; using defaults");
+            return RepositorySettings.of(new JSONObject());
+        }
+    }
+}
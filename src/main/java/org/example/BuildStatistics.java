@@ -0,0 +1,451 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Build counts, success rates and duration percentiles per repository and branch over the last
+ * hour, day and week, kept up to date as builds are stored.
+ *
+ * <p>Every repository and branch has a series of time buckets: five-minute buckets covering
+ * the last hour and hourly buckets covering the last week. A bucket holds its build count,
+ * success count and a {@link DurationSketch}, and buckets merge by adding them up, so a
+ * window is answered by merging the buckets it covers. Buckets older than a week are
+ * dropped as new builds arrive, and series without a build in the last week are dropped
+ * whenever a snapshot is taken.</p>
+ *
+ * <p>The statistics are saved to a snapshot file at most once a minute, together with the
+ * number of {@link BuildSummaryFile} rows they include. On startup, the snapshot is read and
+ * only the summary rows appended after it are replayed; without a usable snapshot the
+ * statistics are rebuilt from the summary file, never from the JSON build records. The
+ * snapshot is only a shortcut for startup, so failing to write it is logged and otherwise
+ * ignored.</p>
+ */
+public class BuildStatistics {
+    static final long FINE_BUCKET_MILLIS = 5L * 60 * 1000;
+    static final int FINE_BUCKETS = 12;
+    static final long COARSE_BUCKET_MILLIS = 60L * 60 * 1000;
+    static final int COARSE_BUCKETS = 7 * 24;
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 60 * 1000;
+
+    private final File snapshotFile;
+    private final Map<String, RepositoryStatistics> repositories = new TreeMap<String, RepositoryStatistics>();
+    private boolean loaded;
+    private long coveredRows;
+    private long lastSnapshotMillis;
+
+    /**
+     * Creates statistics saved to the given snapshot file.
+     *
+     * @param snapshotFile the snapshot file
+     */
+    public BuildStatistics(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Checks whether the statistics have been loaded.
+     *
+     * @return true if {@link #load} has completed since the last {@link #invalidate}
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Loads the snapshot and replays the summary rows it does not include.
+     *
+     * @param summary the summary of all stored builds
+     * @throws IOException if reading the summary fails
+     */
+    public synchronized void load(BuildSummaryFile summary) throws IOException {
+        repositories.clear();
+        coveredRows = 0;
+        long rowCount = summary.rowCount();
+        try {
+            readSnapshot(rowCount);
+        } catch (IOException e) {
+            System.out.println("Ignoring build statistics snapshot: " + e.getMessage());
+            repositories.clear();
+            coveredRows = 0;
+        }
+        long replayFrom = coveredRows;
+        summary.forEachRow(replayFrom, (timeMillis, repository, branch, status, totalMillis) -> {
+            add(timeMillis, repository, branch, "success".equals(status), totalMillis);
+            coveredRows++;
+        });
+        loaded = true;
+        if (coveredRows != replayFrom) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Drops the statistics and their snapshot, for example because the summary was rebuilt.
+     *
+     * @throws IOException if the snapshot cannot be deleted
+     */
+    public synchronized void invalidate() throws IOException {
+        repositories.clear();
+        coveredRows = 0;
+        loaded = false;
+        Files.deleteIfExists(snapshotFile.toPath());
+    }
+
+    /**
+     * Adds a build that has just been appended to the summary file.
+     *
+     * <p>Before {@link #load} the build is ignored, since loading replays it from the summary.</p>
+     *
+     * @param build the stored build record
+     */
+    public synchronized void record(JSONObject build) {
+        if (!loaded) {
+            return;
+        }
+        JSONObject durations = build.optJSONObject("durations");
+        add(
+            BuildSummaryFile.buildTimeMillis(build),
+            build.optString("repository", ""),
+            build.optString("branch", ""),
+            "success".equals(build.optString("status", "")),
+            durations == null ? 0 : durations.optLong("totalMillis", 0)
+        );
+        coveredRows++;
+        if (System.currentTimeMillis() - lastSnapshotMillis >= SNAPSHOT_INTERVAL_MILLIS) {
+            saveSnapshot();
+        }
+    }
+
+    /**
+     * Returns the statistics of the last hour, day and week.
+     *
+     * @param repositoryFilter only report this repository, or null for all
+     * @param nowMillis the end of the windows
+     * @return JSON object with totals and per-repository and per-branch windows
+     */
+    public synchronized JSONObject toJson(String repositoryFilter, long nowMillis) {
+        Rollup[] total = {new Rollup(), new Rollup(), new Rollup()};
+        JSONArray repositoryResults = new JSONArray();
+        for (Map.Entry<String, RepositoryStatistics> entry : repositories.entrySet()) {
+            if (repositoryFilter != null && !repositoryFilter.equals(entry.getKey())) {
+                continue;
+            }
+            RepositoryStatistics statistics = entry.getValue();
+            Rollup[] windows = statistics.all.windows(nowMillis);
+            if (windows[2].count == 0) {
+                continue;
+            }
+            JSONArray branchResults = new JSONArray();
+            for (Map.Entry<String, Series> branch : statistics.branches.entrySet()) {
+                Rollup[] branchWindows = branch.getValue().windows(nowMillis);
+                if (branchWindows[2].count > 0) {
+                    branchResults.put(windowsJson(branchWindows).put("branch", branch.getKey()));
+                }
+            }
+            repositoryResults.put(windowsJson(windows).put("repository", entry.getKey()).put("branches", branchResults));
+            for (int i = 0; i < total.length; i++) {
+                total[i].merge(windows[i]);
+            }
+        }
+        return new JSONObject()
+            .put("generatedAt", Instant.ofEpochMilli(nowMillis).toString())
+            .put("total", windowsJson(total))
+            .put("repositories", repositoryResults);
+    }
+
+    private void add(long timeMillis, String repository, String branch, boolean success, long totalMillis) {
+        RepositoryStatistics statistics = repositories.computeIfAbsent(repository, key -> new RepositoryStatistics());
+        statistics.all.add(timeMillis, success, totalMillis);
+        statistics.branches.computeIfAbsent(branch, key -> new Series()).add(timeMillis, success, totalMillis);
+    }
+
+    private static JSONObject windowsJson(Rollup[] windows) {
+        return new JSONObject()
+            .put("hour", windows[0].toSummaryJson())
+            .put("day", windows[1].toSummaryJson())
+            .put("week", windows[2].toSummaryJson());
+    }
+
+    private void readSnapshot(long rowCount) throws IOException {
+        if (!snapshotFile.isFile()) {
+            return;
+        }
+        String content = new String(Files.readAllBytes(snapshotFile.toPath()), StandardCharsets.UTF_8).trim();
+        try {
+            JSONObject snapshot = new JSONObject(content);
+            long snapshotRows = snapshot.getLong("summaryRows");
+            if (snapshotRows > rowCount) {
+                // The summary was rebuilt with fewer rows, so the snapshot no longer matches it
+                return;
+            }
+            JSONObject repositoriesJson = snapshot.getJSONObject("repositories");
+            for (String repository : repositoriesJson.keySet()) {
+                JSONObject repositoryJson = repositoriesJson.getJSONObject(repository);
+                RepositoryStatistics statistics = new RepositoryStatistics();
+                statistics.all.readJson(repositoryJson.getJSONObject("all"));
+                JSONObject branchesJson = repositoryJson.getJSONObject("branches");
+                for (String branch : branchesJson.keySet()) {
+                    Series series = new Series();
+                    series.readJson(branchesJson.getJSONObject(branch));
+                    statistics.branches.put(branch, series);
+                }
+                repositories.put(repository, statistics);
+            }
+            coveredRows = snapshotRows;
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON in " + snapshotFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Drops stale series and writes the snapshot, logging a failure instead of passing it on.
+     */
+    private void saveSnapshot() {
+        long now = System.currentTimeMillis();
+        // Retried after the next interval, not with every build
+        lastSnapshotMillis = now;
+        prune(now);
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            System.out.println("Failed to write build statistics snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops the branches and repositories without a build in the last week.
+     */
+    private void prune(long nowMillis) {
+        long oldestBucket = nowMillis / COARSE_BUCKET_MILLIS - COARSE_BUCKETS;
+        Iterator<RepositoryStatistics> repositoryIterator = repositories.values().iterator();
+        while (repositoryIterator.hasNext()) {
+            RepositoryStatistics statistics = repositoryIterator.next();
+            statistics.branches.values().removeIf(series -> series.newestBucket() <= oldestBucket);
+            if (statistics.all.newestBucket() <= oldestBucket) {
+                repositoryIterator.remove();
+            }
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        JSONObject repositoriesJson = new JSONObject();
+        for (Map.Entry<String, RepositoryStatistics> entry : repositories.entrySet()) {
+            JSONObject branchesJson = new JSONObject();
+            for (Map.Entry<String, Series> branch : entry.getValue().branches.entrySet()) {
+                branchesJson.put(branch.getKey(), branch.getValue().toJson());
+            }
+            repositoriesJson.put(entry.getKey(), new JSONObject()
+                .put("all", entry.getValue().all.toJson())
+                .put("branches", branchesJson));
+        }
+        JSONObject snapshot = new JSONObject().put("summaryRows", coveredRows).put("repositories", repositoriesJson);
+        File parentDir = snapshotFile.getAbsoluteFile().getParentFile();
+        if (parentDir != null) {
+            Files.createDirectories(parentDir.toPath());
+        }
+        Files.write(snapshotFile.toPath(), snapshot.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The series of a repository as a whole and of each of its branches.
+     */
+    private static final class RepositoryStatistics {
+        final Series all = new Series();
+        final Map<String, Series> branches = new TreeMap<String, Series>();
+    }
+
+    /**
+     * Five-minute buckets for the last hour and hourly buckets for the last week, keyed by
+     * bucket number since the epoch.
+     */
+    private static final class Series {
+        final TreeMap<Long, Rollup> fine = new TreeMap<Long, Rollup>();
+        final TreeMap<Long, Rollup> coarse = new TreeMap<Long, Rollup>();
+
+        void add(long timeMillis, boolean success, long totalMillis) {
+            add(fine, timeMillis / FINE_BUCKET_MILLIS, FINE_BUCKETS, success, totalMillis);
+            add(coarse, timeMillis / COARSE_BUCKET_MILLIS, COARSE_BUCKETS, success, totalMillis);
+        }
+
+        private static void add(TreeMap<Long, Rollup> buckets, long bucket, int keep, boolean success, long totalMillis) {
+            long newest = buckets.isEmpty() ? bucket : Math.max(bucket, buckets.lastKey());
+            if (bucket <= newest - keep) {
+                return;
+            }
+            buckets.computeIfAbsent(bucket, key -> new Rollup()).add(success, totalMillis);
+            buckets.headMap(newest - keep, true).clear();
+        }
+
+        /**
+         * Returns the hourly bucket of the newest build, or -1 if the series is empty.
+         */
+        long newestBucket() {
+            return coarse.isEmpty() ? -1 : coarse.lastKey();
+        }
+
+        /**
+         * Merges the buckets of the last hour, day and week.
+         */
+        Rollup[] windows(long nowMillis) {
+            return new Rollup[] {
+                merge(fine, nowMillis / FINE_BUCKET_MILLIS, FINE_BUCKETS),
+                merge(coarse, nowMillis / COARSE_BUCKET_MILLIS, 24),
+                merge(coarse, nowMillis / COARSE_BUCKET_MILLIS, COARSE_BUCKETS)
+            };
+        }
+
+        private static Rollup merge(TreeMap<Long, Rollup> buckets, long current, int count) {
+            Rollup merged = new Rollup();
+            for (Rollup rollup : buckets.subMap(current - count, false, current, true).values()) {
+                merged.merge(rollup);
+            }
+            return merged;
+        }
+
+        JSONObject toJson() {
+            return new JSONObject().put("fine", bucketsJson(fine)).put("coarse", bucketsJson(coarse));
+        }
+
+        void readJson(JSONObject json) {
+            readBuckets(json.getJSONObject("fine"), fine);
+            readBuckets(json.getJSONObject("coarse"), coarse);
+        }
+
+        private static JSONObject bucketsJson(TreeMap<Long, Rollup> buckets) {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<Long, Rollup> entry : buckets.entrySet()) {
+                json.put(String.valueOf(entry.getKey()), entry.getValue().toJson());
+            }
+            return json;
+        }
+
+        private static void readBuckets(JSONObject json, TreeMap<Long, Rollup> buckets) {
+            for (String key : json.keySet()) {
+                Rollup rollup = new Rollup();
+                rollup.readJson(json.getJSONObject(key));
+                buckets.put(Long.parseLong(key), rollup);
+            }
+        }
+    }
+
+    /**
+     * Build count, success count and durations of one bucket or window.
+     */
+    private static final class Rollup {
+        long count;
+        long successes;
+        final DurationSketch durations = new DurationSketch();
+
+        void add(boolean success, long totalMillis) {
+            count++;
+            if (success) {
+                successes++;
+            }
+            durations.add(totalMillis);
+        }
+
+        void merge(Rollup other) {
+            count += other.count;
+            successes += other.successes;
+            durations.merge(other.durations);
+        }
+
+        JSONObject toSummaryJson() {
+            return new JSONObject()
+                .put("count", count)
+                .put("successRate", count == 0 ? 0 : (double) successes / count)
+                .put("p50Millis", durations.quantile(0.50))
+                .put("p90Millis", durations.quantile(0.90))
+                .put("p99Millis", durations.quantile(0.99));
+        }
+
+        JSONObject toJson() {
+            return new JSONObject().put("count", count).put("successes", successes).put("durations", durations.toJson());
+        }
+
+        void readJson(JSONObject json) {
+            count = json.getLong("count");
+            successes = json.getLong("successes");
+            durations.readJson(json.getJSONObject("durations"));
+        }
+    }
+
+    /**
+     * Mergeable histogram of durations with logarithmic bins, so quantiles are within
+     * {@value #RELATIVE_ACCURACY} of the true value regardless of how many durations it holds.
+     */
+    static final class DurationSketch {
+        static final double RELATIVE_ACCURACY = 0.01;
+        private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+        private static final double LOG_GAMMA = Math.log(GAMMA);
+
+        private final TreeMap<Integer, Long> bins = new TreeMap<Integer, Long>();
+        private long zeros;
+        private long count;
+
+        void add(long millis) {
+            count++;
+            if (millis <= 0) {
+                zeros++;
+            } else {
+                bins.merge((int) Math.ceil(Math.log(millis) / LOG_GAMMA), 1L, Long::sum);
+            }
+        }
+
+        void merge(DurationSketch other) {
+            count += other.count;
+            zeros += other.zeros;
+            for (Map.Entry<Integer, Long> bin : other.bins.entrySet()) {
+                bins.merge(bin.getKey(), bin.getValue(), Long::sum);
+            }
+        }
+
+        long quantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = zeros;
+            if (seen >= rank) {
+                return 0;
+            }
+            for (Map.Entry<Integer, Long> bin : bins.entrySet()) {
+                seen += bin.getValue();
+                if (seen >= rank) {
+                    return Math.round(2 * Math.pow(GAMMA, bin.getKey()) / (GAMMA + 1));
+                }
+            }
+            return Math.round(2 * Math.pow(GAMMA, bins.lastKey()) / (GAMMA + 1));
+        }
+
+        JSONObject toJson() {
+            JSONObject binsJson = new JSONObject();
+            for (Map.Entry<Integer, Long> bin : bins.entrySet()) {
+                binsJson.put(String.valueOf(bin.getKey()), bin.getValue());
+            }
+            return new JSONObject().put("zeros", zeros).put("bins", binsJson);
+        }
+
+        void readJson(JSONObject json) {
+            zeros = json.getLong("zeros");
+            count = zeros;
+            JSONObject binsJson = json.getJSONObject("bins");
+            for (String key : binsJson.keySet()) {
+                long binCount = binsJson.getLong(key);
+                bins.put(Integer.parseInt(key), binCount);
+                count += binCount;
+            }
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Append-only, fixed-width binary summary of all stored builds, for fast aggregate queries.
+ *
+ * <p>Every build is one {@value #ROW_SIZE}-byte little-endian row in {@code builds.bin}:</p>
+ * <pre>
+ *  0  long  build time (epoch milliseconds)
+ *  8  int   repository id
+ * 12  int   branch id
+ * 16  byte  status (0 success, 1 failure, 2 timedOut, 3 other)
+ * 17  3 bytes padding
+ * 20  int   queue wait (ms)
+ * 24  int   total pipeline duration (ms)
+ * 28  int   setup duration (ms)
+ * 32  int   build duration (ms)
+ * 36  int   test duration (ms)
+ * </pre>
+ *
+ * <p>Repository and branch names are mapped to ids by {@code repositories.txt} and
+ * {@code branches.txt}, one name per line. A row torn by a crash is cut off the next time the
+ * file is opened. Queries map the file read-only and scan the columns they need without
+ * creating objects per row.</p>
+ */
+public class BuildSummaryFile {
+    static final int ROW_SIZE = 40;
+    static final String[] STATUSES = {"success", "failure", "timedOut", "other"};
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int ROWS_PER_MAPPING = Integer.MAX_VALUE / ROW_SIZE;
+
+    private final File rowsFile;
+    private final Dictionary repositories;
+    private final Dictionary branches;
+
+    /**
+     * Receives the rows read by {@link #forEachRow}.
+     */
+    public interface RowVisitor {
+        /**
+         * Called once per row, in file order.
+         *
+         * @param timeMillis the build time
+         * @param repository the repository full name
+         * @param branch the branch name
+         * @param status the build status, see {@link #STATUSES}
+         * @param totalMillis the total pipeline duration
+         */
+        void visit(long timeMillis, String repository, String branch, String status, long totalMillis);
+    }
+
+    /**
+     * Filters and grouping of a summary query.
+     */
+    public static final class Query {
+        public String repository;
+        public String branch;
+        public String status;
+        public long sinceMillis = Long.MIN_VALUE;
+        public long untilMillis = Long.MAX_VALUE;
+        /** One of {@code none}, {@code repository}, {@code branch}, {@code status} or {@code day}. */
+        public String groupBy = "none";
+    }
+
+    /**
+     * Creates a summary stored in the given directory.
+     *
+     * @param directory the directory holding the row and dictionary files
+     */
+    public BuildSummaryFile(File directory) {
+        this.rowsFile = new File(directory, "builds.bin");
+        this.repositories = new Dictionary(new File(directory, "repositories.txt"));
+        this.branches = new Dictionary(new File(directory, "branches.txt"));
+    }
+
+    /**
+     * Checks whether the summary file has been created.
+     *
+     * @return true if the row file exists
+     */
+    public synchronized boolean exists() {
+        return rowsFile.isFile();
+    }
+
+    /**
+     * Replaces the summary with rows for the given builds.
+     *
+     * @param builds the stored build records
+     * @throws IOException if writing fails
+     */
+    public synchronized void rebuild(List<JSONObject> builds) throws IOException {
+        Files.createDirectories(rowsFile.getAbsoluteFile().getParentFile().toPath());
+        repositories.reset();
+        branches.reset();
+        ByteBuffer rows = ByteBuffer.allocate(builds.size() * ROW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        for (JSONObject build : builds) {
+            putRow(rows, build);
+        }
+        rows.flip();
+        try (FileChannel channel = FileChannel.open(rowsFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (rows.hasRemaining()) {
+                channel.write(rows);
+            }
+        }
+    }
+
+    /**
+     * Appends the row of one build.
+     *
+     * @param build the stored build record
+     * @throws IOException if writing fails
+     */
+    public synchronized void append(JSONObject build) throws IOException {
+        Files.createDirectories(rowsFile.getAbsoluteFile().getParentFile().toPath());
+        ByteBuffer row = ByteBuffer.allocate(ROW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putRow(row, build);
+        row.flip();
+        try (FileChannel channel = FileChannel.open(rowsFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long end = size - size % ROW_SIZE;
+            if (end != size) {
+                channel.truncate(end);
+            }
+            channel.position(end);
+            while (row.hasRemaining()) {
+                channel.write(row);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of complete rows.
+     *
+     * @return the number of summarized builds
+     */
+    public synchronized long rowCount() {
+        return rowsFile.length() / ROW_SIZE;
+    }
+
+    /**
+     * Reads the rows from the given position to the end of the file.
+     *
+     * @param fromRow the index of the first row to read
+     * @param visitor receives each row
+     * @throws IOException if reading fails
+     */
+    public synchronized void forEachRow(long fromRow, RowVisitor visitor) throws IOException {
+        long rowCount = rowCount();
+        if (fromRow >= rowCount) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(rowsFile.toPath(), StandardOpenOption.READ)) {
+            for (long first = fromRow; first < rowCount; first += ROWS_PER_MAPPING) {
+                int rows = (int) Math.min(ROWS_PER_MAPPING, rowCount - first);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, first * ROW_SIZE, (long) rows * ROW_SIZE);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                for (int offset = 0, end = rows * ROW_SIZE; offset < end; offset += ROW_SIZE) {
+                    visitor.visit(
+                        buffer.getLong(offset),
+                        repositories.name(buffer.getInt(offset + 8)),
+                        branches.name(buffer.getInt(offset + 12)),
+                        STATUSES[buffer.get(offset + 16) & 3],
+                        buffer.getInt(offset + 24)
+                    );
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts and aggregates the builds matching a query, grouped as requested.
+     *
+     * @param query the filters and grouping
+     * @return JSON object with the number of scanned and matched rows, the scan time and one
+     *         entry per group with counts per status, failure rate and duration aggregates
+     * @throws IOException if reading fails
+     */
+    public JSONObject query(Query query) throws IOException {
+        int repositoryId;
+        int branchId;
+        synchronized (this) {
+            repositoryId = query.repository == null ? -1 : repositories.find(query.repository);
+            branchId = query.branch == null ? -1 : branches.find(query.branch);
+        }
+        int statusCode = query.status == null ? -1 : statusCode(query.status);
+        boolean noMatch = (query.repository != null && repositoryId < 0) || (query.branch != null && branchId < 0)
+            || (query.status != null && statusCode < 0);
+
+        long started = System.nanoTime();
+        Map<Long, long[]> groups = new HashMap<Long, long[]>();
+        long rowCount = 0;
+        if (rowsFile.isFile()) {
+            try (FileChannel channel = FileChannel.open(rowsFile.toPath(), StandardOpenOption.READ)) {
+                rowCount = channel.size() / ROW_SIZE;
+                for (long first = 0; first < rowCount && !noMatch; first += ROWS_PER_MAPPING) {
+                    int rows = (int) Math.min(ROWS_PER_MAPPING, rowCount - first);
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, first * ROW_SIZE, (long) rows * ROW_SIZE);
+                    buffer.order(ByteOrder.LITTLE_ENDIAN);
+                    scan(buffer, rows, query, repositoryId, branchId, statusCode, groups);
+                }
+            }
+        }
+        long scanMicros = (System.nanoTime() - started) / 1000;
+
+        List<Long> keys = new ArrayList<Long>(groups.keySet());
+        keys.sort(null);
+        JSONArray groupResults = new JSONArray();
+        long matched = 0;
+        for (Long key : keys) {
+            long[] aggregate = groups.get(key);
+            matched += aggregate[0];
+            groupResults.put(groupJson(query.groupBy, key, aggregate));
+        }
+        return new JSONObject()
+            .put("scannedRows", rowCount)
+            .put("matchedRows", matched)
+            .put("scanMicros", scanMicros)
+            .put("groupBy", query.groupBy)
+            .put("groups", groupResults);
+    }
+
+    /**
+     * Aggregate slots: count, status counts (4), total duration sum, total duration max,
+     * queue wait sum, test duration sum.
+     */
+    private static void scan(ByteBuffer buffer, int rows, Query query, int repositoryId, int branchId, int statusCode,
+            Map<Long, long[]> groups) {
+        long[] single = null;
+        for (int offset = 0, end = rows * ROW_SIZE; offset < end; offset += ROW_SIZE) {
+            long time = buffer.getLong(offset);
+            if (time < query.sinceMillis || time >= query.untilMillis) {
+                continue;
+            }
+            int repository = buffer.getInt(offset + 8);
+            if (repositoryId >= 0 && repository != repositoryId) {
+                continue;
+            }
+            int branch = buffer.getInt(offset + 12);
+            if (branchId >= 0 && branch != branchId) {
+                continue;
+            }
+            int status = buffer.get(offset + 16);
+            if (statusCode >= 0 && status != statusCode) {
+                continue;
+            }
+
+            long[] aggregate;
+            switch (query.groupBy) {
+                case "repository":
+                    aggregate = groups.computeIfAbsent((long) repository, key -> new long[9]);
+                    break;
+                case "branch":
+                    aggregate = groups.computeIfAbsent((long) branch, key -> new long[9]);
+                    break;
+                case "status":
+                    aggregate = groups.computeIfAbsent((long) status, key -> new long[9]);
+                    break;
+                case "day":
+                    aggregate = groups.computeIfAbsent(Math.floorDiv(time, DAY_MILLIS), key -> new long[9]);
+                    break;
+                default:
+                    if (single == null) {
+                        single = groups.computeIfAbsent(0L, key -> new long[9]);
+                    }
+                    aggregate = single;
+            }
+            int duration = buffer.getInt(offset + 24);
+            aggregate[0]++;
+            aggregate[1 + status]++;
+            aggregate[5] += duration;
+            aggregate[6] = Math.max(aggregate[6], duration);
+            aggregate[7] += buffer.getInt(offset + 20);
+            aggregate[8] += buffer.getInt(offset + 36);
+        }
+    }
+
+    private JSONObject groupJson(String groupBy, long key, long[] aggregate) {
+        JSONObject group = new JSONObject();
+        switch (groupBy) {
+            case "repository":
+                group.put("repository", nameOf(repositories, (int) key));
+                break;
+            case "branch":
+                group.put("branch", nameOf(branches, (int) key));
+                break;
+            case "status":
+                group.put("status", STATUSES[(int) key]);
+                break;
+            case "day":
+                group.put("day", LocalDate.ofEpochDay(key).toString());
+                break;
+            default:
+                break;
+        }
+        long count = aggregate[0];
+        group.put("count", count);
+        for (int i = 0; i < STATUSES.length; i++) {
+            group.put(STATUSES[i], aggregate[1 + i]);
+        }
+        group.put("failureRate", count == 0 ? 0 : (double) (count - aggregate[1]) / count);
+        group.put("avgDurationMillis", count == 0 ? 0 : aggregate[5] / count);
+        group.put("maxDurationMillis", aggregate[6]);
+        group.put("avgQueueWaitMillis", count == 0 ? 0 : aggregate[7] / count);
+        group.put("avgTestMillis", count == 0 ? 0 : aggregate[8] / count);
+        return group;
+    }
+
+    private synchronized String nameOf(Dictionary dictionary, int id) {
+        try {
+            return dictionary.name(id);
+        } catch (IOException e) {
+            return String.valueOf(id);
+        }
+    }
+
+    private void putRow(ByteBuffer rows, JSONObject build) throws IOException {
+        JSONObject durations = build.optJSONObject("durations");
+        if (durations == null) {
+            durations = new JSONObject();
+        }
+        rows.putLong(buildTimeMillis(build));
+        rows.putInt(repositories.id(build.optString("repository", "")));
+        rows.putInt(branches.id(build.optString("branch", "")));
+        int status = statusCode(build.optString("status", ""));
+        rows.put((byte) (status < 0 ? 3 : status));
+        rows.put(new byte[3]);
+        rows.putInt(clampedInt(build.optLong("queueWaitMillis", 0)));
+        rows.putInt(clampedInt(durations.optLong("totalMillis", 0)));
+        rows.putInt(clampedInt(durations.optLong("setupMillis", 0)));
+        rows.putInt(clampedInt(durations.optLong("buildMillis", 0)));
+        rows.putInt(clampedInt(durations.optLong("testMillis", 0)));
+    }
+
+    /**
+     * Returns the time a build record was created.
+     *
+     * @param build the stored build record
+     * @return epoch milliseconds of its build date, or 0 if it has none
+     */
+    static long buildTimeMillis(JSONObject build) {
+        try {
+            return Instant.parse(build.optString("buildDate", "")).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    private static int clampedInt(long value) {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    private static int statusCode(String status) {
+        for (int i = 0; i < STATUSES.length; i++) {
+            if (STATUSES[i].equals(status)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a query time bound given as epoch milliseconds or an ISO-8601 instant or date.
+     *
+     * @param value the parameter value
+     * @return epoch milliseconds
+     * @throws IllegalArgumentException if the value cannot be parsed
+     */
+    public static long parseTime(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // Not epoch milliseconds
+        }
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // Not an instant
+        }
+        try {
+            return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time: " + value);
+        }
+    }
+
+    /**
+     * Append-only mapping between names and dense ids, one name per line.
+     */
+    private static final class Dictionary {
+        private final File file;
+        private List<String> names;
+        private Map<String, Integer> ids;
+
+        Dictionary(File file) {
+            this.file = file;
+        }
+
+        void reset() throws IOException {
+            names = new ArrayList<String>();
+            ids = new TreeMap<String, Integer>();
+            Files.write(file.toPath(), new byte[0]);
+        }
+
+        int id(String name) throws IOException {
+            load();
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                names.add(name);
+                ids.put(name, id);
+                Files.write(file.toPath(), (name + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            return id;
+        }
+
+        int find(String name) throws IOException {
+            load();
+            Integer id = ids.get(name);
+            return id == null ? -1 : id;
+        }
+
+        String name(int id) throws IOException {
+            load();
+            return id >= 0 && id < names.size() ? names.get(id) : String.valueOf(id);
+        }
+
+        private void load() throws IOException {
+            if (names != null) {
+                return;
+            }
+            names = new ArrayList<String>();
+            ids = new TreeMap<String, Integer>();
+            if (file.isFile()) {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    ids.put(line, names.size());
+                    names.add(line);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.continuation.Continuation;
+
+/**
+ * Keeps the suspended requests of clients waiting for a build to finish.
+ *
+ * <p>Waiting requests are parked as Jetty {@link Continuation}s, so they hold no thread while
+ * the build runs. When {@link BuildScheduler} reports a finished job, every continuation
+ * waiting for it gets the job stored under {@link #JOB_ATTRIBUTE} and is resumed, which
+ * re-dispatches the request to the handler to write the response.</p>
+ */
+public class BuildWaiters {
+    /** Request attribute holding the finished {@link BuildJob} of a resumed continuation. */
+    public static final String JOB_ATTRIBUTE = "org.example.finishedJob";
+
+    private final Map<String, List<Continuation>> waiters = new HashMap<String, List<Continuation>>();
+
+    /**
+     * Registers a suspended continuation to be resumed when the job finishes.
+     *
+     * @param job the job to wait for
+     * @param continuation the suspended continuation of the waiting request
+     * @return false if the job had already finished, in which case nothing is registered
+     */
+    public synchronized boolean register(BuildJob job, Continuation continuation) {
+        if ("finished".equals(job.state())) {
+            return false;
+        }
+        waiters.computeIfAbsent(job.id, key -> new ArrayList<Continuation>()).add(continuation);
+        return true;
+    }
+
+    /**
+     * Forgets a continuation, for example after it timed out.
+     *
+     * @param buildId the build the continuation waited for
+     * @param continuation the continuation to remove
+     */
+    public synchronized void unregister(String buildId, Continuation continuation) {
+        List<Continuation> continuations = waiters.get(buildId);
+        if (continuations != null) {
+            continuations.remove(continuation);
+            if (continuations.isEmpty()) {
+                waiters.remove(buildId);
+            }
+        }
+    }
+
+    /**
+     * Resumes every request waiting for a finished job.
+     *
+     * @param job the finished job
+     */
+    public void buildFinished(BuildJob job) {
+        List<Continuation> continuations;
+        synchronized (this) {
+            continuations = waiters.remove(job.id);
+        }
+        if (continuations == null) {
+            return;
+        }
+        for (Continuation continuation : continuations) {
+            continuation.setAttribute(JOB_ATTRIBUTE, job);
+            continuation.resume();
+        }
+    }
+
+    /**
+     * Returns the number of waiting requests.
+     *
+     * @return the number of registered continuations
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (List<Continuation> continuations : waiters.values()) {
+            size += continuations.size();
+        }
+        return size;
+    }
+}
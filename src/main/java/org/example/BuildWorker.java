@@ -0,0 +1,307 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import org.example.util.Utils;
+
+/**
+ * Runs builds handed out by a {@link WorkerCoordinator} when the server runs with
+ * {@code mode=worker}.
+ *
+ * <p>The worker claims jobs from {@code coordinatorUrl} while fewer than {@code workerSlots}
+ * (default 1) of its builds are running, runs each through {@link BuildPipeline} in its own
+ * workspace root ({@code workspaceRoot}), streams the log of every stage back and sends the
+ * finished record to the coordinator, which stores it. A heartbeat with the host's
+ * {@link ResourceMonitor} snapshot is sent every {@code heartbeatSeconds} (default 5); builds
+ * the coordinator no longer assigns to this worker are cancelled. A build that ends without
+ * sending its record, for example because the pipeline failed before producing one, is sent
+ * as interrupted so the coordinator can release it.</p>
+ *
+ * <p>Requests carry {@code workerToken} as a bearer token when it is set.</p>
+ */
+public class BuildWorker {
+    private static final long DEFAULT_HEARTBEAT_SECONDS = 5;
+    private static final long POLL_MILLIS = 1000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
+    private static final int COMPLETE_ATTEMPTS = 5;
+
+    private final String coordinatorUrl;
+    private final String workerId;
+    private final int slots;
+    private final Runner runner;
+    private final String token = System.getProperty("workerToken");
+    private final ResourceMonitor monitor = new ResourceMonitor();
+    private final Map<String, Thread> running = new ConcurrentHashMap<String, Thread>();
+    private final Set<String> cancelled = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped;
+
+    /**
+     * Runs one claimed job and passes its record on; {@link BuildPipeline#run(BuildJob,
+     * RepositorySettings, BuildHistoryStore.BuildConsumer)} in production.
+     */
+    public interface Runner {
+        void run(BuildJob job, RepositorySettings settings, BuildHistoryStore.BuildConsumer store);
+    }
+
+    /**
+     * Creates a worker.
+     *
+     * @param coordinatorUrl base URL of the coordinator, for example {@code http://ci:8007}
+     * @param workerId the name of this worker, unique among the coordinator's workers
+     * @param slots how many builds may run at the same time
+     * @param runner runs the claimed jobs
+     */
+    public BuildWorker(String coordinatorUrl, String workerId, int slots, Runner runner) {
+        this.coordinatorUrl = coordinatorUrl.endsWith("/")
+            ? coordinatorUrl.substring(0, coordinatorUrl.length() - 1) : coordinatorUrl;
+        this.workerId = workerId;
+        this.slots = Math.max(1, slots);
+        this.runner = runner;
+    }
+
+    /**
+     * Creates the worker configured by the {@code coordinatorUrl}, {@code workerId} (default
+     * the JVM name, {@code pid@host}) and {@code workerSlots} system properties.
+     *
+     * @return a worker running the build pipeline
+     * @throws IllegalStateException if {@code coordinatorUrl} is not set
+     */
+    public static BuildWorker fromSystemProperties() {
+        String coordinatorUrl = System.getProperty("coordinatorUrl");
+        if (coordinatorUrl == null || coordinatorUrl.isBlank()) {
+            throw new IllegalStateException("coordinatorUrl must be set in worker mode");
+        }
+        String workerId = System.getProperty("workerId", ManagementFactory.getRuntimeMXBean().getName());
+        return new BuildWorker(coordinatorUrl, workerId, Integer.getInteger("workerSlots", 1), BuildPipeline::run);
+    }
+
+    /**
+     * Claims and runs jobs until {@link #stop} is called.
+     *
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void run() throws InterruptedException {
+        System.out.println("Worker " + workerId + " polling " + coordinatorUrl + " with " + slots + " slots");
+        Thread heartbeat = new Thread(this::heartbeatLoop, "worker-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+        while (!stopped) {
+            boolean claimed = false;
+            if (running.size() < slots) {
+                try {
+                    claimed = claimAndStart();
+                } catch (IOException e) {
+                    System.out.println("Failed to claim a build from " + coordinatorUrl + ": " + e.getMessage());
+                }
+            }
+            if (!claimed) {
+                Thread.sleep(POLL_MILLIS);
+            }
+        }
+        heartbeat.interrupt();
+    }
+
+    /**
+     * Stops claiming jobs and sending heartbeats. Running builds are left to finish.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Returns the IDs of the builds this worker is running.
+     *
+     * @return the running build IDs
+     */
+    public Set<String> runningBuilds() {
+        return running.keySet();
+    }
+
+    private boolean claimAndStart() throws IOException {
+        Response response = post("/claim", new JSONObject());
+        if (response.status == HttpURLConnection.HTTP_NO_CONTENT) {
+            return false;
+        }
+        if (response.status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("HTTP " + response.status);
+        }
+        JSONObject claim = new JSONObject(response.body);
+        BuildJob job = BuildJob.fromJournalEntry(claim.getJSONObject("job"));
+        RepositorySettings settings = RepositorySettings.of(claim.getJSONObject("settings"));
+        System.out.println("Worker " + workerId + " claimed build " + job.id + " (attempt " + claim.optInt("attempt") + ")");
+        job.setLogListener(text -> sendLog(job.id, text));
+        Thread thread = new Thread(() -> {
+            AtomicBoolean sent = new AtomicBoolean();
+            try {
+                job.markStarted();
+                runner.run(job, settings, record -> {
+                    complete(job.id, record);
+                    sent.set(true);
+                });
+            } catch (RuntimeException e) {
+                System.out.println("Build " + job.id + " failed on worker " + workerId + ": " + e);
+            } finally {
+                job.setLogListener(null);
+                if (!sent.get() && !cancelled.contains(job.id)) {
+                    sendInterrupted(job);
+                }
+                cancelled.remove(job.id);
+                running.remove(job.id);
+            }
+        }, "worker-build-" + job.id);
+        running.put(job.id, thread);
+        thread.start();
+        return true;
+    }
+
+    private void heartbeatLoop() {
+        long interval = Long.getLong("heartbeatSeconds", DEFAULT_HEARTBEAT_SECONDS) * 1000;
+        while (!stopped) {
+            try {
+                heartbeat();
+            } catch (IOException e) {
+                System.out.println("Heartbeat to " + coordinatorUrl + " failed: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends one heartbeat and cancels the builds the coordinator has taken away.
+     *
+     * @throws IOException if the coordinator cannot be reached
+     */
+    void heartbeat() throws IOException {
+        JSONObject body = new JSONObject()
+            .put("slots", slots)
+            .put("snapshot", monitor.snapshot().toJson())
+            .put("running", new JSONArray(running.keySet()));
+        Response response = post("/heartbeat", body);
+        if (response.status != HttpURLConnection.HTTP_OK) {
+            throw new IOException("HTTP " + response.status);
+        }
+        JSONArray cancel = new JSONObject(response.body).optJSONArray("cancel");
+        for (int i = 0; cancel != null && i < cancel.length(); i++) {
+            Thread thread = running.get(cancel.getString(i));
+            if (thread != null) {
+                System.out.println("Coordinator reassigned build " + cancel.getString(i) + "; cancelling it");
+                cancelled.add(cancel.getString(i));
+                thread.interrupt();
+            }
+        }
+    }
+
+    private void sendLog(String buildId, String text) {
+        try {
+            post("/builds/" + encode(buildId) + "/log", new JSONObject().put("text", text));
+        } catch (IOException e) {
+            System.out.println("Failed to send log of build " + buildId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sends an interrupted record for a build that ended without sending its own.
+     */
+    private void sendInterrupted(BuildJob job) {
+        // Clear a cancellation of the build thread, which would stop the retries
+        boolean interrupted = Thread.interrupted();
+        try {
+            BuildPipeline.recordInterrupted(job, "Build ended on worker " + workerId + " without a record",
+                record -> complete(job.id, record));
+        } catch (IOException e) {
+            System.out.println("Failed to send interrupted record of build " + job.id + ": " + e.getMessage());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends a finished record, retrying while the coordinator cannot store it.
+     */
+    private void complete(String buildId, JSONObject record) throws IOException {
+        IOException failure = null;
+        for (int attempt = 1; attempt <= COMPLETE_ATTEMPTS; attempt++) {
+            try {
+                Response response = post("/builds/" + encode(buildId) + "/complete", record);
+                if (response.status == HttpURLConnection.HTTP_OK) {
+                    return;
+                }
+                if (response.status == HttpURLConnection.HTTP_CONFLICT) {
+                    System.out.println("Coordinator rejected record of build " + buildId + "; it was reassigned");
+                    return;
+                }
+                failure = new IOException("HTTP " + response.status);
+            } catch (IOException e) {
+                failure = e;
+            }
+            try {
+                Thread.sleep(POLL_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new IOException("Failed to send record of build " + buildId + " to the coordinator", failure);
+    }
+
+    private Response post(String path, JSONObject body) throws IOException {
+        URL url;
+        try {
+            url = URI.create(coordinatorUrl + "/workers/" + encode(workerId) + path).toURL();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid coordinator URL", e);
+        }
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        if (token != null && !token.isBlank()) {
+            conn.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        try (OutputStream os = conn.getOutputStream()) {
+            os.write(body.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        int status = conn.getResponseCode();
+        InputStream stream = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        String responseBody = stream == null ? "" : Utils.readStream(stream);
+        return new Response(status, responseBody);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+}
@@ -1,28 +1,54 @@
 package org.example;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-
-import org.example.util.Utils;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Utility class that executes system commands and performs common Git and Gradle operations on repositories.
+ *
+ * <p>Commands can be given a wall-clock timeout. When it expires, the command's whole process
+ * tree is killed: the descendants are collected with {@link ProcessHandle#descendants()} while
+ * the command is still running, asked to terminate, and killed forcibly after a short grace
+ * period. Processes that detached from the tree earlier, such as an already running Gradle
+ * daemon, are not affected; Gradle cancels the build when its client goes away.</p>
+ *
+ * <p>Every process is recorded as a {@link FlightEvents.Command} Flight Recorder event.</p>
  */
 public class CommandRunner {
 
     public static boolean showIO = true;
 
+    /** Timeout value meaning that a command may run indefinitely. */
+    public static final long NO_TIMEOUT = 0;
+
+    private static final long KILL_GRACE_MILLIS = 5000;
+    private static final long OUTPUT_DRAIN_MILLIS = 5000;
+
     /**
      * Represents the result of a command execution.
      */
     public static final class CommandResult {
         public final boolean success;
         public final String output;
+        public final boolean timedOut;
 
         public CommandResult(boolean success, String output) {
+            this(success, output, false);
+        }
+
+        public CommandResult(boolean success, String output, boolean timedOut) {
             this.success = success;
             this.output = output;
+            this.timedOut = timedOut;
         }
     }
 
@@ -36,28 +62,134 @@ public class CommandRunner {
      * @throws InterruptedException if the current thread is interrupted
      */
     public static boolean runCommand(String... args) throws InterruptedException, IOException {
-        ProcessBuilder command = new ProcessBuilder(args);
-        if (CommandRunner.showIO) command.inheritIO();
-        int exitCode = command.start().waitFor();
-        return exitCode == 0;
+        FlightEvents.Command event = new FlightEvents.Command();
+        event.begin();
+        try {
+            ProcessBuilder command = new ProcessBuilder(args);
+            if (CommandRunner.showIO) command.inheritIO();
+            int exitCode = command.start().waitFor();
+            event.exitCode = exitCode;
+            return exitCode == 0;
+        } catch (InterruptedException e) {
+            event.interrupted = true;
+            throw e;
+        } finally {
+            commit(event, args);
+        }
     }
 
     private static CommandResult runCommandWithOutput(String... args) throws InterruptedException, IOException {
+        return runCommandWithOutput(NO_TIMEOUT, args);
+    }
+
+    /**
+     * Executes a system command and captures its combined output, killing the whole process
+     * tree if it runs longer than the timeout.
+     *
+     * <p>Git is prevented from prompting for credentials, so a fetch that would wait for a
+     * password fails instead of hanging.</p>
+     *
+     * @param timeoutMillis the wall-clock limit, or {@link #NO_TIMEOUT}
+     * @param args the command and its arguments to execute
+     * @return command result with the captured output; {@code timedOut} is set if the command was killed
+     * @throws IOException if the command cannot be started
+     * @throws InterruptedException if the current thread is interrupted, after the process tree has been killed
+     */
+    static CommandResult runCommandWithOutput(long timeoutMillis, String... args) throws InterruptedException, IOException {
+        FlightEvents.Command event = new FlightEvents.Command();
+        event.begin();
+        try {
+            return runCommandWithOutput(timeoutMillis, event, args);
+        } finally {
+            commit(event, args);
+        }
+    }
+
+    private static CommandResult runCommandWithOutput(long timeoutMillis, FlightEvents.Command event, String... args)
+            throws InterruptedException, IOException {
         ProcessBuilder command = new ProcessBuilder(args);
         command.redirectErrorStream(true);
+        command.environment().put("GIT_TERMINAL_PROMPT", "0");
         Process process = command.start();
 
-        String output;
-        try (InputStream inputStream = process.getInputStream()) {
-            output = Utils.readStream(inputStream);
+        // Read on a separate thread so the timeout also applies while the command produces no output
+        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
+        Thread reader = new Thread(() -> {
+            try (InputStream inputStream = process.getInputStream()) {
+                inputStream.transferTo(outputBuffer);
+            } catch (IOException e) {
+                // Stream closed because the process was killed
+            }
+        }, "command-output");
+        reader.setDaemon(true);
+        reader.start();
+
+        boolean timedOut;
+        try {
+            if (timeoutMillis > 0) {
+                timedOut = !process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                process.waitFor();
+                timedOut = false;
+            }
+        } catch (InterruptedException e) {
+            event.interrupted = true;
+            killProcessTree(process);
+            throw e;
         }
 
-        int exitCode = process.waitFor();
+        int killed = timedOut ? killProcessTree(process) : 0;
+        reader.join(OUTPUT_DRAIN_MILLIS);
+        event.timedOut = timedOut;
+        event.outputBytes = outputBuffer.size();
+        if (!timedOut) {
+            event.exitCode = process.exitValue();
+        }
+        String output = outputBuffer.toString(StandardCharsets.UTF_8);
+        if (timedOut) {
+            output += "\nCommand timed out after " + timeoutMillis / 1000 + " s; killed " + killed + " processes.\n";
+        }
         if (CommandRunner.showIO && !output.isEmpty()) {
             System.out.print(output);
         }
 
-        return new CommandResult(exitCode == 0, output);
+        return new CommandResult(!timedOut && process.exitValue() == 0, output, timedOut);
+    }
+
+    private static void commit(FlightEvents.Command event, String... args) {
+        if (event.shouldCommit()) {
+            event.command = String.join(" ", args);
+            event.commit();
+        }
+    }
+
+    /**
+     * Terminates a process and all of its descendants.
+     *
+     * @param process the root of the process tree
+     * @return the number of processes that were signalled
+     */
+    static int killProcessTree(Process process) {
+        // Snapshot the tree first: once the parent dies its children are re-parented and unreachable
+        List<ProcessHandle> tree = new ArrayList<ProcessHandle>();
+        process.descendants().forEach(tree::add);
+        tree.add(process.toHandle());
+
+        for (ProcessHandle handle : tree) {
+            handle.destroy();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(KILL_GRACE_MILLIS);
+        for (ProcessHandle handle : tree) {
+            try {
+                handle.onExit().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                handle.destroyForcibly();
+            } catch (InterruptedException e) {
+                handle.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        return tree.size();
     }
 
     /**
@@ -90,23 +222,194 @@ public class CommandRunner {
      */
     public static CommandResult cloneOrFetchRepoWithLogs(boolean clone, String url, String repoDir, String branchName)
             throws InterruptedException, IOException {
-        String[] syncCommand = clone
-            ? new String[] {"git", "clone", url, repoDir}
-            : new String[] {"git", "-C", repoDir, "fetch"};
-        String[] checkoutCommand = new String[] {
-            "git", "-C", repoDir, "checkout", "-B", branchName, "origin/" + branchName
-        };
+        return cloneOrFetchRepoWithLogs(clone, url, repoDir, branchName, NO_TIMEOUT);
+    }
+
+    /**
+     * Clones or fetches a repository within a time limit and captures execution logs.
+     *
+     * <p>A fetched workspace is reset to the branch: local modifications are discarded and
+     * untracked files removed, while ignored files such as build outputs are kept so that
+     * Gradle can build incrementally.</p>
+     *
+     * @param clone whether to clone ({@code true}) or fetch ({@code false})
+     * @param url the Git repository URL
+     * @param repoDir the local repository directory
+     * @param branchName the branch to check out
+     * @param timeoutMillis the limit for both commands together, or {@link #NO_TIMEOUT}
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult cloneOrFetchRepoWithLogs(boolean clone, String url, String repoDir, String branchName,
+            long timeoutMillis) throws InterruptedException, IOException {
+        return cloneOrFetchRepoWithLogs(clone, url, repoDir, branchName, timeoutMillis, null);
+    }
+
+    /**
+     * Clones or fetches a repository within a time limit, taking the objects from a local
+     * mirror if one is given, and captures execution logs.
+     *
+     * <p>A workspace cloned from a mirror gets {@code url} as its {@code origin}, so later
+     * fetches without a mirror go to the real remote.</p>
+     *
+     * @param clone whether to clone ({@code true}) or fetch ({@code false})
+     * @param url the Git repository URL
+     * @param repoDir the local repository directory
+     * @param branchName the branch to check out
+     * @param timeoutMillis the limit for all commands together, or {@link #NO_TIMEOUT}
+     * @param mirrorDir an up-to-date mirror created by {@link #mirrorRepoWithLogs}, or null to use {@code url}
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult cloneOrFetchRepoWithLogs(boolean clone, String url, String repoDir, String branchName,
+            long timeoutMillis, String mirrorDir) throws InterruptedException, IOException {
+        return cloneOrFetchRepoWithLogs(clone, url, repoDir, branchName, null, timeoutMillis, mirrorDir);
+    }
+
+    /**
+     * Clones or fetches a repository within a time limit and checks out one commit of a branch,
+     * taking the objects from a local mirror if one is given, and captures execution logs.
+     *
+     * <p>A queued build must build the pushed commit, not whatever the branch points to when
+     * it starts. The branch is therefore reset to {@code commit}, and the setup fails if the
+     * fetched objects do not contain it, for example after a force push removed it.</p>
+     *
+     * @param clone whether to clone ({@code true}) or fetch ({@code false})
+     * @param url the Git repository URL
+     * @param repoDir the local repository directory
+     * @param branchName the branch to check out
+     * @param commit the commit to check out, or null or empty for the tip of the branch
+     * @param timeoutMillis the limit for all commands together, or {@link #NO_TIMEOUT}
+     * @param mirrorDir an up-to-date mirror created by {@link #mirrorRepoWithLogs}, or null to use {@code url}
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult cloneOrFetchRepoWithLogs(boolean clone, String url, String repoDir, String branchName,
+            String commit, long timeoutMillis, String mirrorDir) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        List<String[]> commands = new ArrayList<String[]>();
+        if (clone && mirrorDir != null) {
+            commands.add(new String[] {"git", "clone", mirrorDir, repoDir});
+            commands.add(new String[] {"git", "-C", repoDir, "remote", "set-url", "origin", url});
+        } else if (clone) {
+            commands.add(new String[] {"git", "clone", url, repoDir});
+        } else if (mirrorDir != null) {
+            commands.add(new String[] {
+                "git", "-C", repoDir, "fetch", "--prune", mirrorDir, "+refs/heads/*:refs/remotes/origin/*"
+            });
+        } else {
+            commands.add(new String[] {"git", "-C", repoDir, "fetch"});
+        }
+        if (commit == null || commit.isEmpty()) {
+            commands.add(new String[] {"git", "-C", repoDir, "checkout", "--force", "-B", branchName, "origin/" + branchName});
+            if (!clone) {
+                commands.add(new String[] {"git", "-C", repoDir, "clean", "-fd"});
+            }
+            return runCommandsWithLogs(commands, timeoutMillis);
+        }
+
+        CommandResult fetched = runCommandsWithLogs(commands, timeoutMillis);
+        if (!fetched.success) {
+            return fetched;
+        }
+        if (!hasCommit(repoDir, commit)) {
+            return new CommandResult(false, fetched.output + "Commit " + commit + " was not found after fetching "
+                + url + "; not building the tip of " + branchName + " instead\n");
+        }
+        List<String[]> checkout = new ArrayList<String[]>();
+        checkout.add(new String[] {"git", "-C", repoDir, "checkout", "--force", "-B", branchName, commit});
+        if (!clone) {
+            checkout.add(new String[] {"git", "-C", repoDir, "clean", "-fd"});
+        }
+        long remainingMillis = timeoutMillis > 0 ? Math.max(1, deadline - System.currentTimeMillis()) : NO_TIMEOUT;
+        CommandResult checkedOut = runCommandsWithLogs(checkout, remainingMillis);
+        return new CommandResult(checkedOut.success, fetched.output + checkedOut.output, checkedOut.timedOut);
+    }
+
+    /**
+     * Creates or updates a bare mirror of a repository holding all of its branches and tags.
+     *
+     * <p>Unlike {@code git clone --mirror}, which fetches {@code +refs/*:refs/*}, the mirror
+     * only fetches branches and tags, so hosting-specific refs such as GitHub's
+     * {@code refs/pull/*} are not transferred. The refspecs are set again before every fetch,
+     * which also converts mirrors created with {@code --mirror}.</p>
+     *
+     * @param url the Git repository URL
+     * @param mirrorDir the local mirror directory
+     * @param timeoutMillis the wall-clock limit, or {@link #NO_TIMEOUT}
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult mirrorRepoWithLogs(String url, String mirrorDir, long timeoutMillis)
+            throws InterruptedException, IOException {
+        boolean exists = new File(mirrorDir, "HEAD").isFile();
+        List<String[]> commands = new ArrayList<String[]>();
+        if (!exists) {
+            // A bare clone copies branches and tags only
+            commands.add(new String[] {"git", "clone", "--bare", url, mirrorDir});
+        }
+        commands.add(new String[] {
+            "git", "-C", mirrorDir, "config", "--replace-all", "remote.origin.fetch", "+refs/heads/*:refs/heads/*"
+        });
+        commands.add(new String[] {
+            "git", "-C", mirrorDir, "config", "--add", "remote.origin.fetch", "+refs/tags/*:refs/tags/*"
+        });
+        if (exists) {
+            commands.add(new String[] {"git", "-C", mirrorDir, "fetch", "--prune", "origin"});
+        }
+        return runCommandsWithLogs(commands, timeoutMillis);
+    }
 
-        CommandResult syncResult = runCommandWithOutput(syncCommand);
-        CommandResult checkoutResult = runCommandWithOutput(checkoutCommand);
+    /**
+     * Checks whether a local repository contains a commit.
+     *
+     * @param repoDir the local repository directory
+     * @param commit the commit SHA
+     * @return {@code true} if the commit object is present
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static boolean hasCommit(String repoDir, String commit) throws InterruptedException, IOException {
+        return runCommandWithOutput("git", "-C", repoDir, "cat-file", "-e", commit + "^{commit}").success;
+    }
 
+    /**
+     * Runs commands one after the other until one fails, sharing one time limit.
+     */
+    private static CommandResult runCommandsWithLogs(List<String[]> commands, long timeoutMillis)
+            throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
         StringBuilder logs = new StringBuilder();
-        logs.append("$ ").append(String.join(" ", syncCommand)).append('\n');
-        logs.append(syncResult.output).append('\n');
-        logs.append("$ ").append(String.join(" ", checkoutCommand)).append('\n');
-        logs.append(checkoutResult.output).append('\n');
+        CommandResult result = new CommandResult(true, "");
+        for (String[] command : commands) {
+            long remainingMillis = timeoutMillis > 0 ? Math.max(1, deadline - System.currentTimeMillis()) : NO_TIMEOUT;
+            result = runCommandWithOutput(remainingMillis, command);
+            logs.append("$ ").append(String.join(" ", command)).append('\n');
+            logs.append(result.output).append('\n');
+            if (!result.success) {
+                break;
+            }
+        }
+        return new CommandResult(result.success, logs.toString(), result.timedOut);
+    }
 
-        return new CommandResult(syncResult.success && checkoutResult.success, logs.toString());
+    /**
+     * Lists the paths that changed between two commits of a local repository.
+     *
+     * @param repoDir the local repository directory
+     * @param fromCommit the base commit
+     * @param toCommit the commit being built
+     * @return command result whose output holds one changed path per line
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult changedFiles(String repoDir, String fromCommit, String toCommit)
+            throws InterruptedException, IOException {
+        return runCommandWithOutput("git", "-C", repoDir, "diff", "--name-only", fromCommit, toCommit);
     }
 
     /**
@@ -131,15 +434,28 @@ public class CommandRunner {
      * @throws InterruptedException if the current thread is interrupted
      */
     public static CommandResult buildRepoWithLogs(String repoPath) throws InterruptedException, IOException {
+        return buildRepoWithLogs(repoPath, NO_TIMEOUT);
+    }
+
+    /**
+     * Builds the specified repository using its gradlew within a time limit and captures logs.
+     *
+     * @param repoPath the path to the repository root directory
+     * @param timeoutMillis the wall-clock limit, or {@link #NO_TIMEOUT}
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs during execution
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult buildRepoWithLogs(String repoPath, long timeoutMillis) throws InterruptedException, IOException {
         File wrapperFile = gradleWrapperFile(repoPath);
         if (!wrapperFile.isFile()) {
             return new CommandResult(false, "Gradle wrapper not found: " + wrapperFile.getAbsolutePath() + "\n");
         }
 
         String[] command = new String[] {wrapperFile.getAbsolutePath(), "build", "-x", "test", "--project-dir", repoPath};
-        CommandResult commandResult = runCommandWithOutput(command);
+        CommandResult commandResult = runCommandWithOutput(timeoutMillis, command);
         String logs = "$ " + String.join(" ", command) + '\n' + commandResult.output + '\n';
-        return new CommandResult(commandResult.success, logs);
+        return new CommandResult(commandResult.success, logs, commandResult.timedOut);
     }
 
     /**
@@ -164,17 +480,106 @@ public class CommandRunner {
      * @throws InterruptedException if the current thread is interrupted
      */
     public static CommandResult testRepoWithLogs(String repoPath) throws InterruptedException, IOException {
+        return testRepoWithLogs(repoPath, Collections.singletonList("test"));
+    }
+
+    /**
+     * Runs the given Gradle test tasks (for example {@code :core:test}) for the specified
+     * repository using its gradlew and captures logs.
+     *
+     * @param repoPath the path to the repository root directory
+     * @param testTasks the Gradle task paths to run
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs during execution
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult testRepoWithLogs(String repoPath, List<String> testTasks) throws InterruptedException, IOException {
+        return testRepoWithLogs(repoPath, testTasks, NO_TIMEOUT);
+    }
+
+    /**
+     * Runs the given Gradle test tasks for the specified repository within a time limit and
+     * captures logs.
+     *
+     * @param repoPath the path to the repository root directory
+     * @param testTasks the Gradle task paths to run
+     * @param timeoutMillis the wall-clock limit, or {@link #NO_TIMEOUT}
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs during execution
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult testRepoWithLogs(String repoPath, List<String> testTasks, long timeoutMillis)
+            throws InterruptedException, IOException {
+        return gradleWithLogs(repoPath, testTasks, timeoutMillis);
+    }
+
+    /**
+     * Runs the repository's gradlew with arbitrary tasks and options and captures logs.
+     *
+     * @param repoPath the path to the repository root directory
+     * @param arguments the Gradle tasks and options to pass
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs during execution
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult gradleWithLogs(String repoPath, List<String> arguments) throws InterruptedException, IOException {
+        return gradleWithLogs(repoPath, arguments, NO_TIMEOUT);
+    }
+
+    /**
+     * Runs the repository's gradlew with arbitrary tasks and options within a time limit and
+     * captures logs.
+     *
+     * @param repoPath the path to the repository root directory
+     * @param arguments the Gradle tasks and options to pass
+     * @param timeoutMillis the wall-clock limit, or {@link #NO_TIMEOUT}
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs during execution
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult gradleWithLogs(String repoPath, List<String> arguments, long timeoutMillis)
+            throws InterruptedException, IOException {
         File wrapperFile = gradleWrapperFile(repoPath);
         if (!wrapperFile.isFile()) {
             return new CommandResult(false, "Gradle wrapper not found: " + wrapperFile.getAbsolutePath() + "\n");
         }
 
-        String[] command = new String[] {wrapperFile.getAbsolutePath(), "test", "--project-dir", repoPath};
+        List<String> commandList = new ArrayList<String>();
+        commandList.add(wrapperFile.getAbsolutePath());
+        commandList.addAll(arguments);
+        commandList.add("--project-dir");
+        commandList.add(repoPath);
+        String[] command = commandList.toArray(new String[0]);
+        CommandResult commandResult = runCommandWithOutput(timeoutMillis, command);
+        String logs = "$ " + String.join(" ", command) + '\n' + commandResult.output + '\n';
+        return new CommandResult(commandResult.success, logs, commandResult.timedOut);
+    }
+
+    /**
+     * Creates or updates a detached Git worktree of a repository at the repository's current HEAD.
+     *
+     * @param repoDir the local repository directory
+     * @param worktreeDir the directory of the worktree
+     * @return command result including combined logs
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static CommandResult prepareWorktree(String repoDir, String worktreeDir) throws InterruptedException, IOException {
+        CommandResult head = runCommandWithOutput("git", "-C", repoDir, "rev-parse", "HEAD");
+        if (!head.success) {
+            return new CommandResult(false, head.output);
+        }
+        String commit = head.output.trim();
+
+        String[] command = new File(worktreeDir, ".git").exists()
+            ? new String[] {"git", "-C", worktreeDir, "checkout", "--force", "--detach", commit}
+            : new String[] {"git", "-C", repoDir, "worktree", "add", "--force", "--detach", worktreeDir, commit};
+        runCommandWithOutput("git", "-C", repoDir, "worktree", "prune");
         CommandResult commandResult = runCommandWithOutput(command);
         String logs = "$ " + String.join(" ", command) + '\n' + commandResult.output + '\n';
         return new CommandResult(commandResult.success, logs);
     }
-    
+
     /**
      * Resolves the appropriate Gradle Wrapper file for the current
      * operating system.
@@ -1,19 +1,21 @@
 package org.example;
 
-import java.io.File;
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
-import java.time.Instant;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -27,6 +29,7 @@ import org.example.util.Utils;
  * <ol>
  *   <li>Optionally verifies the webhook signature (if a secret is configured).</li>
  *   <li>Looks at the JSON payload to get information about the repository and branch.</li>
+ *   <li>Queues the build on the {@link BuildScheduler}, which starts it once the host has capacity.</li>
  *   <li>Clones or fetches the repository locally.</li>
  *   <li>Builds the project using Gradle.</li>
  *   <li>Runs tests using Gradle.</li>
@@ -35,6 +38,45 @@ import org.example.util.Utils;
  */
 public class ContinuousIntegrationServer extends AbstractHandler
 {
+    private static final long DEFAULT_WAIT_SECONDS = 30;
+    private static final long MAX_WAIT_SECONDS = 300;
+    private static final long EVENT_STREAM_SECONDS = 600;
+    private static final long EVENT_STREAM_RETRY_AFTER_SECONDS = 10;
+    private static final String SUBSCRIPTION_ATTRIBUTE = "org.example.eventSubscription";
+    /** Cache-Control of responses that change with every stored build. */
+    private static final String REVALIDATE = "no-cache";
+    /** Cache-Control of finished build records, which never change. */
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    /** Too Many Requests, which the servlet API predates. */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    private final BuildScheduler scheduler;
+    private final WorkerCoordinator coordinator;
+    private final BuildWaiters waiters = new BuildWaiters();
+    private final IntakeLimiter intake = IntakeLimiter.fromSystemProperties();
+
+    /**
+     * Creates a handler that queues accepted builds on the given scheduler.
+     *
+     * @param scheduler the scheduler running the builds
+     */
+    public ContinuousIntegrationServer(BuildScheduler scheduler) {
+        this(scheduler, null);
+    }
+
+    /**
+     * Creates a handler that queues accepted builds on the given scheduler and, in coordinator
+     * mode, serves the {@code /workers} endpoints of the coordinator.
+     *
+     * @param scheduler the scheduler running the builds
+     * @param coordinator the coordinator handing builds to workers, or null to build locally
+     */
+    public ContinuousIntegrationServer(BuildScheduler scheduler, WorkerCoordinator coordinator) {
+        this.scheduler = scheduler;
+        this.coordinator = coordinator;
+        scheduler.addCompletionListener(waiters::buildFinished);
+    }
+
     /**
      * Handles incoming HTTP requests to the CI server.
      *
@@ -44,15 +86,14 @@ public class ContinuousIntegrationServer extends AbstractHandler
      * <p> if a webhook secret is configured the signature is verified. 
      * Invalid signatures lead to the request being rejected.<p> 
      *
-     * <p>For valid GitHub webhook payloads, this method:</p>
-     * <ul>
-     *   <li>Extracts repository metadata.</li>
-     *   <li>Posts a pending commit status if token is given.</li>
-     *   <li>Clones or fetches the repository.</li>
-     *   <li>Builds the project using Gradle.</li>
-     *   <li>Tests the project using Gradle.</li>
-     *   <li>Posts a final success or sailure status if token is given.</li>
-     * </ul>
+     * <p>For valid GitHub webhook payloads, this method extracts the repository
+     * metadata into a {@link BuildJob}, queues it and responds with the URL of the
+     * build. The pipeline itself is run later by {@link BuildPipeline}.</p>
+     *
+     * <p>Redelivered webhooks are answered with the original build before the payload is
+     * parsed, and webhooks over the {@link IntakeLimiter} limits are rejected with
+     * {@code 429 Too Many Requests} and a {@code Retry-After} header. Every webhook is
+     * recorded as a {@link FlightEvents.Webhook} Flight Recorder event.</p>
      *
      * <p> Errors are handled and logged.<p> 
      *
@@ -73,7 +114,7 @@ public class ContinuousIntegrationServer extends AbstractHandler
         String method = request.getMethod();
 
         if ("GET".equalsIgnoreCase(method)) {
-            handleGetRequest(target, response);
+            handleGetRequest(target, request, response);
             return;
         }
 
@@ -85,7 +126,25 @@ public class ContinuousIntegrationServer extends AbstractHandler
             System.out.println("Something other than post received");
             return;
         }
+        if (target != null && target.startsWith("/workers/")) {
+            handleWorkerRequest(target.substring("/workers/".length()), request, response);
+            return;
+        }
+        FlightEvents.Webhook event = new FlightEvents.Webhook();
+        event.begin();
+        try {
+            handleWebhook(request, response, event);
+        } finally {
+            event.commit();
+        }
+    }
+
+    private void handleWebhook(HttpServletRequest request, HttpServletResponse response, FlightEvents.Webhook event)
+            throws IOException {
         String payload = Utils.readStream(request.getInputStream());
+        if (event.isEnabled()) {
+            event.payloadBytes = payload.getBytes(StandardCharsets.UTF_8).length;
+        }
 
         // Check signature of payload (if we have one set up)
         String secret = System.getProperty("webhookSecret");
@@ -99,6 +158,7 @@ public class ContinuousIntegrationServer extends AbstractHandler
             );
 
             if (!validPayload) {
+                event.outcome = "invalid-signature";
                 response.getWriter().println("Invalid signature");
                 System.out.println("Signature of POST request was invalid");
                 return;
@@ -106,183 +166,512 @@ public class ContinuousIntegrationServer extends AbstractHandler
             System.out.println("Signature passed!");
         }
 
+        // Drop redeliveries before any further work
+        String deliveryId = request.getHeader("X-GitHub-Delivery");
+        event.deliveryId = deliveryId;
+        String duplicateBuildId = BuildJournal.shared().duplicateOf(deliveryId);
+        if (duplicateBuildId != null) {
+            event.outcome = "duplicate";
+            event.buildId = duplicateBuildId;
+            sendDuplicate(duplicateBuildId, response);
+            return;
+        }
+
         // If request is JSON
         try {
             System.out.println("POST request received");
 
-            // Get JSON data
-            JSONObject json = new JSONObject(payload);
-            String cloneUrl = json.getJSONObject("repository").getString("clone_url");
-            String fullName = json.getJSONObject("repository").getString("full_name");
-            String branchName = json.getString("ref").replace("refs/heads/", "");
-
-            String statusesUrlTemplate = json.getJSONObject("repository").optString("statuses_url", null);
-            String sha = json.optString("after", null);
-            String statusesUrl = GitHubStatusClient.resolveStatusesUrl(statusesUrlTemplate, sha);
-            String token = System.getProperty("githubToken");
-            boolean hasToken = token != null && !token.isBlank();
-            boolean canPostStatus = hasToken && statusesUrl != null && !statusesUrl.isBlank();
-            String buildId = UUID.randomUUID().toString();
-            String buildDate = Instant.now().toString();
-            StringBuilder buildLogs = new StringBuilder();
-
-            // Set initial GitHub commit status to 'Pending'
-            if (canPostStatus) {
-                try {
-                    GitHubStatusClient.postStatus(statusesUrl, "pending", "Build started", fullName, token);
-                } catch (IOException e) {
-                    System.out.println("Failed to post pending status to GitHub");
-                }
-            } else if (!hasToken) {
-                System.out.println("No githubToken provided; skipping GitHub status updates");
-            } else {
-                System.out.println("No statuses URL found in payload; skipping GitHub status updates");
+            // Get JSON data, check the intake limits, journal it and queue the build
+            BuildJob job = BuildJob.fromPayload(new JSONObject(payload));
+            event.repository = job.repository;
+            response.setContentType("application/json;charset=utf-8");
+            IntakeLimiter.Decision decision = intake.admit(
+                job.repository, scheduler.queuedBuilds(), System.currentTimeMillis()
+            );
+            if (!decision.admitted) {
+                event.outcome = decision.reason;
+                System.out.println("Rejecting webhook for " + job.repository + ": " + decision.reason);
+                setTooManyRequests(response);
+                response.setHeader("Retry-After", String.valueOf(decision.retryAfterSeconds));
+                response.getWriter().println(new JSONObject()
+                    .put("error", "queue-full".equals(decision.reason)
+                        ? "Too many queued builds" : "Too many builds queued for " + job.repository)
+                    .put("retryAfterSeconds", decision.retryAfterSeconds).toString());
+                return;
             }
-
-            File repoDir = Utils.createHashedDir(fullName);
-            String absoluteRepoDir = repoDir.getAbsolutePath();
-
-            boolean buildSuccess = false;
-            boolean testsSuccess = false;
+            String existingBuildId;
             try {
-                // Core CI feature #1: Set up and build (compile)
-                boolean cloneRepo = !repoDir.exists();
-                CommandRunner.CommandResult repoResult = CommandRunner.cloneOrFetchRepoWithLogs(
-                    cloneRepo, cloneUrl, absoluteRepoDir, branchName
-                );
-                buildLogs.append("Repository setup: \n").append(repoResult.output).append('\n');
-
-                CommandRunner.CommandResult buildResult;
-                if (repoResult.success) {
-                    buildResult = CommandRunner.buildRepoWithLogs(absoluteRepoDir);
-                } else {
-                    buildResult = new CommandRunner.CommandResult(false, "Repository setup failed; build skipped.\n");
-                }
-                buildLogs.append("Build: \n").append(buildResult.output).append('\n');
-                buildSuccess = repoResult.success && buildResult.success;
-
-                // Core CI feature #2: Run tests
-                CommandRunner.CommandResult testResult;
-                if (repoResult.success) {
-                    testResult = CommandRunner.testRepoWithLogs(absoluteRepoDir);
-                } else {
-                    testResult = new CommandRunner.CommandResult(false, "Repository setup failed; tests skipped.\n");
-                }
-                buildLogs.append("Test: \n").append(testResult.output).append('\n');
-                testsSuccess = testResult.success;
-            } finally {
-                // Send final commit status to GitHub
-                if (canPostStatus) {
-                    try {
-                        if (!buildSuccess) {
-                            System.out.println("❌ Build failed");
-                            GitHubStatusClient.postStatus(statusesUrl, "failure", "Build failed!", fullName, token);
-                        } else if (!testsSuccess) {
-                            System.out.println("❌ Tests failed");
-                            GitHubStatusClient.postStatus(statusesUrl, "failure", "Tests failed!", fullName, token);
-                        } else {
-                            System.out.println("✅ Build & tests succeeded!");
-                            GitHubStatusClient.postStatus(statusesUrl, "success", "Build succeeded and tests passed!", fullName, token);
-                        }
-                    } catch (IOException e) {
-                        System.out.println("Failed to post final status to GitHub");
-                    }
-                }
+                existingBuildId = BuildJournal.shared().accept(job, deliveryId);
+            } catch (IOException e) {
+                event.outcome = "journal-failed";
+                System.out.println("Failed to journal build; rejecting webhook");
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.getWriter().println(new JSONObject().put("error", "Build could not be journaled").toString());
+                return;
             }
+            if (existingBuildId != null) {
+                event.outcome = "duplicate";
+                event.buildId = existingBuildId;
+                sendDuplicate(existingBuildId, response);
+                return;
+            }
+            if (coordinator == null) {
+                BuildPrefetcher.shared().prefetch(job);
+            }
+            scheduler.submit(job);
+            event.outcome = "queued";
+            event.buildId = job.id;
 
-            JSONObject buildRecord = createBuildRecord(
-                buildId,
-                fullName,
-                sha,
-                branchName,
-                buildDate,
-                buildSuccess,
-                testsSuccess,
-                buildLogs.toString()
-            );
-            BuildHistoryStore.appendBuild(fullName, buildRecord);
-
-            response.setContentType("application/json;charset=utf-8");
-            response.setStatus(HttpServletResponse.SC_OK);
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
             JSONObject responseBody = new JSONObject();
-            responseBody.put("message", "Build processed");
-            responseBody.put("url", "/builds/" + buildId);
+            responseBody.put("message", "Build queued");
+            responseBody.put("url", "/builds/" + job.id);
             response.getWriter().println(responseBody.toString(2));
         }
 
-        // Needed for SHA-256 to run
-        catch(NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 is not supported");
-        }
-
         // Request is not JSON format
         catch (JSONException e) {
+            event.outcome = "not-json";
             System.out.println("Received non-JSON payload (ignored)");
         }
+    }
 
-        // Interruption
-        catch (InterruptedException e) {
-            System.out.println("CI job interrupted");
-            Thread.currentThread().interrupt();
-        }
+    /**
+     * Sets status 429 with its reason phrase, which Jetty does not know and would otherwise
+     * replace with the bare code.
+     */
+    @SuppressWarnings("deprecation")
+    private static void setTooManyRequests(HttpServletResponse response) {
+        response.setStatus(SC_TOO_MANY_REQUESTS, "Too Many Requests");
+    }
 
-        // IO error
-        catch (IOException e) {
-            System.out.println("IO error during CI job");
-            e.printStackTrace();
-        }
+    /**
+     * Answers a redelivered webhook with the URL of the build queued for the first delivery.
+     */
+    private void sendDuplicate(String buildId, HttpServletResponse response) throws IOException {
+        System.out.println("Ignoring redelivered webhook for build " + buildId);
+        intake.recordDuplicate();
+        response.setContentType("application/json;charset=utf-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().println(new JSONObject()
+            .put("message", "Duplicate delivery")
+            .put("url", "/builds/" + buildId).toString(2));
     }
 
-    private void handleGetRequest(String target, HttpServletResponse response) throws IOException {
+    private void handleGetRequest(String target, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
         if ("/builds".equals(target)) {
+            String repository = request.getParameter("repository");
+            if (repository != null && !Utils.isRepositoryName(repository)) {
+                response.setContentType("application/json;charset=utf-8");
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                response.getWriter().println(new JSONObject().put("error", "Invalid repository").toString());
+                return;
+            }
+            // Validators are taken before reading, so a concurrent append can only make them older
+            String etag = BuildHistoryStore.etag(repository);
+            long lastModifiedMillis = BuildHistoryStore.lastModifiedMillis(repository);
+            if (sendNotModified(request, response, etag, lastModifiedMillis, REVALIDATE)) {
+                return;
+            }
+            setValidators(response, etag, lastModifiedMillis, REVALIDATE);
+            try (JsonResponseWriter json = JsonResponseWriter.open(request, response, HttpServletResponse.SC_OK)) {
+                json.beginArray();
+                BuildHistoryStore.forEachBuildSummary(repository, json::element);
+                json.endArray();
+            }
+            return;
+        }
+
+        if ("/metrics".equals(target)) {
             response.setContentType("application/json;charset=utf-8");
             response.setStatus(HttpServletResponse.SC_OK);
-            response.getWriter().println(BuildHistoryStore.listBuildSummaries().toString(2));
+            JSONObject metrics = scheduler.metrics();
+            metrics.put("waitingClients", waiters.size());
+            metrics.put("eventSubscribers", BuildEventBus.shared().subscriberCount());
+            metrics.put("workspaces", WorkspaceManager.shared().metrics());
+            metrics.put("prefetch", BuildPrefetcher.shared().metrics());
+            metrics.put("intake", intake.metrics());
+            if (coordinator != null) {
+                metrics.put("coordinator", coordinator.metrics());
+            }
+            response.getWriter().println(metrics.toString(2));
+            return;
+        }
+
+        if ("/events".equals(target)) {
+            handleEventStream(request, response);
+            return;
+        }
+
+        if ("/stats".equals(target)) {
+            JSONObject statistics = BuildHistoryStore.statistics(request.getParameter("repository"));
+            try (JsonResponseWriter json = JsonResponseWriter.open(request, response, HttpServletResponse.SC_OK)) {
+                json.value(statistics);
+            }
+            return;
+        }
+
+        if ("/builds/query".equals(target)) {
+            handleBuildQuery(request, response);
+            return;
+        }
+
+        if (target != null && target.startsWith("/builds/") && target.endsWith("/wait")) {
+            String buildId = target.substring("/builds/".length(), target.length() - "/wait".length());
+            handleWaitRequest(buildId, request, response);
             return;
         }
 
         if (target != null && target.startsWith("/builds/")) {
             String buildId = target.substring("/builds/".length());
-            JSONObject build = BuildHistoryStore.getBuildById(buildId);
-            response.setContentType("application/json;charset=utf-8");
+            BuildJob job = scheduler.getJob(buildId);
+            String etag = BuildHistoryStore.buildEtag(buildId);
+            // Stored records never change, so a client listing the tag of a stored build needs no
+            // record read; the tag alone proves nothing, since any client can build it
+            if (job == null && JsonResponseWriter.etagListed(request.getHeader("If-None-Match"), etag)
+                    && BuildHistoryStore.hasBuild(buildId)) {
+                setValidators(response, etag, 0, IMMUTABLE);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            JSONObject build = job != null ? job.toJson() : BuildHistoryStore.getBuildById(buildId);
             if (build == null) {
+                response.setContentType("application/json;charset=utf-8");
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
                 response.getWriter().println(new JSONObject().put("error", "Build not found").toString());
             } else {
-                response.setStatus(HttpServletResponse.SC_OK);
-                response.getWriter().println(build.toString(2));
+                if (job == null) {
+                    if (sendNotModified(request, response, etag, 0, IMMUTABLE)) {
+                        return;
+                    }
+                    setValidators(response, etag, 0, IMMUTABLE);
+                } else {
+                    response.setHeader("Cache-Control", "no-store");
+                }
+                try (JsonResponseWriter json = JsonResponseWriter.open(request, response, HttpServletResponse.SC_OK)) {
+                    json.value(build);
+                }
             }
             return;
         }
 
+        if (target != null && target.startsWith("/repositories/")) {
+            handleTestQuery(target.substring("/repositories/".length()), request, response);
+            return;
+        }
+
         response.setContentType("text/html;charset=utf-8");
         response.setStatus(HttpServletResponse.SC_OK);
         response.getWriter().println("CI server running");
     }
 
-    private JSONObject createBuildRecord(
-        String buildId,
-        String repository,
-        String commit,
-        String branch,
-        String buildDate,
-        boolean buildSuccess,
-        boolean testsSuccess,
-        String logs
-    ) {
-        JSONObject buildRecord = new JSONObject();
-        buildRecord.put("id", buildId);
-        buildRecord.put("repository", repository);
-        buildRecord.put("commit", commit == null ? "" : commit);
-        buildRecord.put("branch", branch);
-        buildRecord.put("buildDate", buildDate);
-        buildRecord.put("buildSuccess", buildSuccess);
-        buildRecord.put("testsSuccess", testsSuccess);
-        buildRecord.put("status", buildSuccess && testsSuccess ? "success" : "failure");
-        buildRecord.put("logs", logs);
-        return buildRecord;
+    /**
+     * Answers the requests of {@link BuildWorker}s in coordinator mode:
+     * {@code POST /workers/{worker}/heartbeat}, {@code /claim},
+     * {@code /builds/{id}/log} and {@code /builds/{id}/complete}.
+     *
+     * <p>When {@code workerToken} is set, requests must carry it as a bearer token.</p>
+     */
+    private void handleWorkerRequest(String path, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("application/json;charset=utf-8");
+        String[] parts = path.split("/");
+        if (coordinator == null || parts[0].isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println(new JSONObject().put("error", "Not a coordinator").toString());
+            return;
+        }
+        if (!workerAuthorized(request.getHeader("Authorization"))) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().println(new JSONObject().put("error", "Invalid worker token").toString());
+            return;
+        }
+        String workerId = parts[0];
+        JSONObject body;
+        try {
+            String payload = Utils.readStream(request.getInputStream());
+            body = payload.isBlank() ? new JSONObject() : new JSONObject(payload);
+        } catch (JSONException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().println(new JSONObject().put("error", "Invalid JSON").toString());
+            return;
+        }
+
+        if (parts.length == 2 && "heartbeat".equals(parts[1])) {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println(coordinator.heartbeat(workerId, body).toString());
+        } else if (parts.length == 2 && "claim".equals(parts[1])) {
+            JSONObject claim = coordinator.claim(workerId);
+            if (claim == null) {
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            } else {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.getWriter().println(claim.toString());
+            }
+        } else if (parts.length == 4 && "builds".equals(parts[1]) && "log".equals(parts[3])) {
+            boolean accepted = coordinator.log(workerId, parts[2], body.optString("text"));
+            response.setStatus(accepted ? HttpServletResponse.SC_OK : HttpServletResponse.SC_CONFLICT);
+            response.getWriter().println(new JSONObject().put("accepted", accepted).toString());
+        } else if (parts.length == 4 && "builds".equals(parts[1]) && "complete".equals(parts[3])) {
+            boolean accepted = coordinator.complete(workerId, parts[2], body);
+            response.setStatus(accepted ? HttpServletResponse.SC_OK : HttpServletResponse.SC_CONFLICT);
+            response.getWriter().println(new JSONObject().put("accepted", accepted).toString());
+        } else {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println(new JSONObject().put("error", "Unknown endpoint").toString());
+        }
+    }
+
+    private static boolean workerAuthorized(String authorization) {
+        String token = System.getProperty("workerToken");
+        if (token == null || token.isBlank()) {
+            return true;
+        }
+        return authorization != null && MessageDigest.isEqual(
+            authorization.getBytes(StandardCharsets.UTF_8),
+            ("Bearer " + token).getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    /**
+     * Answers {@code GET /builds/{id}/wait?timeout=<seconds>} once the build has finished.
+     *
+     * <p>While the build is queued or running the request is suspended as a Jetty continuation
+     * and parked in {@link BuildWaiters}, so waiting clients hold no server thread. The request
+     * is re-dispatched here when the build finishes (200 with the build record) or when the
+     * timeout (default 30, at most 300 seconds) expires (202 with the current job state).</p>
+     */
+    private void handleWaitRequest(String buildId, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("application/json;charset=utf-8");
+        Continuation continuation = ContinuationSupport.getContinuation(request);
+
+        BuildJob finishedJob = (BuildJob) continuation.getAttribute(BuildWaiters.JOB_ATTRIBUTE);
+        if (finishedJob != null) {
+            writeFinishedJob(finishedJob, response);
+            return;
+        }
+
+        BuildJob job = scheduler.getJob(buildId);
+        if (continuation.isExpired()) {
+            if (job != null) {
+                waiters.unregister(buildId, continuation);
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                response.getWriter().println(job.toJson().toString(2));
+                return;
+            }
+        } else if (job != null) {
+            long timeoutSeconds = Math.min(MAX_WAIT_SECONDS, intParameter(request, "timeout", (int) DEFAULT_WAIT_SECONDS));
+            continuation.setTimeout(timeoutSeconds * 1000);
+            continuation.suspend();
+            if (!waiters.register(job, continuation)) {
+                // Finished between the lookup and the registration
+                continuation.setAttribute(BuildWaiters.JOB_ATTRIBUTE, job);
+                continuation.resume();
+            }
+            return;
+        }
+
+        JSONObject build = BuildHistoryStore.getBuildById(buildId);
+        if (build == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println(new JSONObject().put("error", "Build not found").toString());
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println(build.toString(2));
+        }
+    }
+
+    /**
+     * Streams build events as server-sent events ({@code GET /events?repository=&branch=}).
+     *
+     * <p>The request is suspended with its response, and {@link BuildEventBus} writes events to
+     * it from the stream's own writer thread. A {@code Last-Event-ID} header replays the buffered events
+     * after that ID. Streams are closed after ten minutes; EventSource clients reconnect and
+     * resume from the last event they received.</p>
+     */
+    private void handleEventStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Continuation continuation = ContinuationSupport.getContinuation(request);
+        if (continuation.isExpired()) {
+            BuildEventBus.Subscription subscription =
+                (BuildEventBus.Subscription) continuation.getAttribute(SUBSCRIPTION_ATTRIBUTE);
+            if (subscription != null) {
+                BuildEventBus.shared().unsubscribe(subscription);
+            }
+            return;
+        }
+        if (BuildEventBus.shared().isFull()) {
+            System.out.println("Refusing an event stream: too many open streams");
+            response.setContentType("application/json;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", String.valueOf(EVENT_STREAM_RETRY_AFTER_SECONDS));
+            response.getWriter().println(new JSONObject().put("error", "Too many open event streams").toString());
+            return;
+        }
+
+        response.setContentType("text/event-stream;charset=utf-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().write("retry: 3000\n\n");
+        response.flushBuffer();
+
+        continuation.setTimeout(EVENT_STREAM_SECONDS * 1000);
+        continuation.suspend(response);
+        BuildEventBus.Subscription subscription = BuildEventBus.shared().subscribe(
+            request.getParameter("repository"),
+            request.getParameter("branch"),
+            request.getHeader("Last-Event-ID"),
+            response.getWriter(),
+            continuation::complete
+        );
+        if (subscription == null) {
+            // Another stream took the last slot since the check above; the client reconnects
+            continuation.complete();
+            return;
+        }
+        continuation.setAttribute(SUBSCRIPTION_ATTRIBUTE, subscription);
+    }
+
+    private void writeFinishedJob(BuildJob job, HttpServletResponse response) throws IOException {
+        JSONObject record = job.record();
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.getWriter().println((record != null ? record : job.toJson()).toString(2));
+    }
+
+    /**
+     * Answers a conditional GET whose validators still match with 304 Not Modified.
+     *
+     * @return true if the 304 response was sent and nothing else must be written
+     */
+    private static boolean sendNotModified(HttpServletRequest request, HttpServletResponse response, String etag,
+            long lastModifiedMillis, String cacheControl) {
+        if (!JsonResponseWriter.notModified(request, etag, lastModifiedMillis)) {
+            return false;
+        }
+        setValidators(response, etag, lastModifiedMillis, cacheControl);
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+    }
+
+    private static void setValidators(HttpServletResponse response, String etag, long lastModifiedMillis,
+            String cacheControl) {
+        response.setHeader("ETag", etag);
+        if (lastModifiedMillis > 0) {
+            response.setDateHeader("Last-Modified", lastModifiedMillis);
+        }
+        response.setHeader("Cache-Control", cacheControl);
+        response.setHeader("Vary", "Accept-Encoding");
+    }
+
+    /**
+     * Answers {@code GET /builds/query} from the build summary file.
+     *
+     * <p>Supported parameters: {@code repository}, {@code branch}, {@code status},
+     * {@code since} and {@code until} (epoch milliseconds, ISO instant or ISO date) and
+     * {@code groupBy} ({@code repository}, {@code branch}, {@code status} or {@code day}).</p>
+     */
+    private void handleBuildQuery(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=utf-8");
+        BuildSummaryFile.Query query = new BuildSummaryFile.Query();
+        query.repository = request.getParameter("repository");
+        query.branch = request.getParameter("branch");
+        query.status = request.getParameter("status");
+        String groupBy = request.getParameter("groupBy");
+        try {
+            if (request.getParameter("since") != null) {
+                query.sinceMillis = BuildSummaryFile.parseTime(request.getParameter("since"));
+            }
+            if (request.getParameter("until") != null) {
+                query.untilMillis = BuildSummaryFile.parseTime(request.getParameter("until"));
+            }
+            if (groupBy != null) {
+                if (!Arrays.asList("none", "repository", "branch", "status", "day").contains(groupBy)) {
+                    throw new IllegalArgumentException("Invalid groupBy: " + groupBy);
+                }
+                query.groupBy = groupBy;
+            }
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().println(new JSONObject().put("error", e.getMessage()).toString());
+            return;
+        }
+        String etag = BuildHistoryStore.etag(null);
+        long lastModifiedMillis = BuildHistoryStore.lastModifiedMillis(null);
+        if (sendNotModified(request, response, etag, lastModifiedMillis, REVALIDATE)) {
+            return;
+        }
+        setValidators(response, etag, lastModifiedMillis, REVALIDATE);
+        JSONObject result = BuildHistoryStore.queryBuilds(query);
+        try (JsonResponseWriter json = JsonResponseWriter.open(request, response, HttpServletResponse.SC_OK)) {
+            json.value(result);
+        }
+    }
+
+    private void handleTestQuery(String path, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        response.setContentType("application/json;charset=utf-8");
+        String[] parts = path.split("/");
+        if (parts.length != 4 || !"tests".equals(parts[2])) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println(new JSONObject().put("error", "Unknown endpoint").toString());
+            return;
+        }
+
+        String repository = parts[0] + "/" + parts[1];
+        if (!Utils.isRepositoryName(repository)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.getWriter().println(new JSONObject().put("error", "Invalid repository").toString());
+            return;
+        }
+        int window = intParameter(request, "window", TestResultStore.DEFAULT_WINDOW);
+        JSONArray tests;
+        if ("slowest".equals(parts[3])) {
+            tests = TestResultStore.slowestTests(repository, intParameter(request, "limit", 20), window);
+        } else if ("flaky".equals(parts[3])) {
+            tests = TestResultStore.flakyTests(repository, window);
+        } else {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            response.getWriter().println(new JSONObject().put("error", "Unknown endpoint").toString());
+            return;
+        }
+        try (JsonResponseWriter json = JsonResponseWriter.open(request, response, HttpServletResponse.SC_OK)) {
+            json.value(tests);
+        }
+    }
+
+    private int intParameter(HttpServletRequest request, String name, int defaultValue) {
+        String value = request.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
     }
- 
+
+    /**
+     * Queues the builds accepted but not started before the last shutdown and records the
+     * builds that were running as interrupted.
+     */
+    private static void recoverJournal(BuildScheduler scheduler, boolean prefetch) throws IOException {
+        BuildJournal.Recovery recovery = BuildJournal.shared().recover();
+        for (BuildJob job : recovery.interrupted) {
+            BuildPipeline.recordInterrupted(job);
+        }
+        for (BuildJob job : recovery.requeued) {
+            if (prefetch) {
+                BuildPrefetcher.shared().prefetch(job);
+            }
+            scheduler.submit(job);
+        }
+        System.out.println("Recovered build journal in " + recovery.durationMillis + " ms: "
+            + recovery.requeued.size() + " requeued, " + recovery.interrupted.size() + " interrupted, "
+            + recovery.skippedLines + " unreadable lines");
+    }
+
     /**
      * Starts the Continuous Integration server on port 8007.
      *
@@ -290,14 +679,46 @@ public class ContinuousIntegrationServer extends AbstractHandler
      * a {@link ContinuousIntegrationServer} instance to handle the requests,
      * and blocks the main thread until the server is stopped.</p>
      *
+     * <p>If {@code prewarmWorkspaces} is set, the workspaces of that many of the most
+     * frequently built repositories are cloned in the background first.</p>
+     *
+     * <p>Before accepting requests, the {@link BuildJournal} of the previous run is recovered.</p>
+     *
+     * <p>The {@code mode} system property selects how builds run: {@code standalone} (default)
+     * runs them in this process, {@code coordinator} hands them to {@link BuildWorker}s through
+     * a {@link WorkerCoordinator}, and {@code worker} runs only a {@link BuildWorker} without
+     * starting the HTTP server.</p>
+     *
      * @param args command-line arguments
      * @throws Exception if the server fails to start or encounters
      *         a fatal runtime error
      */
     public static void main(String[] args) throws Exception
     {
+        String mode = System.getProperty("mode", "standalone");
+        if ("worker".equals(mode)) {
+            BuildWorker.fromSystemProperties().run();
+            return;
+        }
+        if (!"standalone".equals(mode) && !"coordinator".equals(mode)) {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        WorkerCoordinator coordinator = "coordinator".equals(mode)
+            ? new WorkerCoordinator(WorkerCoordinator.workerTimeoutMillis()) : null;
+
         Server server = new Server(8007);
-        server.setHandler(new ContinuousIntegrationServer()); 
+        int prewarmCount = coordinator == null ? Integer.getInteger("prewarmWorkspaces", 0) : 0;
+        if (prewarmCount > 0) {
+            Thread prewarm = new Thread(() -> WorkspaceManager.shared().prewarm(prewarmCount), "workspace-prewarm");
+            prewarm.setDaemon(true);
+            prewarm.start();
+        }
+
+        BuildScheduler scheduler = coordinator == null
+            ? new BuildScheduler(new ResourceMonitor(), BuildJournal.shared().journaled(BuildPipeline::run))
+            : new BuildScheduler(coordinator.monitor(), BuildJournal.shared().journaled(coordinator::run));
+        recoverJournal(scheduler, coordinator == null);
+        server.setHandler(new ContinuousIntegrationServer(scheduler, coordinator));
         server.start();
         server.join();
     }
@@ -0,0 +1,165 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Build queue that shares build starts fairly between repositories.
+ *
+ * <p>Every repository has its own FIFO queue, split into default-branch jobs and other jobs.
+ * The next job is chosen as follows:</p>
+ * <ol>
+ *   <li>If the oldest queued job has waited longer than the starvation limit, it goes first.</li>
+ *   <li>Otherwise, if any repository has a queued default-branch job, only those jobs are considered.</li>
+ *   <li>Among the candidate repositories the one with the lowest virtual time wins.</li>
+ * </ol>
+ *
+ * <p>Starting a job advances its repository's virtual time by {@code 1 / weight}, so a
+ * repository with weight 2 gets twice as many starts as one with weight 1 while both have
+ * queued work (stride scheduling). A repository that becomes active again starts at the
+ * current virtual time, so idle periods do not build up credit. This class is not
+ * thread-safe; {@link BuildScheduler} guards it with its own lock.</p>
+ */
+public class FairShareQueue {
+    private final Map<String, RepositoryQueue> repositories = new LinkedHashMap<String, RepositoryQueue>();
+    private final long starvationMillis;
+    private double virtualTime;
+    private int size;
+
+    /**
+     * Creates an empty queue.
+     *
+     * @param starvationMillis queue wait after which a job is started ahead of fair order
+     */
+    public FairShareQueue(long starvationMillis) {
+        this.starvationMillis = starvationMillis;
+    }
+
+    private static final class RepositoryQueue {
+        final Deque<BuildJob> defaultBranchJobs = new ArrayDeque<BuildJob>();
+        final Deque<BuildJob> otherJobs = new ArrayDeque<BuildJob>();
+        double pass;
+
+        boolean isEmpty() {
+            return defaultBranchJobs.isEmpty() && otherJobs.isEmpty();
+        }
+
+        BuildJob oldest() {
+            BuildJob first = defaultBranchJobs.peek();
+            BuildJob second = otherJobs.peek();
+            if (first == null || (second != null && second.queuedAtMillis < first.queuedAtMillis)) {
+                return second;
+            }
+            return first;
+        }
+    }
+
+    /**
+     * Adds a job to the end of its repository's queue.
+     *
+     * @param job the job to queue
+     */
+    public void add(BuildJob job) {
+        RepositoryQueue queue = repositories.computeIfAbsent(job.repository, key -> new RepositoryQueue());
+        if (queue.isEmpty()) {
+            queue.pass = Math.max(queue.pass, virtualTime);
+        }
+        (job.defaultBranch ? queue.defaultBranchJobs : queue.otherJobs).add(job);
+        size++;
+    }
+
+    /**
+     * Returns the job that should start next without removing it.
+     *
+     * @param nowMillis the current time
+     * @return the next job, or null if the queue is empty
+     */
+    public BuildJob peek(long nowMillis) {
+        return peek(nowMillis, Collections.<String>emptySet());
+    }
+
+    /**
+     * Returns the job that should start next among the repositories that may start one,
+     * without removing it.
+     *
+     * @param nowMillis the current time
+     * @param excluded repositories whose jobs must not start now
+     * @return the next job, or null if no other repository has queued jobs
+     */
+    public BuildJob peek(long nowMillis, Set<String> excluded) {
+        BuildJob oldest = null;
+        for (Map.Entry<String, RepositoryQueue> entry : repositories.entrySet()) {
+            if (excluded.contains(entry.getKey())) {
+                continue;
+            }
+            BuildJob candidate = entry.getValue().oldest();
+            if (candidate != null && (oldest == null || candidate.queuedAtMillis < oldest.queuedAtMillis)) {
+                oldest = candidate;
+            }
+        }
+        if (oldest == null || nowMillis - oldest.queuedAtMillis >= starvationMillis) {
+            return oldest;
+        }
+
+        BuildJob next = pickByPass(true, excluded);
+        return next != null ? next : pickByPass(false, excluded);
+    }
+
+    private BuildJob pickByPass(boolean defaultBranch, Set<String> excluded) {
+        RepositoryQueue best = null;
+        for (Map.Entry<String, RepositoryQueue> entry : repositories.entrySet()) {
+            if (excluded.contains(entry.getKey())) {
+                continue;
+            }
+            RepositoryQueue queue = entry.getValue();
+            Deque<BuildJob> jobs = defaultBranch ? queue.defaultBranchJobs : queue.otherJobs;
+            if (!jobs.isEmpty() && (best == null || queue.pass < best.pass)) {
+                best = queue;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        return defaultBranch ? best.defaultBranchJobs.peek() : best.otherJobs.peek();
+    }
+
+    /**
+     * Removes a job that is about to start and charges its repository.
+     *
+     * @param job the job returned by {@link #peek(long)}
+     * @param weight the repository's scheduling weight
+     * @return true if the job was queued
+     */
+    public boolean remove(BuildJob job, double weight) {
+        RepositoryQueue queue = repositories.get(job.repository);
+        if (queue == null || !(queue.defaultBranchJobs.remove(job) || queue.otherJobs.remove(job))) {
+            return false;
+        }
+        size--;
+        virtualTime = Math.max(virtualTime, queue.pass);
+        queue.pass += 1.0 / Math.max(weight, 0.001);
+        return true;
+    }
+
+    /**
+     * Returns the number of queued jobs.
+     *
+     * @return the queue size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether no jobs are queued.
+     *
+     * @return true if the queue is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
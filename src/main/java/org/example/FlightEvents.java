@@ -0,0 +1,135 @@
+package org.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the CI server.
+ *
+ * <p>The events are recorded only while a recording is running, for example one started with
+ * {@code -XX:StartFlightRecording} or, without a restart, with {@code jcmd <pid> JFR.start}.
+ * Otherwise creating and committing them costs next to nothing. Each event covers the
+ * duration of the operation, so a recording shows which webhook, process, store call or
+ * status post was slow and what else ran at the same time.</p>
+ */
+public final class FlightEvents {
+    private FlightEvents() {}
+
+    /**
+     * One webhook POST, from reading the payload to answering it.
+     */
+    @Name("org.example.Webhook")
+    @Label("Webhook")
+    @Category({"CI Server", "Intake"})
+    @Description("A GitHub webhook received by the server")
+    @StackTrace(false)
+    static final class Webhook extends Event {
+        @Label("Delivery ID")
+        String deliveryId;
+
+        @Label("Repository")
+        String repository;
+
+        @Label("Build ID")
+        String buildId;
+
+        @Label("Payload Size")
+        @DataAmount
+        long payloadBytes;
+
+        @Label("Outcome")
+        @Description("queued, duplicate, invalid-signature, not-json, journal-failed, or the intake rejection reason")
+        String outcome;
+    }
+
+    /**
+     * One process started by {@link CommandRunner}.
+     */
+    @Name("org.example.Command")
+    @Label("Command")
+    @Category({"CI Server", "Pipeline"})
+    @Description("An external process run by the build pipeline, such as Git or Gradle")
+    @StackTrace(false)
+    static final class Command extends Event {
+        @Label("Command")
+        String command;
+
+        @Label("Exit Code")
+        @Description("The process exit code, or -1 if it was killed before exiting")
+        int exitCode = -1;
+
+        @Label("Output Size")
+        @DataAmount
+        long outputBytes;
+
+        @Label("Timed Out")
+        boolean timedOut;
+
+        @Label("Interrupted")
+        boolean interrupted;
+    }
+
+    /**
+     * One call of {@link BuildHistoryStore}.
+     */
+    @Name("org.example.StoreCall")
+    @Label("Build History Store Call")
+    @Category({"CI Server", "Storage"})
+    @Description("A read or write of the stored build history")
+    @StackTrace(false)
+    static final class StoreCall extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Repository")
+        @Description("The repository the call is limited to, or empty for all repositories")
+        String repository;
+
+        @Label("Records Scanned")
+        long recordsScanned;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        StoreCall(String operation, String repository) {
+            this.operation = operation;
+            this.repository = repository;
+        }
+    }
+
+    /**
+     * One attempt of {@link GitHubStatusClient#postStatus}.
+     */
+    @Name("org.example.StatusPost")
+    @Label("GitHub Status Post")
+    @Category({"CI Server", "GitHub"})
+    @Description("A commit status sent to the GitHub API")
+    @StackTrace(false)
+    static final class StatusPost extends Event {
+        @Label("Statuses URL")
+        String statusesUrl;
+
+        @Label("State")
+        String state;
+
+        @Label("Context")
+        String context;
+
+        @Label("Response Code")
+        @Description("The HTTP status of the response, or 0 if none was received")
+        int responseCode;
+
+        @Label("Error")
+        String error;
+    }
+}
@@ -22,6 +22,8 @@ public class GitHubStatusClient {
      * <p>This method sends an HTTP POST request to the provided
      * {@code statusesUrl} with a JSON body containing the state, description and context</p>
      *
+     * <p>Every attempt is recorded as a {@link FlightEvents.StatusPost} Flight Recorder event.</p>
+     *
      * @param statusesUrl the GitHub statuses API URL
      * @param state the commit state 
      * @param description a short message describing the status
@@ -30,6 +32,27 @@ public class GitHubStatusClient {
      * @throws IOException if an I/O error occurs
      */
     public static void postStatus(String statusesUrl, String state, String description, String context, String token) throws IOException {
+        FlightEvents.StatusPost event = new FlightEvents.StatusPost();
+        event.begin();
+        try {
+            event.responseCode = send(statusesUrl, state, description, context, token);
+            if (event.responseCode < 200 || event.responseCode >= 300) {
+                throw new IOException("GitHub status update failed with HTTP " + event.responseCode);
+            }
+        } catch (IOException e) {
+            event.error = e.getMessage();
+            throw e;
+        } finally {
+            if (event.shouldCommit()) {
+                event.statusesUrl = statusesUrl;
+                event.state = state;
+                event.context = context;
+                event.commit();
+            }
+        }
+    }
+
+    private static int send(String statusesUrl, String state, String description, String context, String token) throws IOException {
         URL url;
         try {
             url = URI.create(statusesUrl).toURL();
@@ -54,10 +77,7 @@ public class GitHubStatusClient {
             os.write(payload);
         }
 
-        int code = conn.getResponseCode();
-        if (code < 200 || code >= 300) {
-            throw new IOException("GitHub status update failed with HTTP " + code);
-        }
+        return conn.getResponseCode();
     }
 
     /**
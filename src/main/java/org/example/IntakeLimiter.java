@@ -0,0 +1,151 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONObject;
+
+/**
+ * Decides on the request thread whether a webhook may queue another build.
+ *
+ * <p>A webhook is rejected with a retry delay when {@code maxQueuedBuilds} (system property,
+ * default 500) builds are already waiting, or when its repository has used up its token
+ * bucket: each repository may queue {@code intakeBurst} builds at once (default 20), refilled
+ * at {@code intakeRatePerMinute} (default 60). Buckets of the least recently seen repositories
+ * are dropped beyond {@value #MAX_BUCKETS}; a dropped bucket comes back full.</p>
+ */
+public class IntakeLimiter {
+    private static final int DEFAULT_MAX_QUEUED_BUILDS = 500;
+    private static final double DEFAULT_RATE_PER_MINUTE = 60;
+    private static final int DEFAULT_BURST = 20;
+    private static final int MAX_BUCKETS = 10000;
+    private static final long QUEUE_FULL_RETRY_SECONDS = 30;
+
+    private final int maxQueuedBuilds;
+    private final double tokensPerMilli;
+    private final int burst;
+    private final Map<String, Bucket> buckets = new LinkedHashMap<String, Bucket>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > MAX_BUCKETS;
+        }
+    };
+    private final Map<String, Long> rejectedByReason = new TreeMap<String, Long>();
+    private long admitted;
+    private long duplicates;
+
+    /**
+     * Tokens left to one repository.
+     */
+    private static final class Bucket {
+        double tokens;
+        long updatedAtMillis;
+    }
+
+    /**
+     * The outcome of an intake check.
+     */
+    public static final class Decision {
+        public final boolean admitted;
+        public final String reason;
+        public final long retryAfterSeconds;
+
+        Decision(boolean admitted, String reason, long retryAfterSeconds) {
+            this.admitted = admitted;
+            this.reason = reason;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    /**
+     * Creates a limiter.
+     *
+     * @param maxQueuedBuilds queued builds at which every webhook is rejected
+     * @param ratePerMinute builds one repository may queue per minute on average
+     * @param burst builds one repository may queue at once
+     */
+    public IntakeLimiter(int maxQueuedBuilds, double ratePerMinute, int burst) {
+        this.maxQueuedBuilds = maxQueuedBuilds;
+        this.tokensPerMilli = ratePerMinute / 60000.0;
+        this.burst = Math.max(1, burst);
+    }
+
+    /**
+     * Creates the limiter configured by the {@code maxQueuedBuilds}, {@code intakeRatePerMinute}
+     * and {@code intakeBurst} system properties.
+     *
+     * @return the limiter
+     */
+    public static IntakeLimiter fromSystemProperties() {
+        double ratePerMinute;
+        try {
+            ratePerMinute = Double.parseDouble(
+                System.getProperty("intakeRatePerMinute", String.valueOf(DEFAULT_RATE_PER_MINUTE))
+            );
+        } catch (NumberFormatException e) {
+            ratePerMinute = DEFAULT_RATE_PER_MINUTE;
+        }
+        return new IntakeLimiter(
+            Integer.getInteger("maxQueuedBuilds", DEFAULT_MAX_QUEUED_BUILDS),
+            ratePerMinute,
+            Integer.getInteger("intakeBurst", DEFAULT_BURST)
+        );
+    }
+
+    /**
+     * Checks whether a webhook may queue a build and takes a token from its repository if so.
+     *
+     * @param repository the repository full name
+     * @param queuedBuilds builds currently waiting in the scheduler
+     * @param nowMillis the current time in milliseconds
+     * @return the decision, with the seconds to wait before retrying if rejected
+     */
+    public synchronized Decision admit(String repository, int queuedBuilds, long nowMillis) {
+        if (queuedBuilds >= maxQueuedBuilds) {
+            return reject("queue-full", QUEUE_FULL_RETRY_SECONDS);
+        }
+        Bucket bucket = buckets.get(repository);
+        if (bucket == null) {
+            bucket = new Bucket();
+            bucket.tokens = burst;
+            buckets.put(repository, bucket);
+        } else {
+            bucket.tokens = Math.min(burst, bucket.tokens + (nowMillis - bucket.updatedAtMillis) * tokensPerMilli);
+        }
+        bucket.updatedAtMillis = nowMillis;
+        if (bucket.tokens < 1) {
+            long waitMillis = tokensPerMilli > 0 ? (long) Math.ceil((1 - bucket.tokens) / tokensPerMilli) : 60000;
+            return reject("repository-rate", Math.max(1, (waitMillis + 999) / 1000));
+        }
+        bucket.tokens--;
+        admitted++;
+        return new Decision(true, "admitted", 0);
+    }
+
+    private Decision reject(String reason, long retryAfterSeconds) {
+        rejectedByReason.merge(reason, 1L, Long::sum);
+        return new Decision(false, reason, retryAfterSeconds);
+    }
+
+    /**
+     * Counts a redelivered webhook that was dropped.
+     */
+    public synchronized void recordDuplicate() {
+        duplicates++;
+    }
+
+    /**
+     * Returns intake metrics.
+     *
+     * @return JSON object with admitted, rejected and duplicate webhook counts
+     */
+    public synchronized JSONObject metrics() {
+        return new JSONObject()
+            .put("admitted", admitted)
+            .put("rejected", new JSONObject(rejectedByReason))
+            .put("duplicates", duplicates)
+            .put("maxQueuedBuilds", maxQueuedBuilds)
+            .put("trackedRepositories", buckets.size());
+    }
+}
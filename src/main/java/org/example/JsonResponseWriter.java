@@ -0,0 +1,295 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Writes a JSON response body directly to the response stream, gzip-compressed when the client
+ * accepts it and pretty-printed only when the request has a {@code pretty} parameter.
+ *
+ * <p>Arrays are written one element at a time with {@link #beginArray}, {@link #element} and
+ * {@link #endArray}, so a long list of records is never held as one string.</p>
+ */
+public class JsonResponseWriter implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INDENT = 2;
+
+    private final CountingOutputStream wire;
+    private final GZIPOutputStream gzip;
+    private final Writer writer;
+    private final boolean pretty;
+    private boolean firstElement;
+
+    /**
+     * Creates a writer for the given stream.
+     *
+     * @param output the stream to write to
+     * @param gzip whether to gzip-compress the output
+     * @param pretty whether to indent the output
+     * @throws IOException if the gzip header cannot be written
+     */
+    public JsonResponseWriter(OutputStream output, boolean gzip, boolean pretty) throws IOException {
+        this.wire = new CountingOutputStream(output);
+        this.gzip = gzip ? new GZIPOutputStream(wire, BUFFER_SIZE) : null;
+        this.writer = new BufferedWriter(
+            new OutputStreamWriter(gzip ? this.gzip : wire, StandardCharsets.UTF_8), BUFFER_SIZE
+        );
+        this.pretty = pretty;
+    }
+
+    /**
+     * Sets the status and headers of a JSON response and opens its body.
+     *
+     * @param request the request, whose {@code Accept-Encoding} header and {@code pretty}
+     *        parameter select the encoding and formatting
+     * @param response the response to write to
+     * @param status the HTTP status
+     * @return the writer of the response body
+     * @throws IOException if the response stream cannot be opened
+     */
+    public static JsonResponseWriter open(HttpServletRequest request, HttpServletResponse response, int status)
+            throws IOException {
+        boolean gzip = acceptsGzip(request.getHeader("Accept-Encoding"));
+        String pretty = request.getParameter("pretty");
+        response.setContentType("application/json;charset=utf-8");
+        response.setHeader("Vary", "Accept-Encoding");
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setStatus(status);
+        return new JsonResponseWriter(response.getOutputStream(), gzip, pretty != null && !"false".equals(pretty));
+    }
+
+    /**
+     * Checks whether an {@code Accept-Encoding} header allows gzip.
+     *
+     * <p>An explicit {@code gzip} entry takes precedence over {@code *}, so
+     * {@code *, gzip;q=0} refuses gzip.</p>
+     *
+     * @param acceptEncoding the header value, or null
+     * @return true unless gzip is absent or has a quality of zero
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean wildcard = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if ("gzip".equalsIgnoreCase(name)) {
+                return hasPositiveQuality(parts);
+            }
+            if ("*".equals(name)) {
+                wildcard = hasPositiveQuality(parts);
+            }
+        }
+        return wildcard;
+    }
+
+    private static boolean hasPositiveQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a conditional GET against the current validators of the requested resource.
+     *
+     * <p>{@code If-None-Match} takes precedence; {@code If-Modified-Since} is only used
+     * without it, at the one-second resolution of HTTP dates.</p>
+     *
+     * @param request the request
+     * @param etag the current ETag of the resource
+     * @param lastModifiedMillis when the resource last changed, or 0 if unknown
+     * @return true if the client's copy is current and 304 Not Modified can be sent
+     */
+    public static boolean notModified(HttpServletRequest request, String etag, long lastModifiedMillis) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etagMatches(ifNoneMatch, etag);
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return lastModifiedMillis > 0 && ifModifiedSince >= 0 && lastModifiedMillis / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Compares an {@code If-None-Match} header with an ETag using weak comparison.
+     *
+     * @param ifNoneMatch the header value
+     * @param etag the current ETag
+     * @return true if the header is {@code *} or lists the ETag
+     */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            if ("*".equals(candidate.trim())) {
+                return true;
+            }
+        }
+        return etagListed(ifNoneMatch, etag);
+    }
+
+    /**
+     * Checks whether an {@code If-None-Match} header lists an ETag, ignoring {@code *}.
+     *
+     * <p>Unlike {@link #etagMatches}, a match shows that the client holds this exact ETag,
+     * so the resource is known to exist without looking it up.</p>
+     *
+     * @param ifNoneMatch the header value, or null
+     * @param etag the ETag
+     * @return true if the header lists the ETag
+     */
+    static boolean etagListed(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaque = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            if (stripWeak(candidate.trim()).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Writes a complete object as the response body.
+     *
+     * @param value the object
+     * @throws IOException if writing fails
+     */
+    public void value(JSONObject value) throws IOException {
+        value.write(writer, pretty ? INDENT : 0, 0);
+    }
+
+    /**
+     * Writes a complete array as the response body.
+     *
+     * @param value the array
+     * @throws IOException if writing fails
+     */
+    public void value(JSONArray value) throws IOException {
+        value.write(writer, pretty ? INDENT : 0, 0);
+    }
+
+    /**
+     * Starts a top-level array whose elements follow with {@link #element}.
+     *
+     * @throws IOException if writing fails
+     */
+    public void beginArray() throws IOException {
+        writer.write('[');
+        firstElement = true;
+    }
+
+    /**
+     * Writes the next element of the array started by {@link #beginArray}.
+     *
+     * @param element the element
+     * @throws IOException if writing fails
+     */
+    public void element(JSONObject element) throws IOException {
+        if (!firstElement) {
+            writer.write(',');
+        }
+        firstElement = false;
+        if (pretty) {
+            writer.write('\n');
+            for (int i = 0; i < INDENT; i++) {
+                writer.write(' ');
+            }
+            element.write(writer, INDENT, INDENT);
+        } else {
+            element.write(writer);
+        }
+    }
+
+    /**
+     * Ends the array started by {@link #beginArray}.
+     *
+     * @throws IOException if writing fails
+     */
+    public void endArray() throws IOException {
+        if (pretty && !firstElement) {
+            writer.write('\n');
+        }
+        writer.write(']');
+    }
+
+    /**
+     * Returns the number of bytes written to the underlying stream so far, after compression.
+     *
+     * @return bytes on the wire
+     */
+    public long bytesWritten() {
+        return wire.count;
+    }
+
+    /**
+     * Finishes the body, including the gzip trailer, and flushes it.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        writer.write('\n');
+        writer.flush();
+        if (gzip != null) {
+            gzip.finish();
+        }
+        wire.flush();
+    }
+
+    /**
+     * Counts the bytes passed to the underlying stream.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The stages a repository's builds run after repository setup, and the dependencies between
+ * them, read from the {@code stages} key of its {@link RepositorySettings}.
+ *
+ * <p>Each stage is a JSON object with a {@code name}, an optional list of stage names it
+ * {@code needs}, and either {@code gradle}, the tasks and options passed to the repository's
+ * Gradle wrapper, or {@code "tests": true} for the test stage with test selection, sharding
+ * and result recording. At most one stage may be the test stage. Without {@code stages}, the
+ * pipeline is {@code build} ({@code build -x test}) followed by {@code test}.</p>
+ *
+ * <p>Stages that are ordered relative to every other stage run in the repository checkout.
+ * Stages that can run at the same time as another stage get their own Git worktree next to
+ * it, so concurrent Gradle processes do not share a project directory.</p>
+ */
+public final class PipelineDefinition {
+    private static final Pattern STAGE_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /** The pipeline of repositories without {@code stages}. */
+    static final PipelineDefinition DEFAULT = new PipelineDefinition(List.of(
+        new Stage("build", Collections.<String>emptyList(), List.of("build", "-x", "test"), false),
+        new Stage("test", List.of("build"), Collections.<String>emptyList(), true)
+    ));
+
+    private final List<Stage> stages;
+    private final Map<String, Stage> stagesByName = new LinkedHashMap<String, Stage>();
+    private final Map<String, Set<String>> ancestors = new LinkedHashMap<String, Set<String>>();
+
+    /**
+     * One stage of the pipeline.
+     */
+    public static final class Stage {
+        public final String name;
+        public final List<String> needs;
+        public final List<String> gradleArguments;
+        public final boolean tests;
+
+        Stage(String name, List<String> needs, List<String> gradleArguments, boolean tests) {
+            this.name = name;
+            this.needs = Collections.unmodifiableList(new ArrayList<String>(needs));
+            this.gradleArguments = Collections.unmodifiableList(new ArrayList<String>(gradleArguments));
+            this.tests = tests;
+        }
+    }
+
+    private PipelineDefinition(List<Stage> stages) {
+        for (Stage stage : stages) {
+            if (stagesByName.put(stage.name, stage) != null) {
+                throw new IllegalArgumentException("Duplicate stage: " + stage.name);
+            }
+        }
+        List<Stage> ordered = new ArrayList<Stage>();
+        Set<String> visiting = new HashSet<String>();
+        for (Stage stage : stages) {
+            order(stage, visiting, ordered);
+        }
+        this.stages = Collections.unmodifiableList(ordered);
+    }
+
+    /**
+     * Reads the pipeline of a repository.
+     *
+     * @param settings the repository settings
+     * @return the configured pipeline, or {@link #DEFAULT} if it has no {@code stages}
+     * @throws IllegalArgumentException if the stages are malformed, name unknown stages or
+     *         depend on each other in a cycle
+     */
+    public static PipelineDefinition of(RepositorySettings settings) {
+        JSONArray definitions = settings.stages();
+        if (definitions == null) {
+            return DEFAULT;
+        }
+        if (definitions.isEmpty()) {
+            throw new IllegalArgumentException("stages must not be empty");
+        }
+        List<Stage> stages = new ArrayList<Stage>();
+        try {
+            for (int i = 0; i < definitions.length(); i++) {
+                stages.add(parseStage(definitions.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid stage: " + e.getMessage(), e);
+        }
+        long testStages = stages.stream().filter(stage -> stage.tests).count();
+        if (testStages > 1) {
+            throw new IllegalArgumentException("Only one stage may run the tests");
+        }
+        return new PipelineDefinition(stages);
+    }
+
+    private static Stage parseStage(JSONObject definition) {
+        String name = definition.getString("name");
+        if (!STAGE_NAME.matcher(name).matches() || "setup".equals(name) || "total".equals(name)) {
+            throw new IllegalArgumentException("Invalid stage name: " + name);
+        }
+        List<String> needs = new ArrayList<String>();
+        JSONArray needsArray = definition.optJSONArray("needs");
+        for (int i = 0; needsArray != null && i < needsArray.length(); i++) {
+            needs.add(needsArray.getString(i));
+        }
+        boolean tests = definition.optBoolean("tests", false);
+        JSONArray gradleArray = definition.optJSONArray("gradle");
+        if (tests == (gradleArray != null)) {
+            throw new IllegalArgumentException("Stage " + name + " needs exactly one of gradle and tests");
+        }
+        List<String> gradleArguments = new ArrayList<String>();
+        for (int i = 0; gradleArray != null && i < gradleArray.length(); i++) {
+            gradleArguments.add(gradleArray.getString(i));
+        }
+        if (!tests && gradleArguments.isEmpty()) {
+            throw new IllegalArgumentException("Stage " + name + " has no Gradle tasks");
+        }
+        return new Stage(name, needs, gradleArguments, tests);
+    }
+
+    /**
+     * Appends a stage after its dependencies, collecting its transitive dependencies.
+     */
+    private Set<String> order(Stage stage, Set<String> visiting, List<Stage> ordered) {
+        Set<String> known = ancestors.get(stage.name);
+        if (known != null) {
+            return known;
+        }
+        if (!visiting.add(stage.name)) {
+            throw new IllegalArgumentException("Stages depend on each other in a cycle: " + stage.name);
+        }
+        Set<String> stageAncestors = new HashSet<String>();
+        for (String need : stage.needs) {
+            Stage dependency = stagesByName.get(need);
+            if (dependency == null) {
+                throw new IllegalArgumentException("Stage " + stage.name + " needs unknown stage " + need);
+            }
+            stageAncestors.add(need);
+            stageAncestors.addAll(order(dependency, visiting, ordered));
+        }
+        visiting.remove(stage.name);
+        ancestors.put(stage.name, stageAncestors);
+        ordered.add(stage);
+        return stageAncestors;
+    }
+
+    /**
+     * Returns the stages, each after the stages it needs.
+     *
+     * @return the stages in dependency order
+     */
+    public List<Stage> stages() {
+        return stages;
+    }
+
+    /**
+     * Checks whether one stage needs another, directly or through other stages.
+     *
+     * @param stage the dependent stage
+     * @param dependency the possible dependency
+     * @return true if {@code stage} cannot start before {@code dependency} has succeeded
+     */
+    public boolean dependsOn(String stage, String dependency) {
+        Set<String> stageAncestors = ancestors.get(stage);
+        return stageAncestors != null && stageAncestors.contains(dependency);
+    }
+
+    /**
+     * Checks whether a stage can run in the repository checkout, because no other stage can
+     * run at the same time.
+     *
+     * @param stage the stage name
+     * @return true if every other stage runs strictly before or after it
+     */
+    public boolean runsAlone(String stage) {
+        for (Stage other : stages) {
+            if (!other.name.equals(stage) && !dependsOn(stage, other.name) && !dependsOn(other.name, stage)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the test stage.
+     *
+     * @return the stage with {@code tests}, or null if the pipeline runs no tests
+     */
+    public Stage testStage() {
+        for (Stage stage : stages) {
+            if (stage.tests) {
+                return stage;
+            }
+        }
+        return null;
+    }
+}
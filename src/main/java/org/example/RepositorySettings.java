@@ -0,0 +1,166 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.example.util.Utils;
+
+/**
+ * Per-repository server settings read from {@code data/repositories/<owner>/<repo>/settings.json}.
+ *
+ * <p>The file is optional; every setting falls back to a default when it is missing.
+ * Supported keys:</p>
+ * <ul>
+ *   <li>{@code testShards}: number of parallel test shards (default 1).</li>
+ *   <li>{@code cpuCores}: cores one build is expected to use, for admission control (default 2).</li>
+ *   <li>{@code memoryMb}: memory one build is expected to use, for admission control (default 1024).</li>
+ *   <li>{@code schedulingWeight}: share of build starts relative to other repositories (default 1).</li>
+ *   <li>{@code maxConcurrentBuilds}: builds of the repository that may run at the same time (default 1).</li>
+ *   <li>{@code stageTimeoutSeconds}: wall-clock limit of one pipeline stage (default 1800).</li>
+ *   <li>{@code buildTimeoutSeconds}: wall-clock limit of the whole pipeline (default 3600).</li>
+ *   <li>{@code stages}: the pipeline stages and their dependencies, see {@link PipelineDefinition}.</li>
+ *   <li>{@code failFast}: cancel all other stages when one fails (default true).</li>
+ * </ul>
+ */
+public final class RepositorySettings {
+    private static final File REPOSITORIES_DIR = new File(Utils.dataDir(), "repositories");
+    private static final String SETTINGS_FILENAME = "settings.json";
+
+    private final JSONObject settings;
+
+    private RepositorySettings(JSONObject settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Loads the settings of a repository.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @return the settings, empty if the repository has no settings file
+     * @throws IOException if the settings file cannot be read or is not valid JSON
+     */
+    public static RepositorySettings load(String repositoryFullName) throws IOException {
+        File settingsFile = new File(new File(REPOSITORIES_DIR, repositoryFullName), SETTINGS_FILENAME);
+        if (!settingsFile.isFile()) {
+            return new RepositorySettings(new JSONObject());
+        }
+
+        String content = new String(Files.readAllBytes(settingsFile.toPath()), StandardCharsets.UTF_8).trim();
+        try {
+            return new RepositorySettings(content.isEmpty() ? new JSONObject() : new JSONObject(content));
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON in " + settingsFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Creates settings from an in-memory JSON object.
+     *
+     * @param settings the settings values
+     * @return settings backed by a copy of the given object
+     */
+    public static RepositorySettings of(JSONObject settings) {
+        return new RepositorySettings(new JSONObject(settings.toString()));
+    }
+
+    /**
+     * Returns the settings values, for example to send them to a {@link BuildWorker}.
+     *
+     * @return a copy of the settings object
+     */
+    public JSONObject toJson() {
+        return new JSONObject(settings.toString());
+    }
+
+    /**
+     * Returns the configured number of test shards.
+     *
+     * @return the shard count, at least 1
+     */
+    public int testShards() {
+        return Math.max(1, settings.optInt("testShards", 1));
+    }
+
+    /**
+     * Returns the number of cores one build of the repository is expected to use.
+     *
+     * @return the CPU hint in cores
+     */
+    public double cpuCores() {
+        return Math.max(0, settings.optDouble("cpuCores", 2));
+    }
+
+    /**
+     * Returns the memory one build of the repository is expected to use.
+     *
+     * @return the memory hint in megabytes
+     */
+    public long memoryMb() {
+        return Math.max(0, settings.optLong("memoryMb", 1024));
+    }
+
+    /**
+     * Returns the repository's weight in the fair-share build queue.
+     *
+     * @return the scheduling weight, greater than 0
+     */
+    public double schedulingWeight() {
+        double weight = settings.optDouble("schedulingWeight", 1);
+        return weight > 0 ? weight : 1;
+    }
+
+    /**
+     * Returns how many builds of the repository may run at the same time, each in its own
+     * workspace slot.
+     *
+     * @return the limit, at least 1
+     */
+    public int maxConcurrentBuilds() {
+        return Math.max(1, settings.optInt("maxConcurrentBuilds", 1));
+    }
+
+    /**
+     * Returns the wall-clock limit of one pipeline stage.
+     *
+     * @return the stage timeout in milliseconds, greater than 0
+     */
+    public long stageTimeoutMillis() {
+        long seconds = settings.optLong("stageTimeoutSeconds", 1800);
+        return 1000 * (seconds > 0 ? seconds : 1800);
+    }
+
+    /**
+     * Returns the wall-clock limit of the whole pipeline.
+     *
+     * @return the build timeout in milliseconds, greater than 0
+     */
+    public long buildTimeoutMillis() {
+        long seconds = settings.optLong("buildTimeoutSeconds", 3600);
+        return 1000 * (seconds > 0 ? seconds : 3600);
+    }
+
+    /**
+     * Returns the configured pipeline stages.
+     *
+     * @return the stage definitions, or null to use the default pipeline
+     */
+    public JSONArray stages() {
+        JSONArray stages = settings.optJSONArray("stages");
+        return stages == null ? null : new JSONArray(stages.toString());
+    }
+
+    /**
+     * Returns whether a failed stage cancels all other stages, not only those that need it.
+     *
+     * @return true to fail fast
+     */
+    public boolean failFast() {
+        return settings.optBoolean("failFast", true);
+    }
+}
@@ -0,0 +1,243 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.json.JSONObject;
+
+/**
+ * Reads live host resources and decides whether another build may start.
+ *
+ * <p>CPU load comes from the {@link OperatingSystemMXBean} and free memory from
+ * {@code MemAvailable} in {@code /proc/meminfo}, which unlike the bean's free memory counts
+ * the page cache the kernel reclaims on demand. When the server
+ * runs inside a container, the CPU quota and memory limit of its cgroup (v2 files
+ * {@code cpu.max}, {@code memory.max}, {@code memory.current}, or the v1 equivalents) further
+ * restrict the usable cores and memory.</p>
+ *
+ * <p>A build is admitted when the cores and memory reserved by running builds plus the
+ * build's own resource hint fit within the limits, free memory covers the hint and the CPU
+ * load is below {@code maxCpuLoad} (system property, default 0.9). A build is always
+ * admitted when nothing is running so the queue keeps moving.</p>
+ */
+public class ResourceMonitor {
+    private static final long MB = 1024L * 1024L;
+    private static final double DEFAULT_MAX_CPU_LOAD = 0.9;
+
+    private final OperatingSystemMXBean osBean;
+    private final File cgroupRoot;
+    private final File meminfoFile;
+
+    /**
+     * Creates a monitor for the current host and cgroup.
+     */
+    public ResourceMonitor() {
+        this(ManagementFactory.getOperatingSystemMXBean(), new File("/sys/fs/cgroup"), new File("/proc/meminfo"));
+    }
+
+    /**
+     * Creates a monitor reading from the given sources.
+     *
+     * @param osBean the operating system bean to read load and memory from
+     * @param cgroupRoot the cgroup file system root
+     * @param meminfoFile the meminfo file to read available memory from
+     */
+    public ResourceMonitor(OperatingSystemMXBean osBean, File cgroupRoot, File meminfoFile) {
+        this.osBean = osBean;
+        this.cgroupRoot = cgroupRoot;
+        this.meminfoFile = meminfoFile;
+    }
+
+    /**
+     * Resources available on the host at one point in time.
+     */
+    public static final class Snapshot {
+        public final double cores;
+        public final double cpuLoad;
+        public final long freeMemoryMb;
+        public final long memoryLimitMb;
+
+        public Snapshot(double cores, double cpuLoad, long freeMemoryMb, long memoryLimitMb) {
+            this.cores = cores;
+            this.cpuLoad = cpuLoad;
+            this.freeMemoryMb = freeMemoryMb;
+            this.memoryLimitMb = memoryLimitMb;
+        }
+
+        public JSONObject toJson() {
+            return new JSONObject()
+                .put("cores", cores)
+                .put("cpuLoad", cpuLoad)
+                .put("freeMemoryMb", freeMemoryMb)
+                .put("memoryLimitMb", memoryLimitMb);
+        }
+    }
+
+    /**
+     * The outcome of an admission check.
+     */
+    public static final class Decision {
+        public final boolean admitted;
+        public final String reason;
+
+        Decision(boolean admitted, String reason) {
+            this.admitted = admitted;
+            this.reason = reason;
+        }
+    }
+
+    /**
+     * Reads the current resources.
+     *
+     * @return a snapshot of cores, CPU load and memory
+     */
+    public Snapshot snapshot() {
+        double cores = osBean.getAvailableProcessors();
+        double cgroupCores = cgroupCores();
+        if (cgroupCores > 0) {
+            cores = Math.min(cores, cgroupCores);
+        }
+
+        double cpuLoad = -1;
+        long freeMemoryMb = Long.MAX_VALUE;
+        long memoryLimitMb = Long.MAX_VALUE;
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            com.sun.management.OperatingSystemMXBean sunBean = (com.sun.management.OperatingSystemMXBean) osBean;
+            cpuLoad = sunBean.getCpuLoad();
+            freeMemoryMb = sunBean.getFreeMemorySize() / MB;
+            memoryLimitMb = sunBean.getTotalMemorySize() / MB;
+        }
+        long availableBytes = memAvailable();
+        if (availableBytes >= 0) {
+            freeMemoryMb = availableBytes / MB;
+        }
+        if (cpuLoad < 0 && osBean.getSystemLoadAverage() >= 0) {
+            cpuLoad = osBean.getSystemLoadAverage() / osBean.getAvailableProcessors();
+        }
+
+        long cgroupLimit = readLong("memory.max", "memory/memory.limit_in_bytes");
+        long cgroupUsage = readLong("memory.current", "memory/memory.usage_in_bytes");
+        if (cgroupLimit > 0 && cgroupLimit / MB < memoryLimitMb) {
+            memoryLimitMb = cgroupLimit / MB;
+            if (cgroupUsage >= 0) {
+                freeMemoryMb = Math.min(freeMemoryMb, (cgroupLimit - cgroupUsage) / MB);
+            }
+        }
+        return new Snapshot(cores, cpuLoad, freeMemoryMb, memoryLimitMb);
+    }
+
+    /**
+     * Decides whether a build with the given hints may start.
+     *
+     * @param snapshot current host resources
+     * @param runningBuilds number of builds currently running
+     * @param reservedCores cores reserved by running builds
+     * @param reservedMemoryMb memory reserved by running builds
+     * @param cores cores the build is expected to use
+     * @param memoryMb memory the build is expected to use
+     * @return the decision and the reason for it
+     */
+    public static Decision decide(Snapshot snapshot, int runningBuilds, double reservedCores, long reservedMemoryMb,
+            double cores, long memoryMb) {
+        if (runningBuilds == 0) {
+            return new Decision(true, "idle");
+        }
+        if (reservedCores + cores > snapshot.cores) {
+            return new Decision(false, "cpu-reserved");
+        }
+        if (reservedMemoryMb + memoryMb > snapshot.memoryLimitMb) {
+            return new Decision(false, "memory-reserved");
+        }
+        if (memoryMb > snapshot.freeMemoryMb) {
+            return new Decision(false, "memory-free");
+        }
+        if (snapshot.cpuLoad >= maxCpuLoad()) {
+            return new Decision(false, "cpu-load");
+        }
+        return new Decision(true, "capacity");
+    }
+
+    private static double maxCpuLoad() {
+        try {
+            return Double.parseDouble(System.getProperty("maxCpuLoad", String.valueOf(DEFAULT_MAX_CPU_LOAD)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_MAX_CPU_LOAD;
+        }
+    }
+
+    private double cgroupCores() {
+        String cpuMax = readString("cpu.max");
+        if (cpuMax != null) {
+            String[] parts = cpuMax.split("\\s+");
+            if (parts.length == 2 && !"max".equals(parts[0])) {
+                try {
+                    return Double.parseDouble(parts[0]) / Double.parseDouble(parts[1]);
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        long quota = readLong(null, "cpu/cpu.cfs_quota_us");
+        long period = readLong(null, "cpu/cpu.cfs_period_us");
+        if (quota > 0 && period > 0) {
+            return (double) quota / period;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads {@code MemAvailable} from the meminfo file.
+     *
+     * @return the available memory in bytes, or -1 if it cannot be read
+     */
+    private long memAvailable() {
+        if (!meminfoFile.isFile()) {
+            return -1;
+        }
+        try {
+            for (String line : Files.readAllLines(meminfoFile.toPath(), StandardCharsets.UTF_8)) {
+                // For example "MemAvailable:   12345678 kB"
+                if (line.startsWith("MemAvailable:")) {
+                    String[] parts = line.substring("MemAvailable:".length()).trim().split("\\s+");
+                    return Long.parseLong(parts[0]) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private long readLong(String v2Name, String v1Name) {
+        for (String name : new String[] {v2Name, v1Name}) {
+            String value = name == null ? null : readString(name);
+            if (value == null) {
+                continue;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private String readString(String name) {
+        File file = new File(cgroupRoot, name);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Runs the test stage of a build, optionally split into parallel shards.
+ *
+ * <p>When a repository configures {@code testShards} greater than 1, the test classes of the
+ * selected test tasks are distributed over that many shards (capped by the available cores)
+ * so that the recorded class durations from {@link TestResultStore} are balanced, using the
+ * longest-processing-time-first rule. Classes without history are assumed to take the average
+ * duration. Shard 0 runs in the repository checkout, every other shard in its own Git
+ * worktree next to it, each as a separate Gradle process filtered with {@code --tests}.</p>
+ *
+ * <p>Test classes are found in the test sources: every top-level, non-abstract class of a
+ * file whose code, outside comments and string literals, uses {@code @Test}, named by the
+ * file's {@code package} declaration and the declared class name. Because this cannot see
+ * everything Gradle's test detection sees, the shards run with an init script that sets
+ * {@code filter.failOnNoMatchingTests = false}, so a filter matching no tests does not fail
+ * the build.</p>
+ */
+public final class ShardedTestRunner {
+    private static final String[] TEST_SOURCE_DIRS = {"src/test/java", "src/test/kotlin", "src/test/groovy"};
+    private static final long DEFAULT_CLASS_MILLIS = 1000;
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)", Pattern.MULTILINE);
+    private static final Pattern CLASS = Pattern.compile("((?:\\b\\w+[ \\t]+)*)\\bclass[ \\t]+(\\w+)");
+    private static final Set<String> NOT_TEST_CLASS_MODIFIERS = Set.of("abstract", "sealed", "enum", "annotation");
+    private static final String INIT_SCRIPT =
+        "allprojects {\n"
+        + "    tasks.withType(Test).configureEach {\n"
+        + "        filter.failOnNoMatchingTests = false\n"
+        + "    }\n"
+        + "}\n";
+    private static File initScript;
+
+    private ShardedTestRunner() {}
+
+    /**
+     * Merged outcome of all shards of a test stage.
+     */
+    public static final class Result {
+        public final CommandRunner.CommandResult commandResult;
+        public final List<File> workDirs;
+        public final JSONObject sharding;
+
+        Result(CommandRunner.CommandResult commandResult, List<File> workDirs, JSONObject sharding) {
+            this.commandResult = commandResult;
+            this.workDirs = workDirs;
+            this.sharding = sharding;
+        }
+    }
+
+    /**
+     * A test class assigned to a shard.
+     */
+    static final class TestClass {
+        final String task;
+        final String className;
+        final long expectedMillis;
+
+        TestClass(String task, String className, long expectedMillis) {
+            this.task = task;
+            this.className = className;
+            this.expectedMillis = expectedMillis;
+        }
+    }
+
+    /**
+     * Runs the selected tests, sharded when the repository is configured for it.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @param repoDir the checked out repository
+     * @param selection the tests selected for this build
+     * @param settings the repository settings
+     * @param timeoutMillis the wall-clock limit of every shard, or {@link CommandRunner#NO_TIMEOUT}
+     * @return the merged result, the directories holding test reports and a sharding summary
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static Result run(String repositoryFullName, File repoDir, TestSelector.Selection selection,
+            RepositorySettings settings, long timeoutMillis) throws IOException, InterruptedException {
+        List<File> workDirs = Collections.singletonList(repoDir);
+        int shardCount = Math.min(settings.testShards(), Runtime.getRuntime().availableProcessors());
+        List<TestClass> classes = shardCount > 1
+            ? discoverTestClasses(repositoryFullName, repoDir, selection)
+            : new ArrayList<TestClass>();
+        shardCount = Math.min(shardCount, classes.size());
+
+        if (shardCount <= 1) {
+            CommandRunner.CommandResult result = CommandRunner.testRepoWithLogs(
+                repoDir.getAbsolutePath(), selection.testTasks(), timeoutMillis
+            );
+            return new Result(result, workDirs, new JSONObject().put("shards", 1));
+        }
+
+        List<List<TestClass>> shards = planShards(classes, shardCount);
+        workDirs = new ArrayList<File>();
+        StringBuilder logs = new StringBuilder();
+        for (int i = 0; i < shards.size(); i++) {
+            File workDir = i == 0 ? repoDir : new File(repoDir.getPath() + "-shard-" + i);
+            if (i > 0) {
+                CommandRunner.CommandResult worktree = CommandRunner.prepareWorktree(
+                    repoDir.getAbsolutePath(), workDir.getAbsolutePath()
+                );
+                logs.append(worktree.output);
+                if (!worktree.success) {
+                    logs.append("Worktree setup failed; running tests unsharded.\n");
+                    CommandRunner.CommandResult result = CommandRunner.testRepoWithLogs(
+                        repoDir.getAbsolutePath(), selection.testTasks(), timeoutMillis
+                    );
+                    return new Result(
+                        new CommandRunner.CommandResult(result.success, logs + result.output, result.timedOut),
+                        Collections.singletonList(repoDir),
+                        new JSONObject().put("shards", 1)
+                    );
+                }
+            }
+            workDirs.add(workDir);
+        }
+
+        String initScriptPath = initScript().getAbsolutePath();
+        ExecutorService executor = Executors.newFixedThreadPool(shards.size());
+        try {
+            List<Future<CommandRunner.CommandResult>> futures = new ArrayList<Future<CommandRunner.CommandResult>>();
+            List<Long> durations = Collections.synchronizedList(new ArrayList<Long>(Collections.nCopies(shards.size(), 0L)));
+            for (int i = 0; i < shards.size(); i++) {
+                final int shard = i;
+                final List<String> arguments = new ArrayList<String>(List.of("--init-script", initScriptPath));
+                arguments.addAll(gradleArguments(shards.get(i)));
+                final String workDir = workDirs.get(i).getAbsolutePath();
+                futures.add(executor.submit(() -> {
+                    long start = System.currentTimeMillis();
+                    CommandRunner.CommandResult result = CommandRunner.gradleWithLogs(workDir, arguments, timeoutMillis);
+                    durations.set(shard, System.currentTimeMillis() - start);
+                    return result;
+                }));
+            }
+
+            boolean success = true;
+            boolean timedOut = false;
+            JSONArray shardSummaries = new JSONArray();
+            for (int i = 0; i < futures.size(); i++) {
+                CommandRunner.CommandResult result = futures.get(i).get();
+                success &= result.success;
+                timedOut |= result.timedOut;
+                logs.append("Shard ").append(i + 1).append('/').append(shards.size()).append(":\n").append(result.output);
+                shardSummaries.put(new JSONObject()
+                    .put("classes", shards.get(i).size())
+                    .put("expectedMillis", expectedMillis(shards.get(i)))
+                    .put("durationMillis", durations.get(i))
+                    .put("success", result.success));
+            }
+            JSONObject sharding = new JSONObject().put("shards", shards.size()).put("shardResults", shardSummaries);
+            return new Result(new CommandRunner.CommandResult(success, logs.toString(), timedOut), workDirs, sharding);
+        } catch (ExecutionException e) {
+            throw new IOException("Test shard failed to run", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Distributes test classes over shards, longest expected duration first, always onto the
+     * shard with the smallest expected total.
+     *
+     * @param classes the test classes to distribute
+     * @param shardCount the number of shards
+     * @return the non-empty shards
+     */
+    static List<List<TestClass>> planShards(List<TestClass> classes, int shardCount) {
+        List<TestClass> sorted = new ArrayList<TestClass>(classes);
+        sorted.sort((a, b) -> Long.compare(b.expectedMillis, a.expectedMillis));
+
+        List<List<TestClass>> shards = new ArrayList<List<TestClass>>();
+        long[] totals = new long[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new ArrayList<TestClass>());
+        }
+        for (TestClass testClass : sorted) {
+            int smallest = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (totals[i] < totals[smallest]) {
+                    smallest = i;
+                }
+            }
+            shards.get(smallest).add(testClass);
+            totals[smallest] += testClass.expectedMillis;
+        }
+        shards.removeIf(List::isEmpty);
+        return shards;
+    }
+
+    /**
+     * Builds the Gradle arguments for one shard, for example
+     * {@code :core:test --tests a.FooTest --tests a.BarTest :api:test --tests b.BazTest}.
+     *
+     * @param shard the classes of the shard
+     * @return the Gradle arguments
+     */
+    static List<String> gradleArguments(List<TestClass> shard) {
+        Map<String, List<String>> classesByTask = new TreeMap<String, List<String>>();
+        for (TestClass testClass : shard) {
+            classesByTask.computeIfAbsent(testClass.task, key -> new ArrayList<String>()).add(testClass.className);
+        }
+
+        List<String> arguments = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> entry : classesByTask.entrySet()) {
+            arguments.add(entry.getKey());
+            for (String className : entry.getValue()) {
+                arguments.add("--tests");
+                arguments.add(className);
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Writes the init script that lets test filters match nothing, once per server process.
+     */
+    private static synchronized File initScript() throws IOException {
+        if (initScript == null || !initScript.isFile()) {
+            File file = File.createTempFile("ci-sharding", ".gradle");
+            file.deleteOnExit();
+            Files.write(file.toPath(), INIT_SCRIPT.getBytes(StandardCharsets.UTF_8));
+            initScript = file;
+        }
+        return initScript;
+    }
+
+    private static long expectedMillis(List<TestClass> shard) {
+        long total = 0;
+        for (TestClass testClass : shard) {
+            total += testClass.expectedMillis;
+        }
+        return total;
+    }
+
+    private static List<TestClass> discoverTestClasses(String repositoryFullName, File repoDir,
+            TestSelector.Selection selection) throws IOException {
+        List<String> modules = new ArrayList<String>();
+        if (selection.full) {
+            modules.add("");
+            modules.addAll(TestSelector.readSubprojects(repoDir));
+        } else {
+            modules.addAll(selection.testedModules);
+        }
+
+        Map<String, String> classTasks = new LinkedHashMap<String, String>();
+        for (String module : modules) {
+            File moduleDir = module.isEmpty() ? repoDir : new File(repoDir, TestSelector.moduleDirectory(module));
+            for (String sourceDir : TEST_SOURCE_DIRS) {
+                for (String className : findTestClasses(new File(moduleDir, sourceDir))) {
+                    classTasks.put(className, module + ":test");
+                }
+            }
+        }
+
+        Map<String, Long> history = TestResultStore.averageClassDurations(repositoryFullName, TestResultStore.DEFAULT_WINDOW);
+        long fallbackMillis = DEFAULT_CLASS_MILLIS;
+        if (!history.isEmpty()) {
+            long total = 0;
+            for (long millis : history.values()) {
+                total += millis;
+            }
+            fallbackMillis = Math.max(1, total / history.size());
+        }
+
+        List<TestClass> classes = new ArrayList<TestClass>();
+        for (Map.Entry<String, String> entry : classTasks.entrySet()) {
+            Long millis = history.get(entry.getValue() + " " + entry.getKey());
+            classes.add(new TestClass(entry.getValue(), entry.getKey(), millis == null ? fallbackMillis : millis));
+        }
+        return classes;
+    }
+
+    private static List<String> findTestClasses(File sourceDir) throws IOException {
+        List<String> classNames = new ArrayList<String>();
+        if (!sourceDir.isDirectory()) {
+            return classNames;
+        }
+
+        try (Stream<Path> files = Files.walk(sourceDir.toPath())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file) && file.getFileName().toString().indexOf('.') >= 0) {
+                    classNames.addAll(testClasses(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+                }
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * Finds the test classes declared in a Java, Kotlin or Groovy source file.
+     *
+     * @param source the file content
+     * @return the fully qualified names of the top-level, non-abstract classes, or none if the
+     *         code does not use {@code @Test}
+     */
+    static List<String> testClasses(String source) {
+        List<String> classNames = new ArrayList<String>();
+        String code = stripCommentsAndStrings(source);
+        if (!code.contains("@Test")) {
+            return classNames;
+        }
+        Matcher packageMatcher = PACKAGE.matcher(code);
+        String prefix = packageMatcher.find() ? packageMatcher.group(1) + "." : "";
+
+        int[] depths = new int[code.length() + 1];
+        for (int i = 0, depth = 0; i < code.length(); i++) {
+            depths[i] = depth;
+            char c = code.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth = Math.max(0, depth - 1);
+            }
+        }
+        Matcher classMatcher = CLASS.matcher(code);
+        while (classMatcher.find()) {
+            if (depths[classMatcher.start(2)] != 0) {
+                continue;
+            }
+            boolean testClass = true;
+            for (String modifier : classMatcher.group(1).trim().split("\\s+")) {
+                testClass &= !NOT_TEST_CLASS_MODIFIERS.contains(modifier);
+            }
+            if (testClass) {
+                classNames.add(prefix + classMatcher.group(2));
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * Replaces comments and string and character literals with spaces.
+     */
+    private static String stripCommentsAndStrings(String source) {
+        StringBuilder code = new StringBuilder(source.length());
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+            int end;
+            if (c == '/' && next == '/') {
+                end = source.indexOf('\n', i);
+            } else if (c == '/' && next == '*') {
+                end = source.indexOf("*/", i + 2);
+                end = end < 0 ? -1 : end + 2;
+            } else if (source.startsWith("\"\"\"", i)) {
+                end = source.indexOf("\"\"\"", i + 3);
+                end = end < 0 ? -1 : end + 3;
+            } else if (c == '"' || c == '\'') {
+                end = i + 1;
+                while (end < source.length() && source.charAt(end) != c && source.charAt(end) != '\n') {
+                    end += source.charAt(end) == '\\' ? 2 : 1;
+                }
+                end = Math.min(source.length(), end + 1);
+            } else {
+                code.append(c);
+                i++;
+                continue;
+            }
+            if (end < 0) {
+                end = source.length();
+            }
+            code.append(" ".repeat(end - i));
+            i = end;
+        }
+        return code.toString();
+    }
+}
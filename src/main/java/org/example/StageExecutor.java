@@ -0,0 +1,230 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Runs the stages of a {@link PipelineDefinition}, each on its own thread as soon as the
+ * stages it needs have succeeded.
+ *
+ * <p>When a stage fails or times out, the stages that need it are skipped. With fail-fast,
+ * every other running stage is interrupted as well, which kills its process tree in
+ * {@link CommandRunner}, and stages that have not started are cancelled. The run returns only
+ * after every stage thread has ended.</p>
+ */
+public final class StageExecutor {
+    private StageExecutor() {}
+
+    /**
+     * Runs one stage.
+     */
+    public interface StageRunner {
+        CommandRunner.CommandResult run(PipelineDefinition.Stage stage) throws IOException, InterruptedException;
+    }
+
+    /**
+     * The outcome of one stage.
+     */
+    public static final class StageResult {
+        public final PipelineDefinition.Stage stage;
+        /** {@code success}, {@code failure}, {@code timedOut}, {@code skipped} or {@code cancelled}. */
+        public volatile String status = "pending";
+        /** When the stage started, relative to the start of the run, or -1 if it never started. */
+        public volatile long startOffsetMillis = -1;
+        public volatile long durationMillis;
+        public volatile CommandRunner.CommandResult result;
+
+        StageResult(PipelineDefinition.Stage stage) {
+            this.stage = stage;
+        }
+
+        /**
+         * Returns whether the stage ran, as opposed to being skipped or cancelled before it started.
+         *
+         * @return true if the stage started
+         */
+        public boolean started() {
+            return startOffsetMillis >= 0;
+        }
+
+        /**
+         * Returns the stage outcome as JSON.
+         *
+         * @return name, dependencies, status and, if it started, start offset and duration
+         */
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject()
+                .put("name", stage.name)
+                .put("needs", new JSONArray(stage.needs))
+                .put("status", status);
+            if (started()) {
+                json.put("startOffsetMillis", startOffsetMillis);
+                json.put("durationMillis", durationMillis);
+            }
+            return json;
+        }
+    }
+
+    /**
+     * Runs all stages of a pipeline.
+     *
+     * @param pipeline the pipeline
+     * @param failFast whether a failed stage cancels all other stages
+     * @param startMillis the time that stage start offsets are relative to
+     * @param runner runs one stage; called concurrently for independent stages
+     * @param onFinished called on the calling thread for every stage once its outcome is known,
+     *        in the order the outcomes become known
+     * @return the outcome of every stage, in dependency order
+     * @throws InterruptedException if the calling thread is interrupted; running stages are
+     *         interrupted and waited for first
+     */
+    public static List<StageResult> run(PipelineDefinition pipeline, boolean failFast, long startMillis,
+            StageRunner runner, Consumer<StageResult> onFinished) throws InterruptedException {
+        Map<String, StageResult> results = new LinkedHashMap<String, StageResult>();
+        for (PipelineDefinition.Stage stage : pipeline.stages()) {
+            results.put(stage.name, new StageResult(stage));
+        }
+        BlockingQueue<StageResult> finished = new LinkedBlockingQueue<StageResult>();
+        Map<String, Thread> running = new LinkedHashMap<String, Thread>();
+        boolean stopping = false;
+
+        startReady(results, running, finished, runner, startMillis);
+        try {
+            while (!running.isEmpty()) {
+                StageResult result = finished.take();
+                running.remove(result.stage.name).join();
+                onFinished.accept(result);
+                if ("success".equals(result.status)) {
+                    if (!stopping) {
+                        startReady(results, running, finished, runner, startMillis);
+                    }
+                    continue;
+                }
+                for (StageResult dependent : results.values()) {
+                    if ("pending".equals(dependent.status) && pipeline.dependsOn(dependent.stage.name, result.stage.name)) {
+                        dependent.status = "skipped";
+                        dependent.result = new CommandRunner.CommandResult(
+                            false, "Skipped because " + result.stage.name + " did not succeed.\n"
+                        );
+                        onFinished.accept(dependent);
+                    }
+                }
+                if (failFast && !stopping && !"cancelled".equals(result.status)) {
+                    stopping = true;
+                    for (Thread thread : running.values()) {
+                        thread.interrupt();
+                    }
+                    for (StageResult pending : results.values()) {
+                        if ("pending".equals(pending.status)) {
+                            pending.status = "cancelled";
+                            pending.result = new CommandRunner.CommandResult(
+                                false, "Cancelled because " + result.stage.name + " did not succeed.\n"
+                            );
+                            onFinished.accept(pending);
+                        }
+                    }
+                } else if (!stopping) {
+                    startReady(results, running, finished, runner, startMillis);
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : running.values()) {
+                thread.interrupt();
+            }
+            for (Thread thread : running.values()) {
+                thread.join();
+            }
+            throw e;
+        }
+        return new ArrayList<StageResult>(results.values());
+    }
+
+    private static void startReady(Map<String, StageResult> results, Map<String, Thread> running,
+            BlockingQueue<StageResult> finished, StageRunner runner, long startMillis) {
+        for (StageResult result : results.values()) {
+            if (!"pending".equals(result.status) || running.containsKey(result.stage.name)) {
+                continue;
+            }
+            boolean ready = true;
+            for (String need : result.stage.needs) {
+                ready &= "success".equals(results.get(need).status);
+            }
+            if (!ready) {
+                continue;
+            }
+            result.status = "running";
+            Thread thread = new Thread(() -> runStage(result, runner, startMillis, finished),
+                "stage-" + result.stage.name);
+            running.put(result.stage.name, thread);
+            thread.start();
+        }
+    }
+
+    private static void runStage(StageResult result, StageRunner runner, long startMillis,
+            BlockingQueue<StageResult> finished) {
+        long stageStartMillis = System.currentTimeMillis();
+        result.startOffsetMillis = stageStartMillis - startMillis;
+        try {
+            CommandRunner.CommandResult commandResult = runner.run(result.stage);
+            result.result = commandResult;
+            result.status = commandResult.timedOut ? "timedOut" : commandResult.success ? "success" : "failure";
+        } catch (InterruptedException e) {
+            result.result = new CommandRunner.CommandResult(false, "Cancelled.\n");
+            result.status = "cancelled";
+        } catch (IOException | RuntimeException e) {
+            result.result = new CommandRunner.CommandResult(false, "Stage failed: " + e + "\n");
+            result.status = "failure";
+        } finally {
+            result.durationMillis = System.currentTimeMillis() - stageStartMillis;
+            finished.add(result);
+        }
+    }
+
+    /**
+     * Finds the chain of stages that determined the pipeline duration: from the stage that
+     * finished last, back through the dependency of each stage that finished last.
+     *
+     * @param results the stage outcomes of one run
+     * @return the stage names, first stage first, and the end of the last one as
+     *         {@code durationMillis}
+     */
+    public static JSONObject criticalPath(List<StageResult> results) {
+        Map<String, StageResult> started = new LinkedHashMap<String, StageResult>();
+        StageResult last = null;
+        for (StageResult result : results) {
+            if (result.started()) {
+                started.put(result.stage.name, result);
+                if (last == null || end(result) > end(last)) {
+                    last = result;
+                }
+            }
+        }
+        List<String> path = new ArrayList<String>();
+        long durationMillis = last == null ? 0 : end(last);
+        for (StageResult step = last; step != null; ) {
+            path.add(0, step.stage.name);
+            StageResult previous = null;
+            for (String need : step.stage.needs) {
+                StageResult candidate = started.get(need);
+                if (candidate != null && (previous == null || end(candidate) > end(previous))) {
+                    previous = candidate;
+                }
+            }
+            step = previous;
+        }
+        return new JSONObject().put("stages", new JSONArray(path)).put("durationMillis", durationMillis);
+    }
+
+    private static long end(StageResult result) {
+        return result.startOffsetMillis + result.durationMillis;
+    }
+}
@@ -0,0 +1,156 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses the JUnit XML reports Gradle writes to {@code build/test-results} into per-test records.
+ */
+public final class TestReportParser {
+    private static final String BUILD_DIR = "build";
+    private static final String RESULTS_DIR = "test-results";
+
+    private TestReportParser() {}
+
+    /**
+     * Result of a single test case.
+     */
+    public static final class TestCaseResult {
+        public final String task;
+        public final String className;
+        public final String name;
+        public final long durationMillis;
+        public final String outcome;
+
+        public TestCaseResult(String task, String className, String name, long durationMillis, String outcome) {
+            this.task = task;
+            this.className = className;
+            this.name = name;
+            this.durationMillis = durationMillis;
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * Parses every report under the repository that was written at or after the given time.
+     *
+     * <p>Reports older than {@code sinceMillis} belong to earlier builds of a reused
+     * workspace (for example modules skipped by {@link TestSelector}) and are ignored.</p>
+     *
+     * @param repoDir the repository root directory
+     * @param sinceMillis only reports modified at or after this epoch time are read
+     * @return the parsed test cases, in report order
+     * @throws IOException if a report cannot be read or parsed
+     */
+    public static List<TestCaseResult> parse(File repoDir, long sinceMillis) throws IOException {
+        List<TestCaseResult> results = new ArrayList<TestCaseResult>();
+        collectReports(repoDir, repoDir, sinceMillis, results);
+        return results;
+    }
+
+    private static void collectReports(File repoDir, File directory, long sinceMillis, List<TestCaseResult> results)
+            throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            if (!child.isDirectory() || child.getName().startsWith(".")) {
+                continue;
+            }
+            if (!BUILD_DIR.equals(child.getName())) {
+                collectReports(repoDir, child, sinceMillis, results);
+                continue;
+            }
+
+            File[] taskDirs = new File(child, RESULTS_DIR).listFiles(File::isDirectory);
+            if (taskDirs == null) {
+                continue;
+            }
+            String module = moduleOf(repoDir, directory);
+            for (File taskDir : taskDirs) {
+                String task = module + ":" + taskDir.getName();
+                File[] reports = taskDir.listFiles((dir, name) -> name.startsWith("TEST-") && name.endsWith(".xml"));
+                if (reports == null) {
+                    continue;
+                }
+                for (File report : reports) {
+                    if (report.lastModified() >= sinceMillis) {
+                        parseReport(report, task, results);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String moduleOf(File repoDir, File moduleDir) {
+        String relative = repoDir.toPath().relativize(moduleDir.toPath()).toString();
+        if (relative.isEmpty()) {
+            return "";
+        }
+        return ":" + relative.replace(File.separatorChar, ':');
+    }
+
+    /**
+     * Parses a single JUnit XML report.
+     *
+     * @param report the report file
+     * @param task the Gradle task path that produced the report
+     * @param results list the parsed test cases are added to
+     * @throws IOException if the report cannot be read or parsed
+     */
+    static void parseReport(File report, String task, List<TestCaseResult> results) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(report);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid test report " + report.getAbsolutePath(), e);
+        }
+
+        NodeList testCases = document.getElementsByTagName("testcase");
+        for (int i = 0; i < testCases.getLength(); i++) {
+            Element testCase = (Element) testCases.item(i);
+            results.add(new TestCaseResult(
+                task,
+                testCase.getAttribute("classname"),
+                testCase.getAttribute("name"),
+                parseDuration(testCase.getAttribute("time")),
+                outcomeOf(testCase)
+            ));
+        }
+    }
+
+    private static long parseDuration(String seconds) {
+        try {
+            return Math.round(Double.parseDouble(seconds) * 1000);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String outcomeOf(Element testCase) {
+        if (testCase.getElementsByTagName("failure").getLength() > 0
+                || testCase.getElementsByTagName("error").getLength() > 0) {
+            return "failed";
+        }
+        if (testCase.getElementsByTagName("skipped").getLength() > 0) {
+            return "skipped";
+        }
+        return "passed";
+    }
+}
@@ -0,0 +1,303 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.example.TestReportParser.TestCaseResult;
+import org.example.util.Utils;
+
+/**
+ * Stores per-test results next to the build history and answers timing and flakiness queries.
+ *
+ * <p>Each build appends one line to {@code data/repositories/<owner>/<repo>/test-results.jsonl}.
+ * Tests are stored as compact arrays {@code [task, class, name, millis, outcome]} where the
+ * outcome is {@code p} (passed), {@code f} (failed) or {@code s} (skipped), so appending never
+ * rewrites earlier builds.</p>
+ */
+public final class TestResultStore {
+    private static final File REPOSITORIES_DIR = new File(Utils.dataDir(), "repositories");
+    private static final String RESULTS_FILENAME = "test-results.jsonl";
+    private static final int READ_CHUNK_BYTES = 64 * 1024;
+    /** Number of most recent builds that timing and flakiness queries look at by default. */
+    public static final int DEFAULT_WINDOW = 50;
+
+    private TestResultStore() {}
+
+    /**
+     * Appends the test results of one build.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @param buildId the build ID
+     * @param commit the built commit SHA
+     * @param results the parsed test cases
+     * @throws IOException if writing the results file fails
+     */
+    public static synchronized void appendResults(String repositoryFullName, String buildId, String commit,
+            List<TestCaseResult> results) throws IOException {
+        JSONArray tests = new JSONArray();
+        for (TestCaseResult result : results) {
+            tests.put(new JSONArray()
+                .put(result.task)
+                .put(result.className)
+                .put(result.name)
+                .put(result.durationMillis)
+                .put(result.outcome.substring(0, 1)));
+        }
+        JSONObject line = new JSONObject();
+        line.put("build", buildId);
+        line.put("commit", commit == null ? "" : commit);
+        line.put("tests", tests);
+
+        File resultsFile = resultsFile(repositoryFullName);
+        Files.createDirectories(resultsFile.getParentFile().toPath());
+        Files.write(
+            resultsFile.toPath(),
+            (line.toString() + "\n").getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND
+        );
+    }
+
+    /**
+     * Lists the slowest tests of a repository by average duration.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @param limit maximum number of tests to return
+     * @param window number of most recent builds to consider
+     * @return test entries with average and maximum duration, slowest first
+     * @throws IOException if reading the results file fails
+     */
+    public static synchronized JSONArray slowestTests(String repositoryFullName, int limit, int window) throws IOException {
+        Map<String, TestHistory> histories = loadHistories(repositoryFullName, window);
+        List<TestHistory> sorted = new ArrayList<TestHistory>(histories.values());
+        sorted.sort((a, b) -> Long.compare(b.averageMillis(), a.averageMillis()));
+
+        JSONArray output = new JSONArray();
+        for (TestHistory history : sorted.subList(0, Math.min(limit, sorted.size()))) {
+            JSONObject entry = history.toJson();
+            entry.put("averageMillis", history.averageMillis());
+            entry.put("maxMillis", history.maxMillis);
+            output.put(entry);
+        }
+        return output;
+    }
+
+    /**
+     * Lists tests that both passed and failed recently.
+     *
+     * <p>A test is reported as flaky when it passed and failed on the same commit, or when its
+     * outcome changed at least twice within the window.</p>
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @param window number of most recent builds to consider
+     * @return flaky test entries, most outcome changes first
+     * @throws IOException if reading the results file fails
+     */
+    public static synchronized JSONArray flakyTests(String repositoryFullName, int window) throws IOException {
+        Map<String, TestHistory> histories = loadHistories(repositoryFullName, window);
+        List<TestHistory> flaky = new ArrayList<TestHistory>();
+        for (TestHistory history : histories.values()) {
+            if (history.mixedOnSameCommit || history.flips >= 2) {
+                flaky.add(history);
+            }
+        }
+        flaky.sort((a, b) -> Integer.compare(b.flips, a.flips));
+
+        JSONArray output = new JSONArray();
+        for (TestHistory history : flaky) {
+            JSONObject entry = history.toJson();
+            entry.put("runs", history.runs);
+            entry.put("failures", history.failures);
+            entry.put("outcomeChanges", history.flips);
+            entry.put("failedAndPassedOnSameCommit", history.mixedOnSameCommit);
+            output.put(entry);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the average duration per test class, keyed by {@code task + " " + className}.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @param window number of most recent builds to consider
+     * @return average class durations in milliseconds
+     * @throws IOException if reading the results file fails
+     */
+    public static synchronized Map<String, Long> averageClassDurations(String repositoryFullName, int window)
+            throws IOException {
+        Map<String, long[]> totals = new HashMap<String, long[]>();
+        for (JSONObject build : readRecentBuilds(repositoryFullName, window)) {
+            Map<String, Long> perBuild = new HashMap<String, Long>();
+            JSONArray tests = build.getJSONArray("tests");
+            for (int i = 0; i < tests.length(); i++) {
+                JSONArray test = tests.getJSONArray(i);
+                perBuild.merge(test.getString(0) + " " + test.getString(1), test.getLong(3), Long::sum);
+            }
+            for (Map.Entry<String, Long> entry : perBuild.entrySet()) {
+                long[] total = totals.computeIfAbsent(entry.getKey(), key -> new long[2]);
+                total[0] += entry.getValue();
+                total[1]++;
+            }
+        }
+
+        Map<String, Long> averages = new HashMap<String, Long>();
+        for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+            averages.put(entry.getKey(), entry.getValue()[0] / entry.getValue()[1]);
+        }
+        return averages;
+    }
+
+    private static Map<String, TestHistory> loadHistories(String repositoryFullName, int window) throws IOException {
+        Map<String, TestHistory> histories = new LinkedHashMap<String, TestHistory>();
+        for (JSONObject build : readRecentBuilds(repositoryFullName, window)) {
+            String commit = build.optString("commit", "");
+            JSONArray tests = build.getJSONArray("tests");
+            for (int i = 0; i < tests.length(); i++) {
+                JSONArray test = tests.getJSONArray(i);
+                String key = test.getString(0) + " " + test.getString(1) + " " + test.getString(2);
+                TestHistory history = histories.computeIfAbsent(
+                    key, k -> new TestHistory(test.getString(0), test.getString(1), test.getString(2))
+                );
+                history.record(commit, test.getLong(3), test.getString(4));
+            }
+        }
+        return histories;
+    }
+
+    private static List<JSONObject> readRecentBuilds(String repositoryFullName, int window) throws IOException {
+        List<JSONObject> builds = new ArrayList<JSONObject>();
+        File resultsFile = resultsFile(repositoryFullName);
+        if (!resultsFile.isFile()) {
+            return builds;
+        }
+
+        if (window <= 0) {
+            return builds;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(resultsFile, "r")) {
+            // Only the lines from this offset on are read, however long the file has grown
+            file.seek(startOfLastLines(file, window));
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Channels.newInputStream(file.getChannel()), StandardCharsets.UTF_8)
+            );
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    builds.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    throw new IOException("Invalid JSON in " + resultsFile.getAbsolutePath(), e);
+                }
+            }
+        }
+        return builds;
+    }
+
+    /**
+     * Scans a file backwards from its end for the start of its last non-blank lines.
+     *
+     * @param file the file to scan
+     * @param count the number of non-blank lines to find
+     * @return the offset of the first of those lines, or 0 if the file has no more lines
+     * @throws IOException if reading the file fails
+     */
+    private static long startOfLastLines(RandomAccessFile file, int count) throws IOException {
+        byte[] chunk = new byte[READ_CHUNK_BYTES];
+        long end = file.length();
+        int lines = 0;
+        boolean content = false;
+        while (end > 0) {
+            int size = (int) Math.min(chunk.length, end);
+            file.seek(end - size);
+            file.readFully(chunk, 0, size);
+            for (int i = size - 1; i >= 0; i--) {
+                byte b = chunk[i];
+                if (b == '\n') {
+                    if (content && ++lines == count) {
+                        return end - size + i + 1;
+                    }
+                    content = false;
+                } else if (b != ' ' && b != '\t' && b != '\r') {
+                    content = true;
+                }
+            }
+            end -= size;
+        }
+        return 0;
+    }
+
+    private static File resultsFile(String repositoryFullName) {
+        return new File(new File(REPOSITORIES_DIR, repositoryFullName), RESULTS_FILENAME);
+    }
+
+    private static final class TestHistory {
+        final String task;
+        final String className;
+        final String name;
+        final Map<String, String> outcomeByCommit = new HashMap<String, String>();
+        int runs;
+        int failures;
+        int flips;
+        long totalMillis;
+        long maxMillis;
+        boolean mixedOnSameCommit;
+        String lastOutcome;
+
+        TestHistory(String task, String className, String name) {
+            this.task = task;
+            this.className = className;
+            this.name = name;
+        }
+
+        void record(String commit, long millis, String outcome) {
+            if ("s".equals(outcome)) {
+                return;
+            }
+            runs++;
+            totalMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+            if ("f".equals(outcome)) {
+                failures++;
+            }
+            if (lastOutcome != null && !lastOutcome.equals(outcome)) {
+                flips++;
+            }
+            lastOutcome = outcome;
+
+            String previous = outcomeByCommit.put(commit, outcome);
+            if (!commit.isEmpty() && previous != null && !previous.equals(outcome)) {
+                mixedOnSameCommit = true;
+            }
+        }
+
+        long averageMillis() {
+            return runs == 0 ? 0 : totalMillis / runs;
+        }
+
+        JSONObject toJson() {
+            return new JSONObject()
+                .put("task", task)
+                .put("className", className)
+                .put("name", name);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Decides which Gradle test tasks a build has to run.
+ *
+ * <p>By default every build runs the full {@code test} task. When the system property
+ * {@code testSelection} is set to {@code affected}, the pushed commit is diffed against the
+ * last green build of the same branch and only the subprojects containing changed files,
+ * plus every subproject depending on them, are tested. A full run is still made when:</p>
+ * <ul>
+ *   <li>the branch has no earlier green build or the diff cannot be computed,</li>
+ *   <li>a changed path is not inside any subproject (root build scripts, {@code gradle/}, ...),</li>
+ *   <li>{@code fullTestInterval} (default 10) builds have passed since the last full run.</li>
+ * </ul>
+ *
+ * <p>Subprojects are read from {@code include} statements in the settings script and are
+ * assumed to live in the default directory for their path. Dependencies are found from
+ * {@code project(':name')} references in each subproject's build script.</p>
+ */
+public final class TestSelector {
+    private static final String[] SETTINGS_FILES = {"settings.gradle", "settings.gradle.kts"};
+    private static final String[] BUILD_FILES = {"build.gradle", "build.gradle.kts"};
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile("include\\b\\s*(\\([^)]*\\)|[^\\n]*)");
+    private static final Pattern QUOTED_PATTERN = Pattern.compile("['\"]([^'\"]+)['\"]");
+    private static final Pattern PROJECT_DEPENDENCY_PATTERN =
+        Pattern.compile("project\\(\\s*(?:path\\s*[:=]\\s*)?['\"](:[^'\"]+)['\"]");
+    private static final int DEFAULT_FULL_TEST_INTERVAL = 10;
+
+    private TestSelector() {}
+
+    /**
+     * The outcome of test selection for one build.
+     */
+    public static final class Selection {
+        public final boolean full;
+        public final String reason;
+        public final String baseCommit;
+        public final List<String> testedModules;
+        public final List<String> skippedModules;
+
+        Selection(boolean full, String reason, String baseCommit, List<String> testedModules, List<String> skippedModules) {
+            this.full = full;
+            this.reason = reason;
+            this.baseCommit = baseCommit;
+            this.testedModules = testedModules;
+            this.skippedModules = skippedModules;
+        }
+
+        static Selection full(String reason, String baseCommit) {
+            return new Selection(true, reason, baseCommit, new ArrayList<String>(), new ArrayList<String>());
+        }
+
+        /**
+         * Returns the Gradle tasks that run the selected tests.
+         *
+         * @return {@code test} for a full run, otherwise one {@code :module:test} per tested module
+         */
+        public List<String> testTasks() {
+            List<String> tasks = new ArrayList<String>();
+            if (full) {
+                tasks.add("test");
+                return tasks;
+            }
+            for (String module : testedModules) {
+                tasks.add(module + ":test");
+            }
+            return tasks;
+        }
+
+        /**
+         * Serializes the selection for the build record.
+         *
+         * @return JSON object describing the selection
+         */
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("mode", full ? "full" : "affected");
+            json.put("reason", reason);
+            json.put("baseCommit", baseCommit == null ? "" : baseCommit);
+            json.put("testedModules", new JSONArray(testedModules));
+            json.put("skippedModules", new JSONArray(skippedModules));
+            return json;
+        }
+    }
+
+    /**
+     * Selects the tests to run for a pushed commit.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @param branch the pushed branch
+     * @param commit the pushed commit SHA
+     * @param repoDir the checked out repository
+     * @return the selection to run and record
+     * @throws IOException if reading build history or the repository fails
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public static Selection select(String repositoryFullName, String branch, String commit, File repoDir)
+            throws IOException, InterruptedException {
+        if (!"affected".equalsIgnoreCase(System.getProperty("testSelection", "full"))) {
+            return Selection.full("Affected test selection disabled", null);
+        }
+        if (commit == null || commit.isEmpty()) {
+            return Selection.full("No pushed commit in payload", null);
+        }
+
+        JSONObject lastGreen = BuildHistoryStore.getLastSuccessfulBuild(repositoryFullName, branch);
+        if (lastGreen == null || lastGreen.optString("commit", "").isEmpty()) {
+            return Selection.full("No earlier successful build on branch", null);
+        }
+        String baseCommit = lastGreen.getString("commit");
+
+        if (selectiveBuildsSinceFullRun(repositoryFullName, branch) + 1 >= fullTestInterval()) {
+            return Selection.full("Periodic full test run", baseCommit);
+        }
+
+        CommandRunner.CommandResult diff = CommandRunner.changedFiles(repoDir.getAbsolutePath(), baseCommit, commit);
+        if (!diff.success) {
+            return Selection.full("Could not diff against " + baseCommit, baseCommit);
+        }
+        List<String> changedPaths = new ArrayList<String>();
+        for (String line : diff.output.split("\n")) {
+            if (!line.isBlank()) {
+                changedPaths.add(line.trim());
+            }
+        }
+        return selectForChanges(repoDir, changedPaths, baseCommit);
+    }
+
+    /**
+     * Maps changed paths onto subprojects and their dependents.
+     *
+     * @param repoDir the checked out repository
+     * @param changedPaths repository-relative paths that changed
+     * @param baseCommit the commit the paths were diffed against
+     * @return the selection covering all affected subprojects
+     * @throws IOException if reading the Gradle scripts fails
+     */
+    static Selection selectForChanges(File repoDir, List<String> changedPaths, String baseCommit) throws IOException {
+        Set<String> modules = readSubprojects(repoDir);
+        if (modules.isEmpty()) {
+            return Selection.full("Repository has no subprojects", baseCommit);
+        }
+
+        Set<String> changedModules = new TreeSet<String>();
+        for (String path : changedPaths) {
+            String module = owningModule(modules, path);
+            if (module == null) {
+                return Selection.full("Change outside subprojects: " + path, baseCommit);
+            }
+            changedModules.add(module);
+        }
+
+        Map<String, Set<String>> dependents = readDependents(repoDir, modules);
+        Set<String> tested = new TreeSet<String>();
+        Deque<String> pending = new ArrayDeque<String>(changedModules);
+        while (!pending.isEmpty()) {
+            String module = pending.poll();
+            if (tested.add(module)) {
+                pending.addAll(dependents.getOrDefault(module, new TreeSet<String>()));
+            }
+        }
+
+        List<String> skipped = new ArrayList<String>();
+        for (String module : new TreeSet<String>(modules)) {
+            if (!tested.contains(module)) {
+                skipped.add(module);
+            }
+        }
+        return new Selection(false, "Changed modules: " + changedModules, baseCommit, new ArrayList<String>(tested), skipped);
+    }
+
+    private static int fullTestInterval() {
+        try {
+            return Integer.parseInt(System.getProperty("fullTestInterval", String.valueOf(DEFAULT_FULL_TEST_INTERVAL)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_FULL_TEST_INTERVAL;
+        }
+    }
+
+    private static int selectiveBuildsSinceFullRun(String repositoryFullName, String branch) throws IOException {
+        List<JSONObject> builds = BuildHistoryStore.listBuilds(repositoryFullName);
+        int count = 0;
+        for (int i = builds.size() - 1; i >= 0; i--) {
+            JSONObject build = builds.get(i);
+            if (!branch.equals(build.optString("branch", ""))) {
+                continue;
+            }
+            JSONObject selection = build.optJSONObject("testSelection");
+            if (selection == null || !"affected".equals(selection.optString("mode"))) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private static String owningModule(Set<String> modules, String path) {
+        String owner = null;
+        int ownerLength = -1;
+        for (String module : modules) {
+            String dir = moduleDirectory(module) + "/";
+            if (path.startsWith(dir) && dir.length() > ownerLength) {
+                owner = module;
+                ownerLength = dir.length();
+            }
+        }
+        return owner;
+    }
+
+    static String moduleDirectory(String module) {
+        return module.substring(1).replace(':', '/');
+    }
+
+    static Set<String> readSubprojects(File repoDir) throws IOException {
+        Set<String> modules = new LinkedHashSet<String>();
+        for (String name : SETTINGS_FILES) {
+            File settings = new File(repoDir, name);
+            if (!settings.isFile()) {
+                continue;
+            }
+            Matcher include = INCLUDE_PATTERN.matcher(read(settings));
+            while (include.find()) {
+                Matcher quoted = QUOTED_PATTERN.matcher(include.group(1));
+                while (quoted.find()) {
+                    String path = quoted.group(1);
+                    modules.add(path.startsWith(":") ? path : ":" + path);
+                }
+            }
+        }
+        return modules;
+    }
+
+    private static Map<String, Set<String>> readDependents(File repoDir, Set<String> modules) throws IOException {
+        Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+        for (String module : modules) {
+            for (String name : BUILD_FILES) {
+                File buildFile = new File(new File(repoDir, moduleDirectory(module)), name);
+                if (!buildFile.isFile()) {
+                    continue;
+                }
+                Matcher dependency = PROJECT_DEPENDENCY_PATTERN.matcher(read(buildFile));
+                while (dependency.find()) {
+                    dependents.computeIfAbsent(dependency.group(1), key -> new TreeSet<String>()).add(module);
+                }
+            }
+        }
+        return dependents;
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
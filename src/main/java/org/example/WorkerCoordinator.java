@@ -0,0 +1,445 @@
+package org.example;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Hands queued builds to remote {@link BuildWorker} processes when the server runs with
+ * {@code mode=coordinator}.
+ *
+ * <p>The coordinator keeps accepting webhooks, queueing jobs on the {@link BuildScheduler} and
+ * storing build records. Instead of running the pipeline itself, the scheduler's runner
+ * ({@link #run}) parks each admitted job here until a worker claims it, and waits until the
+ * worker sends back the record. The scheduler admits jobs against the summed resources that
+ * live workers report in their heartbeats ({@link #monitor}).</p>
+ *
+ * <p>Workers that miss heartbeats for {@code workerTimeoutSeconds} (system property, default
+ * 30) are dropped, and their builds are queued again at the front, at most
+ * {@value #MAX_ATTEMPTS} times before the build is recorded as interrupted. A worker that
+ * comes back is told in its next heartbeat to cancel the builds it no longer owns, and a
+ * record sent for such a build is rejected. Builds that a live worker does not report as
+ * running {@value #CLAIM_GRACE_MILLIS} ms after claiming them, because the claim response was
+ * lost or the worker dropped the build, are queued again the same way.</p>
+ */
+public class WorkerCoordinator {
+    static final int MAX_ATTEMPTS = 3;
+    static final long CLAIM_GRACE_MILLIS = 10000;
+    private static final long DEFAULT_WORKER_TIMEOUT_SECONDS = 30;
+
+    private final long workerTimeoutMillis;
+    private final Deque<Assignment> pending = new ArrayDeque<Assignment>();
+    private final Map<String, Assignment> assignments = new HashMap<String, Assignment>();
+    private final Map<String, Worker> workers = new TreeMap<String, Worker>();
+    private long claims;
+    private long completions;
+    private long reassignments;
+    private long rejectedCompletions;
+
+    /**
+     * A worker that has sent a heartbeat or claim recently.
+     */
+    private static final class Worker {
+        long lastSeenMillis;
+        int slots;
+        ResourceMonitor.Snapshot snapshot;
+    }
+
+    /**
+     * A job handed to the coordinator by the scheduler, from parking until its record is stored.
+     */
+    private static final class Assignment {
+        final BuildJob job;
+        String workerId;
+        long claimedAtMillis;
+        int attempts;
+        boolean completing;
+        boolean finished;
+
+        Assignment(BuildJob job) {
+            this.job = job;
+        }
+    }
+
+    /**
+     * Creates a coordinator and starts the thread that drops silent workers.
+     *
+     * @param workerTimeoutMillis how long a worker may go without a heartbeat
+     */
+    public WorkerCoordinator(long workerTimeoutMillis) {
+        this.workerTimeoutMillis = workerTimeoutMillis;
+        Thread reaper = new Thread(this::reapLoop, "worker-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    /**
+     * Reads the worker timeout from the {@code workerTimeoutSeconds} system property.
+     *
+     * @return the timeout in milliseconds
+     */
+    public static long workerTimeoutMillis() {
+        return Long.getLong("workerTimeoutSeconds", DEFAULT_WORKER_TIMEOUT_SECONDS) * 1000;
+    }
+
+    /**
+     * Runs a job on a worker: parks it until one claims it and blocks until its record is
+     * stored. Used as the {@link BuildScheduler} runner in coordinator mode.
+     *
+     * @param job the admitted job
+     */
+    public void run(BuildJob job) {
+        Assignment assignment = new Assignment(job);
+        synchronized (this) {
+            assignments.put(job.id, assignment);
+            pending.addLast(assignment);
+            try {
+                while (!assignment.finished) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.remove(assignment);
+                assignments.remove(job.id);
+            }
+        }
+    }
+
+    /**
+     * Hands the oldest parked job to a worker.
+     *
+     * @param workerId the claiming worker
+     * @return the job entry and repository settings, or null if nothing is waiting
+     * @throws IOException if the repository settings cannot be read
+     */
+    public JSONObject claim(String workerId) throws IOException {
+        Assignment assignment;
+        synchronized (this) {
+            seen(workerId);
+            assignment = pending.pollFirst();
+            if (assignment == null) {
+                return null;
+            }
+            assignment.workerId = workerId;
+            assignment.claimedAtMillis = System.currentTimeMillis();
+            assignment.attempts++;
+            claims++;
+        }
+        BuildEventBus.shared().publish("assigned", assignment.job,
+            new JSONObject().put("worker", workerId).put("attempt", assignment.attempts));
+        RepositorySettings settings;
+        try {
+            settings = RepositorySettings.load(assignment.job.repository);
+        } catch (IOException e) {
+            synchronized (this) {
+                release(assignment);
+            }
+            throw e;
+        }
+        return new JSONObject()
+            .put("job", assignment.job.toJournalEntry())
+            .put("settings", settings.toJson())
+            .put("attempt", assignment.attempts);
+    }
+
+    /**
+     * Records a heartbeat and queues again the builds assigned to the worker that it has not
+     * reported as running since {@value #CLAIM_GRACE_MILLIS} ms after claiming them.
+     *
+     * @param workerId the worker
+     * @param heartbeat the worker's {@code slots}, resource {@code snapshot} and the IDs of
+     *        the builds it is {@code running}
+     * @return the IDs of the running builds the worker must cancel, under {@code cancel}
+     */
+    public JSONObject heartbeat(String workerId, JSONObject heartbeat) {
+        return heartbeat(workerId, heartbeat, System.currentTimeMillis());
+    }
+
+    JSONObject heartbeat(String workerId, JSONObject heartbeat, long now) {
+        JSONArray cancel = new JSONArray();
+        List<Assignment> lost = new ArrayList<Assignment>();
+        synchronized (this) {
+            Worker worker = seen(workerId);
+            worker.slots = heartbeat.optInt("slots", 1);
+            JSONObject snapshot = heartbeat.optJSONObject("snapshot");
+            if (snapshot != null) {
+                worker.snapshot = new ResourceMonitor.Snapshot(
+                    snapshot.optDouble("cores", 0),
+                    snapshot.optDouble("cpuLoad", -1),
+                    snapshot.optLong("freeMemoryMb", 0),
+                    snapshot.optLong("memoryLimitMb", 0)
+                );
+            }
+            JSONArray running = heartbeat.optJSONArray("running");
+            Set<String> reported = new HashSet<String>();
+            for (int i = 0; running != null && i < running.length(); i++) {
+                String buildId = running.optString(i);
+                reported.add(buildId);
+                Assignment assignment = assignments.get(buildId);
+                if (assignment == null || !workerId.equals(assignment.workerId)) {
+                    cancel.put(buildId);
+                }
+            }
+            for (Assignment assignment : new ArrayList<Assignment>(assignments.values())) {
+                if (workerId.equals(assignment.workerId) && !assignment.completing
+                        && !reported.contains(assignment.job.id) && now - assignment.claimedAtMillis > CLAIM_GRACE_MILLIS) {
+                    System.out.println("Worker " + workerId + " is not running build " + assignment.job.id
+                        + "; reassigning it");
+                    reassign(assignment, lost);
+                }
+            }
+        }
+        storeLost(lost);
+        return new JSONObject().put("cancel", cancel);
+    }
+
+    /**
+     * Publishes part of a build log sent by the worker running the build.
+     *
+     * @param workerId the worker
+     * @param buildId the build
+     * @param text the log text
+     * @return false if the build is not assigned to this worker
+     */
+    public boolean log(String workerId, String buildId, String text) {
+        Assignment assignment;
+        synchronized (this) {
+            seen(workerId);
+            if (!ownedBy(buildId, workerId)) {
+                return false;
+            }
+            assignment = assignments.get(buildId);
+        }
+        BuildEventBus.shared().publish("log", assignment.job,
+            new JSONObject().put("worker", workerId).put("text", text));
+        return true;
+    }
+
+    /**
+     * Stores the record of a build finished by a worker and releases the waiting runner.
+     *
+     * @param workerId the worker
+     * @param buildId the build
+     * @param record the build record
+     * @return false if the build is not assigned to this worker, for example because it was
+     *         reassigned after the worker missed its heartbeats
+     * @throws IOException if the record cannot be stored; the worker may send it again
+     */
+    public boolean complete(String workerId, String buildId, JSONObject record) throws IOException {
+        Assignment assignment;
+        synchronized (this) {
+            seen(workerId);
+            if (!ownedBy(buildId, workerId)) {
+                rejectedCompletions++;
+                return false;
+            }
+            assignment = assignments.get(buildId);
+            assignment.completing = true;
+        }
+        record.put("worker", workerId);
+        try {
+            BuildHistoryStore.appendBuild(assignment.job.repository, record);
+        } catch (IOException e) {
+            synchronized (this) {
+                assignment.completing = false;
+            }
+            throw e;
+        }
+        assignment.job.setRecord(record);
+        synchronized (this) {
+            completions++;
+            finish(assignment);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a resource monitor reporting the summed resources of the live workers.
+     *
+     * @return the monitor for the {@link BuildScheduler}
+     */
+    public ResourceMonitor monitor() {
+        return new ResourceMonitor() {
+            @Override
+            public Snapshot snapshot() {
+                return capacity();
+            }
+        };
+    }
+
+    synchronized ResourceMonitor.Snapshot capacity() {
+        double cores = 0;
+        double weightedLoad = 0;
+        double loadCores = 0;
+        long freeMemoryMb = 0;
+        long memoryLimitMb = 0;
+        for (Worker worker : workers.values()) {
+            if (worker.snapshot == null) {
+                continue;
+            }
+            cores += worker.snapshot.cores;
+            freeMemoryMb = saturatedAdd(freeMemoryMb, worker.snapshot.freeMemoryMb);
+            memoryLimitMb = saturatedAdd(memoryLimitMb, worker.snapshot.memoryLimitMb);
+            if (worker.snapshot.cpuLoad >= 0) {
+                weightedLoad += worker.snapshot.cpuLoad * worker.snapshot.cores;
+                loadCores += worker.snapshot.cores;
+            }
+        }
+        return new ResourceMonitor.Snapshot(cores, loadCores > 0 ? weightedLoad / loadCores : -1, freeMemoryMb,
+            memoryLimitMb);
+    }
+
+    /**
+     * Adds memory sizes, where {@link Long#MAX_VALUE} stands for a host without a known limit.
+     */
+    private static long saturatedAdd(long a, long b) {
+        return a > Long.MAX_VALUE - b ? Long.MAX_VALUE : a + b;
+    }
+
+    /**
+     * Returns worker and assignment metrics.
+     *
+     * @return JSON object with the live workers, parked and assigned builds and counters
+     */
+    public synchronized JSONObject metrics() {
+        long now = System.currentTimeMillis();
+        Map<String, Integer> running = new HashMap<String, Integer>();
+        for (Assignment assignment : assignments.values()) {
+            if (assignment.workerId != null) {
+                running.merge(assignment.workerId, 1, Integer::sum);
+            }
+        }
+        JSONObject workerMetrics = new JSONObject();
+        for (Map.Entry<String, Worker> entry : workers.entrySet()) {
+            Worker worker = entry.getValue();
+            JSONObject metrics = new JSONObject()
+                .put("lastSeenMillisAgo", now - worker.lastSeenMillis)
+                .put("slots", worker.slots)
+                .put("running", running.getOrDefault(entry.getKey(), 0));
+            if (worker.snapshot != null) {
+                metrics.put("host", worker.snapshot.toJson());
+            }
+            workerMetrics.put(entry.getKey(), metrics);
+        }
+        return new JSONObject()
+            .put("workers", workerMetrics)
+            .put("waiting", pending.size())
+            .put("assigned", assignments.size() - pending.size())
+            .put("claims", claims)
+            .put("completions", completions)
+            .put("reassignments", reassignments)
+            .put("rejectedCompletions", rejectedCompletions);
+    }
+
+    /**
+     * Drops workers whose last heartbeat is older than the timeout and queues their builds again.
+     *
+     * @param now the current time in milliseconds
+     */
+    void reap(long now) {
+        List<Assignment> lost = new ArrayList<Assignment>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Worker>> iterator = workers.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Worker> entry = iterator.next();
+                if (now - entry.getValue().lastSeenMillis <= workerTimeoutMillis) {
+                    continue;
+                }
+                iterator.remove();
+                System.out.println("Worker " + entry.getKey() + " missed its heartbeats; reassigning its builds");
+                for (Assignment assignment : assignments.values()) {
+                    if (entry.getKey().equals(assignment.workerId) && !assignment.completing) {
+                        reassign(assignment, lost);
+                    }
+                }
+            }
+        }
+        storeLost(lost);
+    }
+
+    /**
+     * Takes an assignment away from its worker: queues it again, or adds it to {@code lost}
+     * once it has used up its attempts.
+     */
+    private void reassign(Assignment assignment, List<Assignment> lost) {
+        String workerId = assignment.workerId;
+        if (assignment.attempts >= MAX_ATTEMPTS) {
+            assignment.workerId = null;
+            assignment.completing = true;
+            lost.add(assignment);
+        } else {
+            release(assignment);
+            reassignments++;
+            BuildEventBus.shared().publish("reassigned", assignment.job,
+                new JSONObject().put("worker", workerId).put("attempt", assignment.attempts));
+        }
+    }
+
+    /**
+     * Stores interrupted records for builds that were lost on too many workers.
+     */
+    private void storeLost(List<Assignment> lost) {
+        for (Assignment assignment : lost) {
+            try {
+                assignment.job.setRecord(BuildPipeline.recordInterrupted(assignment.job,
+                    "Build lost on " + assignment.attempts + " workers"));
+            } catch (IOException e) {
+                System.out.println("Failed to store record of lost build " + assignment.job.id);
+            }
+            synchronized (this) {
+                finish(assignment);
+            }
+        }
+    }
+
+    private void reapLoop() {
+        long interval = Math.max(100, workerTimeoutMillis / 3);
+        try {
+            while (true) {
+                Thread.sleep(interval);
+                reap(System.currentTimeMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Worker seen(String workerId) {
+        Worker worker = workers.computeIfAbsent(workerId, id -> {
+            System.out.println("Worker " + id + " connected");
+            return new Worker();
+        });
+        worker.lastSeenMillis = System.currentTimeMillis();
+        return worker;
+    }
+
+    private boolean ownedBy(String buildId, String workerId) {
+        Assignment assignment = assignments.get(buildId);
+        return assignment != null && workerId.equals(assignment.workerId) && !assignment.completing;
+    }
+
+    /**
+     * Puts an assignment back at the front of the queue.
+     */
+    private void release(Assignment assignment) {
+        assignment.workerId = null;
+        pending.addFirst(assignment);
+    }
+
+    private void finish(Assignment assignment) {
+        assignments.remove(assignment.job.id);
+        assignment.finished = true;
+        notifyAll();
+    }
+}
@@ -0,0 +1,464 @@
+package org.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.example.util.Utils;
+
+/**
+ * Keeps a disk-quota-bounded pool of checked out repositories that builds reuse.
+ *
+ * <p>Every repository has one or more workspace slots: a directory named like
+ * {@link Utils#createHashedDir} and, while another build of the same repository holds it,
+ * additional {@code -slot-<n>} directories. A build leases a slot for its whole pipeline; a
+ * slot that already holds a clone is only fetched and reset, not cloned again. Test shard
+ * and pipeline stage worktrees next to a slot and the repository's bare mirror count towards
+ * its size.</p>
+ *
+ * <p>After each build the slot's size is measured and, while the pool exceeds
+ * {@code workspaceQuotaMb} (system property, default 10240), all slots of the
+ * least-recently-built repository without a running build are deleted. The index of slots,
+ * clone URLs and build counts is kept in {@code data/workspaces.json}, so
+ * {@link #prewarm(int)} can clone the most frequently built repositories again after the
+ * workspaces were lost, for example after a reboot cleared {@code /tmp}.</p>
+ *
+ * <p>The {@code workspaceRoot} system property moves the pool, and its index, away from
+ * {@code /tmp/ci}, so several {@link BuildWorker} processes can share one host.</p>
+ */
+public class WorkspaceManager {
+    private static final long DEFAULT_QUOTA_MB = 10240;
+    private static final String WORKSPACE_ROOT = System.getProperty("workspaceRoot");
+    private static final WorkspaceManager SHARED = WORKSPACE_ROOT == null
+        ? new WorkspaceManager(new File("/tmp/ci"), new File(Utils.dataDir(), "workspaces.json"), quotaMb())
+        : new WorkspaceManager(new File(WORKSPACE_ROOT), new File(WORKSPACE_ROOT, "workspaces.json"), quotaMb());
+
+    private final File root;
+    private final File indexFile;
+    private final long quotaMb;
+    private final Set<String> leased = new HashSet<String>();
+    private JSONObject index;
+    private long warmLeases;
+    private long coldLeases;
+    private long evictions;
+
+    /**
+     * A workspace slot held by one build.
+     */
+    public static final class Lease {
+        public final String repository;
+        public final File dir;
+        /** Whether the slot already held a clone when it was leased. */
+        public final boolean warm;
+
+        Lease(String repository, File dir, boolean warm) {
+            this.repository = repository;
+            this.dir = dir;
+            this.warm = warm;
+        }
+    }
+
+    /**
+     * Creates a manager keeping its workspaces in the given directory.
+     *
+     * @param root the directory holding the workspace slots
+     * @param indexFile where the slot index is stored
+     * @param quotaMb disk quota of all workspaces together
+     */
+    public WorkspaceManager(File root, File indexFile, long quotaMb) {
+        this.root = root;
+        this.indexFile = indexFile;
+        this.quotaMb = quotaMb;
+    }
+
+    /**
+     * Returns the manager used by the server.
+     *
+     * @return the shared manager
+     */
+    public static WorkspaceManager shared() {
+        return SHARED;
+    }
+
+    /**
+     * Leases a workspace slot for a build of a repository.
+     *
+     * <p>The first free slot is returned; a slot without a complete clone is emptied so that
+     * the caller can clone into it.</p>
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @param cloneUrl the URL the repository is cloned from
+     * @param branch the branch being built
+     * @return the lease, to be passed to {@link #release}
+     * @throws IOException if the index cannot be read or a stale slot cannot be removed
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public synchronized Lease acquire(String repositoryFullName, String cloneUrl, String branch)
+            throws IOException, NoSuchAlgorithmException {
+        JSONObject entry = entry(repositoryFullName);
+        entry.put("cloneUrl", cloneUrl);
+        entry.put("branch", branch);
+        entry.put("lastUsedMillis", System.currentTimeMillis());
+        entry.put("builds", entry.optLong("builds", 0) + 1);
+        Lease lease = leaseSlot(repositoryFullName);
+        if (lease.warm) {
+            warmLeases++;
+        } else {
+            coldLeases++;
+        }
+        return lease;
+    }
+
+    private Lease leaseSlot(String repositoryFullName) throws IOException, NoSuchAlgorithmException {
+        JSONObject entry = entry(repositoryFullName);
+        File base = baseDir(repositoryFullName);
+        File dir = base;
+        for (int slot = 1; leased.contains(dir.getAbsolutePath()); slot++) {
+            dir = new File(base.getPath() + "-slot-" + slot);
+        }
+        leased.add(dir.getAbsolutePath());
+
+        boolean warm = new File(dir, ".git").exists();
+        if (!warm) {
+            deleteSlot(dir);
+        }
+        JSONObject slots = entry.getJSONObject("slots");
+        if (!slots.has(dir.getAbsolutePath())) {
+            slots.put(dir.getAbsolutePath(), 0);
+        }
+        writeIndex();
+        return new Lease(repositoryFullName, dir, warm);
+    }
+
+    /**
+     * Returns a slot to the pool, records its size and evicts workspaces while over quota.
+     *
+     * @param lease the lease returned by {@link #acquire}
+     */
+    public void release(Lease lease) {
+        long sizeMb = slotSizeMb(lease.dir);
+        long mirrorMb = 0;
+        try {
+            mirrorMb = toMb(directorySize(mirrorDir(lease.repository).toPath()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not supported");
+        }
+        synchronized (this) {
+            leased.remove(lease.dir.getAbsolutePath());
+            try {
+                JSONObject entry = entry(lease.repository);
+                entry.getJSONObject("slots").put(lease.dir.getAbsolutePath(), sizeMb);
+                entry.put("mirrorMb", mirrorMb);
+                evictOverQuota(lease.repository);
+                writeIndex();
+            } catch (IOException e) {
+                System.out.println("Failed to update workspace index");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Clones the most frequently built repositories whose workspace is missing, one after the
+     * other on the calling thread.
+     *
+     * @param count the number of repositories to consider
+     */
+    public void prewarm(int count) {
+        List<String> repositories = new ArrayList<String>();
+        synchronized (this) {
+            try {
+                JSONObject repos = readIndex();
+                repositories.addAll(repos.keySet());
+                repositories.sort((a, b) -> Long.compare(
+                    repos.getJSONObject(b).optLong("builds", 0), repos.getJSONObject(a).optLong("builds", 0)
+                ));
+            } catch (IOException e) {
+                System.out.println("Failed to read workspace index; skipping pre-warm");
+                return;
+            }
+        }
+
+        for (String repository : repositories.subList(0, Math.min(count, repositories.size()))) {
+            try {
+                JSONObject entry;
+                synchronized (this) {
+                    entry = new JSONObject(entry(repository).toString());
+                }
+                String cloneUrl = entry.optString("cloneUrl", "");
+                if (cloneUrl.isEmpty()) {
+                    continue;
+                }
+                Lease lease = acquireForPrewarm(repository);
+                if (lease == null) {
+                    continue;
+                }
+                try {
+                    System.out.println("Pre-warming workspace of " + repository);
+                    CommandRunner.cloneOrFetchRepoWithLogs(
+                        true, cloneUrl, lease.dir.getAbsolutePath(), entry.optString("branch", "main")
+                    );
+                } finally {
+                    release(lease);
+                }
+            } catch (IOException | NoSuchAlgorithmException e) {
+                System.out.println("Failed to pre-warm workspace of " + repository);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns pool usage and lease counts.
+     *
+     * @return JSON object with quota, usage, slot counts, warm and cold leases and evictions
+     */
+    public synchronized JSONObject metrics() {
+        long usedMb = 0;
+        int slots = 0;
+        try {
+            JSONObject repos = readIndex();
+            for (String repository : repos.keySet()) {
+                usedMb += usageMb(repos.getJSONObject(repository));
+                slots += repos.getJSONObject(repository).getJSONObject("slots").length();
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read workspace index");
+        }
+        return new JSONObject()
+            .put("quotaMb", quotaMb)
+            .put("usedMb", usedMb)
+            .put("slots", slots)
+            .put("leased", leased.size())
+            .put("warmLeases", warmLeases)
+            .put("coldLeases", coldLeases)
+            .put("evictions", evictions);
+    }
+
+    private synchronized Lease acquireForPrewarm(String repository) throws IOException, NoSuchAlgorithmException {
+        File base = baseDir(repository);
+        if (leased.contains(base.getAbsolutePath()) || new File(base, ".git").exists()) {
+            return null;
+        }
+        // Unlike a build, pre-warming leaves the build count and recency alone
+        return leaseSlot(repository);
+    }
+
+    private File baseDir(String repositoryFullName) throws NoSuchAlgorithmException {
+        return new File(root, Utils.createHashedDir(repositoryFullName).getName());
+    }
+
+    /**
+     * Returns the directory of a repository's bare mirror, which is kept with its workspaces.
+     *
+     * @param repositoryFullName repository full name (owner/repo)
+     * @return the mirror directory, which may not exist yet
+     * @throws NoSuchAlgorithmException if SHA-256 is not available
+     */
+    public File mirrorDir(String repositoryFullName) throws NoSuchAlgorithmException {
+        return new File(new File(root, "mirrors"), Utils.createHashedDir(repositoryFullName).getName() + ".git");
+    }
+
+    private void evictOverQuota(String keepRepository) throws IOException {
+        JSONObject repos = readIndex();
+        List<String> candidates = new ArrayList<String>(repos.keySet());
+        candidates.sort((a, b) -> Long.compare(
+            repos.getJSONObject(a).optLong("lastUsedMillis", 0), repos.getJSONObject(b).optLong("lastUsedMillis", 0)
+        ));
+
+        long usedMb = 0;
+        for (String repository : candidates) {
+            usedMb += usageMb(repos.getJSONObject(repository));
+        }
+
+        for (String repository : candidates) {
+            if (usedMb <= quotaMb) {
+                break;
+            }
+            JSONObject entry = repos.getJSONObject(repository);
+            JSONObject slots = entry.getJSONObject("slots");
+            if (repository.equals(keepRepository) || usageMb(entry) == 0 || hasLeasedSlot(slots)) {
+                continue;
+            }
+            System.out.println("Evicting workspaces of " + repository + " to stay within the disk quota");
+            usedMb -= usageMb(entry);
+            for (String dir : new ArrayList<String>(slots.keySet())) {
+                deleteSlot(new File(dir));
+                slots.remove(dir);
+            }
+            try {
+                deleteDirectory(mirrorDir(repository));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-256 is not supported", e);
+            }
+            entry.remove("mirrorMb");
+            evictions++;
+        }
+    }
+
+    private static long usageMb(JSONObject entry) {
+        long usedMb = entry.optLong("mirrorMb", 0);
+        JSONObject slots = entry.getJSONObject("slots");
+        for (String dir : slots.keySet()) {
+            usedMb += slots.getLong(dir);
+        }
+        return usedMb;
+    }
+
+    private boolean hasLeasedSlot(JSONObject slots) {
+        for (String dir : slots.keySet()) {
+            if (leased.contains(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the disk usage of a slot and its test shard and stage worktrees.
+     *
+     * @param dir the slot directory
+     * @return the size in megabytes, rounded up
+     */
+    static long slotSizeMb(File dir) {
+        long bytes = 0;
+        for (File sibling : slotDirectories(dir)) {
+            bytes += directorySize(sibling.toPath());
+        }
+        return toMb(bytes);
+    }
+
+    private static long toMb(long bytes) {
+        return (bytes + 1024 * 1024 - 1) / (1024 * 1024);
+    }
+
+    private static List<File> slotDirectories(File dir) {
+        List<File> dirs = new ArrayList<File>();
+        dirs.add(dir);
+        File[] siblings = dir.getAbsoluteFile().getParentFile() == null
+            ? null
+            : dir.getAbsoluteFile().getParentFile().listFiles();
+        if (siblings != null) {
+            for (File sibling : siblings) {
+                if (sibling.getName().startsWith(dir.getName() + "-shard-")
+                        || sibling.getName().startsWith(dir.getName() + "-stage-")) {
+                    dirs.add(sibling);
+                }
+            }
+        }
+        return dirs;
+    }
+
+    private static long directorySize(Path root) {
+        if (!Files.isDirectory(root)) {
+            return 0;
+        }
+        long[] size = {0};
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    size[0] += attributes.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Failed to measure " + root);
+        }
+        return size[0];
+    }
+
+    private static void deleteSlot(File dir) throws IOException {
+        for (File slotDir : slotDirectories(dir)) {
+            deleteDirectory(slotDir);
+        }
+    }
+
+    /**
+     * Deletes a directory tree if it exists.
+     *
+     * @param dir the directory to delete
+     * @throws IOException if a file cannot be deleted
+     */
+    static void deleteDirectory(File dir) throws IOException {
+        Path root = dir.toPath();
+        if (Files.exists(root)) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                    Files.delete(directory);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    private JSONObject entry(String repositoryFullName) throws IOException {
+        JSONObject repos = readIndex();
+        JSONObject entry = repos.optJSONObject(repositoryFullName);
+        if (entry == null) {
+            entry = new JSONObject().put("slots", new JSONObject());
+            repos.put(repositoryFullName, entry);
+        }
+        return entry;
+    }
+
+    private JSONObject readIndex() throws IOException {
+        if (index != null) {
+            return index;
+        }
+        if (!indexFile.isFile()) {
+            index = new JSONObject();
+            return index;
+        }
+        String content = new String(Files.readAllBytes(indexFile.toPath()), StandardCharsets.UTF_8).trim();
+        try {
+            index = content.isEmpty() ? new JSONObject() : new JSONObject(content);
+        } catch (JSONException e) {
+            throw new IOException("Invalid JSON in " + indexFile.getAbsolutePath(), e);
+        }
+        return index;
+    }
+
+    private void writeIndex() throws IOException {
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory " + parent.getAbsolutePath());
+        }
+        Files.write(indexFile.toPath(), readIndex().toString(2).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long quotaMb() {
+        try {
+            return Long.parseLong(System.getProperty("workspaceQuotaMb", String.valueOf(DEFAULT_QUOTA_MB)));
+        } catch (NumberFormatException e) {
+            return DEFAULT_QUOTA_MB;
+        }
+    }
+}
@@ -49,4 +49,29 @@ public final class Utils {
             return s.hasNext() ? s.next() : "";
         }
     }
+
+    /**
+     * Returns the directory of the server's stored state, such as build records, settings
+     * and the webhook journal.
+     *
+     * <p>It is {@code data} in the working directory unless the {@code dataDir} system property
+     * names another one, for example to give every worker on a host its own.</p>
+     *
+     * @return the data directory
+     */
+    public static File dataDir() {
+        return new File(System.getProperty("dataDir", "data"));
+    }
+
+    /**
+     * Checks that a string is a repository full name of the form {@code owner/repo}.
+     *
+     * <p>Only names that are safe to use as a relative path are accepted.</p>
+     *
+     * @param name the name to check
+     * @return true if the name has exactly one slash and no path traversal
+     */
+    public static boolean isRepositoryName(String name) {
+        return name.matches("[A-Za-z0-9_.-]+/[A-Za-z0-9_.-]+") && !name.contains("..");
+    }
 }
@@ -0,0 +1,219 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildEventBusTest {
+    private BuildJob job(String id, String repository, String branch) {
+        return new BuildJob(id, repository, "", branch, true, "abc123", null, System.currentTimeMillis());
+    }
+
+    private static String awaitContent(StringWriter writer, String expected) throws InterruptedException {
+        for (int i = 0; i < 200 && !writer.toString().contains(expected); i++) {
+            Thread.sleep(10);
+        }
+        return writer.toString();
+    }
+
+    @Test
+    @DisplayName("Subscribers only receive events matching their filters")
+    void testFilters() throws InterruptedException {
+        BuildEventBus bus = new BuildEventBus(16);
+        StringWriter writer = new StringWriter();
+        bus.subscribe("owner/repo", "main", null, writer, () -> {});
+
+        bus.publish("queued", job("b1", "other/repo", "main"), null);
+        bus.publish("queued", job("b2", "owner/repo", "feature"), null);
+        bus.publish("queued", job("b3", "owner/repo", "main"), null);
+
+        String stream = awaitContent(writer, "\"b3\"");
+        assertTrue(stream.contains("event: queued\n"));
+        assertTrue(stream.contains("\"buildId\":\"b3\""));
+        assertFalse(stream.contains("\"b1\""));
+        assertFalse(stream.contains("\"b2\""));
+    }
+
+    @Test
+    @DisplayName("Last-Event-ID replays buffered events after that ID")
+    void testReplay() throws InterruptedException {
+        BuildEventBus bus = new BuildEventBus(16);
+        StringWriter first = new StringWriter();
+        bus.subscribe(null, null, null, first, () -> {});
+        bus.publish("queued", job("b1", "owner/repo", "main"), null);
+        bus.publish("started", job("b1", "owner/repo", "main"), null);
+        bus.publish("finished", job("b1", "owner/repo", "main"), null);
+
+        Matcher ids = Pattern.compile("id: (\\S+)").matcher(awaitContent(first, "event: finished"));
+        assertTrue(ids.find());
+        String firstId = ids.group(1);
+
+        StringWriter resumed = new StringWriter();
+        bus.subscribe(null, null, firstId, resumed, () -> {});
+        String stream = awaitContent(resumed, "event: finished");
+        assertFalse(stream.contains("event: queued"));
+        assertTrue(stream.contains("event: started"));
+        assertTrue(stream.contains("event: finished"));
+        assertFalse(stream.contains("event: reset"));
+    }
+
+    @Test
+    @DisplayName("Resuming from an overwritten event sends a reset")
+    void testOverwrittenResumeResets() throws InterruptedException {
+        BuildEventBus bus = new BuildEventBus(2);
+        StringWriter first = new StringWriter();
+        bus.subscribe(null, null, null, first, () -> {});
+        bus.publish("queued", job("b1", "owner/repo", "main"), null);
+
+        Matcher ids = Pattern.compile("id: (\\S+)").matcher(awaitContent(first, "event: queued"));
+        assertTrue(ids.find());
+        String firstId = ids.group(1);
+        bus.publish("queued", job("b2", "owner/repo", "main"), null);
+        bus.publish("queued", job("b3", "owner/repo", "main"), null);
+        bus.publish("queued", job("b4", "owner/repo", "main"), null);
+
+        StringWriter resumed = new StringWriter();
+        bus.subscribe(null, null, firstId, resumed, () -> {});
+        String stream = awaitContent(resumed, "\"b4\"");
+        assertTrue(stream.startsWith("event: reset\n"));
+        assertFalse(stream.contains("\"b2\""));
+        assertTrue(stream.contains("\"b3\""));
+    }
+
+    @Test
+    @DisplayName("A blocked subscriber does not slow down publishing")
+    void testSlowSubscriberDoesNotBlockPublish() {
+        BuildEventBus bus = new BuildEventBus(8);
+        CountDownLatch release = new CountDownLatch(1);
+        Writer blocked = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        bus.subscribe(null, null, null, blocked, () -> {});
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10000; i++) {
+            bus.publish("queued", job("b" + i, "owner/repo", "main"), null);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        release.countDown();
+
+        assertTrue(elapsedMillis < 5000, "publishing took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    @DisplayName("A subscriber whose queue overflows is disconnected without delaying the others")
+    void testOverflowDisconnects() throws InterruptedException {
+        BuildEventBus bus = new BuildEventBus(64, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        Writer blocked = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        bus.subscribe(null, null, null, blocked, closed::countDown);
+        StringWriter fast = new StringWriter();
+        bus.subscribe(null, null, null, fast, () -> {});
+
+        for (int i = 0; i < 10; i++) {
+            bus.publish("queued", job("b" + i, "owner/repo", "main"), null);
+            // Lets the fast subscriber keep up with its small queue
+            awaitContent(fast, "\"b" + i + "\"");
+        }
+
+        assertTrue(closed.await(2, java.util.concurrent.TimeUnit.SECONDS));
+        assertEquals(1, bus.subscriberCount());
+        assertTrue(fast.toString().contains("\"b9\""));
+        release.countDown();
+        bus.close();
+    }
+
+    @Test
+    @DisplayName("Closing the bus closes every subscription")
+    void testClose() throws InterruptedException {
+        BuildEventBus bus = new BuildEventBus(8);
+        CountDownLatch closed = new CountDownLatch(2);
+        bus.subscribe(null, null, null, new StringWriter(), closed::countDown);
+        bus.subscribe("owner/repo", null, null, new StringWriter(), closed::countDown);
+
+        bus.close();
+
+        assertTrue(closed.await(2, java.util.concurrent.TimeUnit.SECONDS));
+        assertEquals(0, bus.subscriberCount());
+    }
+
+    @Test
+    @DisplayName("Failing writer closes the subscription")
+    void testFailingWriterUnsubscribes() throws InterruptedException {
+        BuildEventBus bus = new BuildEventBus(8);
+        CountDownLatch closed = new CountDownLatch(1);
+        Writer failing = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) throws java.io.IOException {
+                throw new java.io.IOException("client went away");
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        bus.subscribe(null, null, null, failing, closed::countDown);
+        bus.publish("queued", job("b1", "owner/repo", "main"), null);
+
+        assertTrue(closed.await(2, java.util.concurrent.TimeUnit.SECONDS));
+        assertEquals(0, bus.subscriberCount());
+    }
+
+    @Test
+    @DisplayName("Subscriptions beyond the limit are refused until a stream closes")
+    void testSubscriberLimit() {
+        BuildEventBus bus = new BuildEventBus(8, 4, 1);
+        BuildEventBus.Subscription first = bus.subscribe(null, null, null, new StringWriter(), () -> {});
+        assertNotNull(first);
+        assertTrue(bus.isFull());
+        assertNull(bus.subscribe(null, null, null, new StringWriter(), () -> {}));
+        assertEquals(1, bus.subscriberCount());
+
+        bus.unsubscribe(first);
+        assertFalse(bus.isFull());
+        assertNotNull(bus.subscribe(null, null, null, new StringWriter(), () -> {}));
+        bus.close();
+    }
+}
@@ -1,5 +1,6 @@
 package org.example;
 
+import org.example.util.Utils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.AfterAll;
@@ -7,16 +8,21 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
 import java.util.Comparator;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -24,7 +30,8 @@ class BuildHistoryStoreTest {
     private static final String OWNER = "test_owner123";
     private static final String REPOSITORY = "test_repoitory123";
     private static final String FULL_REPOSITORY_NAME = OWNER + "/" + REPOSITORY;
-    private static final Path OWNER_DIRECTORY = Paths.get("data", "repositories", OWNER);
+    private static final Path OWNER_DIRECTORY = Paths.get(Utils.dataDir().getPath(), "repositories", OWNER);
+    private static final Path SUMMARY_DIRECTORY = Paths.get(Utils.dataDir().getPath(), "summary");
 
     @BeforeEach
     void setUp() throws IOException {
@@ -41,7 +48,7 @@ class BuildHistoryStoreTest {
     void testAppendBuildStoresRecord() throws IOException {
         String buildId = "build-append";
         BuildHistoryStore.appendBuild(FULL_REPOSITORY_NAME, createBuild(buildId));
-        Path buildsFile = Paths.get("data", "repositories", OWNER, REPOSITORY, "builds.json");
+        Path buildsFile = Paths.get(Utils.dataDir().getPath(), "repositories", OWNER, REPOSITORY, "builds.json");
         assertTrue(Files.exists(buildsFile));
 
         JSONArray storedBuilds = new JSONArray(Files.readString(buildsFile));
@@ -80,6 +87,81 @@ class BuildHistoryStoreTest {
         assertEquals(FULL_REPOSITORY_NAME, build.getString("repository"));
     }
 
+    @Test
+    @DisplayName("Stored build IDs include appended builds only")
+    void testHasBuild() throws IOException {
+        String buildId = "build-has";
+        assertFalse(BuildHistoryStore.hasBuild(buildId));
+        BuildHistoryStore.appendBuild(FULL_REPOSITORY_NAME, createBuild(buildId));
+
+        assertTrue(BuildHistoryStore.hasBuild(buildId));
+        assertFalse(BuildHistoryStore.hasBuild("build-never-stored"));
+    }
+
+    @Test
+    @DisplayName("Query builds aggregates stored builds of a repository")
+    void testQueryBuilds() throws IOException {
+        BuildHistoryStore.appendBuild(FULL_REPOSITORY_NAME, createBuild("build-query-1"));
+        BuildHistoryStore.appendBuild(FULL_REPOSITORY_NAME, createBuild("build-query-2").put("status", "failure"));
+        BuildSummaryFile.Query query = new BuildSummaryFile.Query();
+        query.repository = FULL_REPOSITORY_NAME;
+        JSONObject result = BuildHistoryStore.queryBuilds(query);
+
+        assertEquals(2, result.getLong("matchedRows"));
+        JSONObject group = result.getJSONArray("groups").getJSONObject(0);
+        assertEquals(1, group.getLong("success"));
+        assertEquals(1, group.getLong("failure"));
+    }
+
+    @Test
+    @DisplayName("Statistics include appended builds")
+    void testStatisticsIncludeBuild() throws IOException {
+        BuildHistoryStore.statistics(FULL_REPOSITORY_NAME);
+        BuildHistoryStore.appendBuild(FULL_REPOSITORY_NAME, createBuild("build-stats")
+            .put("buildDate", Instant.now().toString()));
+        JSONObject statistics = BuildHistoryStore.statistics(FULL_REPOSITORY_NAME);
+
+        JSONObject repository = statistics.getJSONArray("repositories").getJSONObject(0);
+        assertEquals(FULL_REPOSITORY_NAME, repository.getString("repository"));
+        assertEquals(1, repository.getJSONObject("hour").getLong("count"));
+    }
+
+    @Test
+    @DisplayName("Appending a build advances the global and repository generations")
+    void testGenerationAdvances() throws IOException {
+        long global = BuildHistoryStore.generation(null);
+        long repository = BuildHistoryStore.generation(FULL_REPOSITORY_NAME);
+        String etag = BuildHistoryStore.etag(FULL_REPOSITORY_NAME);
+        String otherEtag = BuildHistoryStore.etag("other/repository");
+        BuildHistoryStore.appendBuild(FULL_REPOSITORY_NAME, createBuild("build-generation"));
+
+        assertEquals(global + 1, BuildHistoryStore.generation(null));
+        assertEquals(repository + 1, BuildHistoryStore.generation(FULL_REPOSITORY_NAME));
+        assertNotEquals(etag, BuildHistoryStore.etag(FULL_REPOSITORY_NAME));
+        assertEquals(otherEtag, BuildHistoryStore.etag("other/repository"));
+        assertTrue(BuildHistoryStore.lastModifiedMillis(FULL_REPOSITORY_NAME) <= System.currentTimeMillis());
+    }
+
+    @Test
+    @DisplayName("Streamed build list writes the summaries without the logs")
+    void testStreamedBuildList() throws IOException {
+        BuildHistoryStore.appendBuild(FULL_REPOSITORY_NAME, createBuild("build-stream-1").put("logs", "> Task :test"));
+        BuildHistoryStore.appendBuild(FULL_REPOSITORY_NAME, createBuild("build-stream-2").put("logs", "> Task :test"));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonResponseWriter json = new JsonResponseWriter(body, false, false)) {
+            json.beginArray();
+            BuildHistoryStore.forEachBuildSummary(FULL_REPOSITORY_NAME, json::element);
+            json.endArray();
+        }
+
+        JSONArray summaries = new JSONArray(body.toString(StandardCharsets.UTF_8));
+        assertEquals(2, summaries.length());
+        assertEquals("build-stream-1", summaries.getJSONObject(0).getString("id"));
+        assertEquals("/builds/build-stream-2", summaries.getJSONObject(1).getString("url"));
+        assertFalse(summaries.getJSONObject(0).has("logs"));
+    }
+
     private JSONObject createBuild(String buildId) {
         return new JSONObject()
             .put("id", buildId)
@@ -90,11 +172,14 @@ class BuildHistoryStoreTest {
     }
 
     private static void deleteTestBuildsDirectory() throws IOException {
-        if (Files.exists(OWNER_DIRECTORY)) {
-            try (Stream<Path> files = Files.walk(OWNER_DIRECTORY)) {
-                List<Path> sortedFiles = files.sorted(Comparator.reverseOrder()).toList();
-                for (Path file : sortedFiles) {
-                    Files.delete(file);
+        // The summary is rebuilt from the remaining builds.json files on the next access
+        for (Path directory : List.of(OWNER_DIRECTORY, SUMMARY_DIRECTORY)) {
+            if (Files.exists(directory)) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    List<Path> sortedFiles = files.sorted(Comparator.reverseOrder()).toList();
+                    for (Path file : sortedFiles) {
+                        Files.delete(file);
+                    }
                 }
             }
         }
@@ -0,0 +1,207 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.json.JSONObject;
+import org.example.util.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildJournalTest {
+    @TempDir
+    File tempDir;
+
+    private File file;
+
+    @BeforeEach
+    void setUp() {
+        file = new File(tempDir, "journal.log");
+    }
+
+    private static BuildJob job(String id) {
+        return new BuildJob(id, "owner/repo", "https://example.org/repo.git", "main", true, "abc", null, 1234);
+    }
+
+    @Test
+    @DisplayName("Build that never started is queued again with its ID and queue time")
+    void testRequeue() throws Exception {
+        BuildJournal journal = new BuildJournal(file);
+        journal.accept(job("b1"), null);
+
+        BuildJournal.Recovery recovery = new BuildJournal(file).recover();
+        assertEquals(1, recovery.requeued.size());
+        assertEquals(0, recovery.interrupted.size());
+        BuildJob job = recovery.requeued.get(0);
+        assertEquals("b1", job.id);
+        assertEquals(1234, job.queuedAtMillis);
+        assertEquals("abc", job.commit);
+        assertNull(job.statusesUrl);
+    }
+
+    @Test
+    @DisplayName("Running build is reported as interrupted and finished build is dropped")
+    void testInterruptedAndFinished() throws Exception {
+        BuildJournal journal = new BuildJournal(file);
+        journal.accept(job("running"), null);
+        journal.started("running");
+        journal.accept(job("done"), null);
+        journal.started("done");
+        journal.finished("done");
+
+        BuildJournal.Recovery recovery = new BuildJournal(file).recover();
+        assertEquals(0, recovery.requeued.size());
+        assertEquals(1, recovery.interrupted.size());
+        assertEquals("running", recovery.interrupted.get(0).id);
+    }
+
+    @Test
+    @DisplayName("Run that fails without a record is stored as interrupted before it is finished")
+    void testRunWithoutRecord() throws Exception {
+        String repository = "test_journal_owner123/repo";
+        BuildJournal journal = new BuildJournal(file);
+        BuildJob job = new BuildJob("failed", repository, "https://example.org/repo.git", "main", true, "abc", null, 1234);
+        journal.accept(job, null);
+        try {
+            assertThrows(IllegalStateException.class, () -> journal.journaled(j -> {
+                throw new IllegalStateException("workspace unavailable");
+            }).accept(job));
+
+            assertEquals("interrupted", job.record().getString("status"));
+            assertEquals("interrupted", BuildHistoryStore.getBuildById("failed").getString("status"));
+            BuildJournal.Recovery recovery = new BuildJournal(file).recover();
+            assertEquals(0, recovery.interrupted.size());
+        } finally {
+            deleteDirectory(Paths.get(Utils.dataDir().getPath(), "repositories", "test_journal_owner123"));
+            deleteDirectory(Paths.get(Utils.dataDir().getPath(), "summary"));
+        }
+    }
+
+    @Test
+    @DisplayName("Run interrupted by a shutdown stays open for recovery")
+    void testRunInterrupted() throws Exception {
+        BuildJournal journal = new BuildJournal(file);
+        journal.accept(job("stopped"), null);
+        journal.journaled(j -> Thread.currentThread().interrupt()).accept(job("stopped"));
+        assertTrue(Thread.interrupted());
+
+        BuildJournal.Recovery recovery = new BuildJournal(file).recover();
+        assertEquals(1, recovery.interrupted.size());
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (Files.exists(directory)) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Redelivered webhook returns the original build, also after a restart")
+    void testDuplicateDelivery() throws Exception {
+        BuildJournal journal = new BuildJournal(file);
+        assertNull(journal.accept(job("b1"), "delivery-1"));
+        assertEquals("b1", journal.accept(job("b2"), "delivery-1"));
+        journal.started("b1");
+        journal.finished("b1");
+
+        BuildJournal restarted = new BuildJournal(file);
+        restarted.recover();
+        assertEquals("b1", restarted.accept(job("b3"), "delivery-1"));
+        assertNull(restarted.accept(job("b4"), "delivery-2"));
+        assertEquals(1, restarted.openBuilds());
+    }
+
+    @Test
+    @DisplayName("Line torn by a crash is skipped")
+    void testTornLine() throws Exception {
+        BuildJournal journal = new BuildJournal(file);
+        journal.accept(job("b1"), null);
+        Files.write(file.toPath(), "{\"op\":\"accep".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        BuildJournal.Recovery recovery = new BuildJournal(file).recover();
+        assertEquals(1, recovery.skippedLines);
+        assertEquals(1, recovery.requeued.size());
+    }
+
+    @Test
+    @DisplayName("Journal is compacted once finished builds dominate it")
+    void testCompaction() throws Exception {
+        BuildJournal journal = new BuildJournal(file);
+        for (int i = 0; i < 1000; i++) {
+            journal.accept(job("b" + i), null);
+            journal.started("b" + i);
+            journal.finished("b" + i);
+        }
+
+        assertTrue(Files.readAllLines(file.toPath()).size() < 1000);
+        assertTrue(new BuildJournal(file).recover().lines < 1000);
+    }
+
+    @Test
+    @DisplayName("Delivery IDs expire after their time to live")
+    void testDeliveryExpiry() throws Exception {
+        BuildJournal journal = new BuildJournal(file, 200);
+        journal.recover();
+        assertNull(journal.accept(job("b1"), "delivery-1"));
+        assertEquals("b1", journal.duplicateOf("delivery-1"));
+
+        Thread.sleep(300);
+        assertNull(journal.duplicateOf("delivery-1"));
+        assertNull(journal.accept(job("b2"), "delivery-1"));
+
+        BuildJournal restarted = new BuildJournal(file, 60000);
+        restarted.recover();
+        assertEquals("b2", restarted.duplicateOf("delivery-1"));
+    }
+
+    @Test
+    @DisplayName("Journal with 100k builds requeues the open ones and is compacted")
+    void testRecoveryOf100kEntries() throws Exception {
+        // The recovery time is measured by BuildJournalBenchmark
+        int builds = 100_000;
+        int open = 100;
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < builds; i++) {
+                BuildJob job = job("build-" + i);
+                writer.write(job.toJournalEntry().put("op", "accepted").put("delivery", "delivery-" + i).toString());
+                writer.write('\n');
+                if (i < builds - open) {
+                    writer.write(new JSONObject().put("op", "started").put("id", job.id).toString());
+                    writer.write('\n');
+                    writer.write(new JSONObject().put("op", "finished").put("id", job.id).toString());
+                    writer.write('\n');
+                }
+            }
+        }
+
+        BuildJournal journal = new BuildJournal(file);
+        BuildJournal.Recovery recovery = journal.recover();
+
+        assertEquals(open, recovery.requeued.size());
+        assertEquals(0, recovery.skippedLines);
+        assertEquals(BuildJournal.DELIVERIES, Files.readAllLines(file.toPath()).size());
+        // Only the most recent deliveries are remembered
+        assertNull(journal.accept(job("x"), "delivery-0"));
+        assertEquals("build-99999", journal.accept(job("y"), "delivery-99999"));
+    }
+}
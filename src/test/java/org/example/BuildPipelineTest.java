@@ -0,0 +1,102 @@
+package org.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildPipelineTest {
+    @TempDir
+    File tempDir;
+
+    private File origin;
+    private String repository;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CommandRunner.showIO = false;
+        origin = new File(tempDir, "origin");
+        // A workspace of an earlier run still points at that run's origin, so every run gets its own
+        repository = "test_pipeline_owner123/" + tempDir.getName();
+        assertTrue(origin.mkdirs());
+        assertTrue(CommandRunner.runCommand("git", "-C", origin.getAbsolutePath(), "init", "-q", "-b", "main"));
+        // Stands in for the Gradle wrapper and reports which commit it was run on
+        File gradlew = new File(origin, "gradlew");
+        Files.writeString(gradlew.toPath(), "#!/bin/sh\necho \"Building $(git -C \"$(dirname \"$0\")\" rev-parse HEAD)\"\n");
+        assertTrue(gradlew.setExecutable(true));
+    }
+
+    private String commit(String content) throws Exception {
+        String path = origin.getAbsolutePath();
+        Files.writeString(new File(origin, "VERSION").toPath(), content);
+        assertTrue(CommandRunner.runCommand("git", "-C", path, "add", "."));
+        assertTrue(CommandRunner.runCommand(
+            "git", "-C", path, "-c", "user.name=ci", "-c", "user.email=ci@example.org", "commit", "-q", "-m", content
+        ));
+        return CommandRunner.runCommandWithOutput(CommandRunner.NO_TIMEOUT, "git", "-C", path, "rev-parse", "HEAD")
+            .output.trim();
+    }
+
+    private BuildJob job(String id, String commit) {
+        return new BuildJob(id, repository, origin.getAbsolutePath(), "main", true, commit, null,
+            System.currentTimeMillis());
+    }
+
+    @Test
+    @DisplayName("Queued builds of one branch each build their own pushed commit")
+    void testQueuedCommitsBuildTheirOwnSha() throws Exception {
+        RepositorySettings settings = RepositorySettings.of(new JSONObject().put("stages", new JSONArray()
+            .put(new JSONObject().put("name", "build").put("gradle", new JSONArray().put("build")))));
+        ResourceMonitor monitor = new ResourceMonitor() {
+            @Override
+            public Snapshot snapshot() {
+                return new Snapshot(64, 0, 65536, 65536);
+            }
+        };
+        Map<String, JSONObject> records = new ConcurrentHashMap<String, JSONObject>();
+        CountDownLatch finished = new CountDownLatch(2);
+        BuildScheduler scheduler = new BuildScheduler(monitor,
+            job -> BuildPipeline.run(job, settings, record -> records.put(job.id, record)));
+        scheduler.addCompletionListener(job -> finished.countDown());
+
+        // Both pushes are queued before either build starts, so the branch tip is the second one
+        String first = commit("1");
+        String second = commit("2");
+        scheduler.submit(job("pipeline-first", first));
+        scheduler.submit(job("pipeline-second", second));
+        assertTrue(finished.await(60, TimeUnit.SECONDS));
+
+        String firstLogs = records.get("pipeline-first").getString("logs");
+        assertTrue(firstLogs.contains("Building " + first), firstLogs);
+        assertFalse(firstLogs.contains("Building " + second), firstLogs);
+        assertTrue(records.get("pipeline-second").getString("logs").contains("Building " + second));
+        assertEquals(first, records.get("pipeline-first").getString("commit"));
+    }
+
+    @Test
+    @DisplayName("A pushed commit missing from the remote fails the setup instead of building the tip")
+    void testMissingCommitFailsSetup() throws Exception {
+        String tip = commit("1");
+        File workspace = new File(tempDir, "workspace");
+
+        CommandRunner.CommandResult result = CommandRunner.cloneOrFetchRepoWithLogs(true, origin.getAbsolutePath(),
+            workspace.getAbsolutePath(), "main", "0123456789abcdef0123456789abcdef01234567", CommandRunner.NO_TIMEOUT, null);
+
+        assertFalse(result.success);
+        assertTrue(result.output.contains("not building the tip of main"), result.output);
+        assertFalse(tip.isEmpty());
+    }
+}
@@ -0,0 +1,126 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.json.JSONObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildPrefetcherTest {
+    @TempDir
+    File tempDir;
+
+    private File origin;
+    private String head;
+    private BuildPrefetcher prefetcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        CommandRunner.showIO = false;
+        origin = new File(tempDir, "origin");
+        assertTrue(origin.mkdirs());
+        String path = origin.getAbsolutePath();
+        assertTrue(CommandRunner.runCommand("git", "-C", path, "init", "-q", "-b", "main"));
+        Files.write(new File(origin, "README").toPath(), new byte[] {1});
+        assertTrue(CommandRunner.runCommand("git", "-C", path, "add", "README"));
+        assertTrue(CommandRunner.runCommand(
+            "git", "-C", path, "-c", "user.name=ci", "-c", "user.email=ci@example.org", "commit", "-q", "-m", "initial"
+        ));
+        head = CommandRunner.runCommandWithOutput(CommandRunner.NO_TIMEOUT, "git", "-C", path, "rev-parse", "HEAD")
+            .output.trim();
+
+        WorkspaceManager workspaces = new WorkspaceManager(new File(tempDir, "ci"), new File(tempDir, "workspaces.json"), 100);
+        prefetcher = new BuildPrefetcher(workspaces, 1);
+    }
+
+    private BuildJob job(String id, String cloneUrl, String commit) {
+        return new BuildJob(id, "owner/repo", cloneUrl, "main", true, commit, null, System.currentTimeMillis());
+    }
+
+    @Test
+    @DisplayName("Prefetched commit is served from the mirror")
+    void testPrefetchHit() throws Exception {
+        BuildJob job = job("b1", origin.getAbsolutePath(), head);
+        prefetcher.prefetch(job);
+        BuildPrefetcher.Claim claim = prefetcher.claim(job);
+
+        assertTrue(claim.outcome.equals("hit") || claim.outcome.equals("partial"));
+        assertNotNull(claim.mirror);
+        assertTrue(CommandRunner.hasCommit(claim.mirror.getAbsolutePath(), head));
+
+        File workspace = new File(tempDir, "workspace");
+        CommandRunner.CommandResult result = CommandRunner.cloneOrFetchRepoWithLogs(
+            true, origin.getAbsolutePath(), workspace.getAbsolutePath(), "main",
+            CommandRunner.NO_TIMEOUT, claim.mirror.getAbsolutePath()
+        );
+        assertTrue(result.success, result.output);
+        assertTrue(new File(workspace, "README").isFile());
+        String remote = CommandRunner.runCommandWithOutput(
+            CommandRunner.NO_TIMEOUT, "git", "-C", workspace.getAbsolutePath(), "remote", "get-url", "origin"
+        ).output.trim();
+        assertEquals(origin.getAbsolutePath(), remote);
+    }
+
+    @Test
+    @DisplayName("Mirror holds branches and tags but not pull request refs")
+    void testMirrorRefs() throws Exception {
+        String path = origin.getAbsolutePath();
+        assertTrue(CommandRunner.runCommand("git", "-C", path, "update-ref", "refs/pull/1/head", head));
+        assertTrue(CommandRunner.runCommand("git", "-C", path, "tag", "v1"));
+        File mirror = new File(tempDir, "mirror.git");
+
+        for (int i = 0; i < 2; i++) {
+            CommandRunner.CommandResult result = CommandRunner.mirrorRepoWithLogs(
+                path, mirror.getAbsolutePath(), CommandRunner.NO_TIMEOUT
+            );
+            assertTrue(result.success, result.output);
+        }
+        String refs = CommandRunner.runCommandWithOutput(
+            CommandRunner.NO_TIMEOUT, "git", "-C", mirror.getAbsolutePath(), "for-each-ref", "--format=%(refname)"
+        ).output;
+        assertEquals("refs/heads/main\nrefs/tags/v1\n", refs);
+    }
+
+    @Test
+    @DisplayName("Job without a prefetch is a miss")
+    void testMiss() throws Exception {
+        BuildPrefetcher.Claim claim = prefetcher.claim(job("b2", origin.getAbsolutePath(), head));
+
+        assertEquals("miss", claim.outcome);
+        assertNull(claim.mirror);
+    }
+
+    @Test
+    @DisplayName("Failed prefetch falls back to the remote")
+    void testFailedPrefetch() throws Exception {
+        BuildJob job = job("b3", new File(tempDir, "missing").getAbsolutePath(), head);
+        prefetcher.prefetch(job);
+        BuildPrefetcher.Claim claim = prefetcher.claim(job);
+
+        assertEquals("failed", claim.outcome);
+        assertNull(claim.mirror);
+    }
+
+    @Test
+    @DisplayName("Metrics count claims per outcome")
+    void testMetrics() throws Exception {
+        BuildJob hit = job("b4", origin.getAbsolutePath(), head);
+        prefetcher.prefetch(hit);
+        prefetcher.claim(hit);
+        prefetcher.claim(job("b5", origin.getAbsolutePath(), head));
+
+        JSONObject metrics = prefetcher.metrics();
+        assertEquals(0.5, metrics.getDouble("hitRate"));
+        assertEquals(1, metrics.getJSONObject("claims").getLong("miss"));
+        assertEquals(0, metrics.getInt("pending"));
+    }
+}
@@ -0,0 +1,108 @@
+package org.example;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildSchedulerTest {
+    private static final String REPOSITORY = "test_owner789/test_repository789";
+
+    private BuildJob job(String id) {
+        return job(id, REPOSITORY);
+    }
+
+    private BuildJob job(String id, String repository) {
+        return new BuildJob(id, repository, "", "main", true, "abc123", null, System.currentTimeMillis());
+    }
+
+    @Test
+    @DisplayName("Second build waits until the first releases its cores")
+    void testBuildWaitsForCapacity() throws InterruptedException {
+        // Two cores on the host; each build of the repository reserves the default two cores
+        ResourceMonitor monitor = new ResourceMonitor() {
+            @Override
+            public Snapshot snapshot() {
+                return new Snapshot(2, 0, 65536, 65536);
+            }
+        };
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        BuildScheduler scheduler = new BuildScheduler(monitor, job -> {
+            if ("first".equals(job.id)) {
+                firstStarted.countDown();
+                awaitQuietly(releaseFirst);
+            } else {
+                secondStarted.countDown();
+            }
+        });
+
+        scheduler.submit(job("first"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        scheduler.submit(job("second", REPOSITORY + "_other"));
+
+        // Long enough for the dispatcher to recheck, which must not count the deferral again
+        assertFalse(secondStarted.await(1500, TimeUnit.MILLISECONDS));
+        assertEquals("queued", scheduler.getJob("second").state());
+        JSONObject admission = scheduler.metrics().getJSONObject("admission");
+        assertEquals(1, admission.getJSONObject("deferred").getLong("cpu-reserved"));
+
+        releaseFirst.countDown();
+        assertTrue(secondStarted.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertNull(scheduler.getJob("first"));
+    }
+
+    @Test
+    @DisplayName("Builds of a busy repository wait while other repositories start")
+    void testOneBuildPerRepository() throws InterruptedException {
+        ResourceMonitor monitor = new ResourceMonitor() {
+            @Override
+            public Snapshot snapshot() {
+                return new Snapshot(64, 0, 65536, 65536);
+            }
+        };
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch otherStarted = new CountDownLatch(1);
+        CountDownLatch sameStarted = new CountDownLatch(1);
+        BuildScheduler scheduler = new BuildScheduler(monitor, job -> {
+            if ("first".equals(job.id)) {
+                firstStarted.countDown();
+                awaitQuietly(releaseFirst);
+            } else if ("other".equals(job.id)) {
+                otherStarted.countDown();
+            } else {
+                sameStarted.countDown();
+            }
+        });
+
+        scheduler.submit(job("first"));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        scheduler.submit(job("same"));
+        scheduler.submit(job("other", REPOSITORY + "_other"));
+
+        assertTrue(otherStarted.await(5, TimeUnit.SECONDS));
+        assertFalse(sameStarted.await(300, TimeUnit.MILLISECONDS));
+        assertEquals("queued", scheduler.getJob("same").state());
+
+        releaseFirst.countDown();
+        assertTrue(sameStarted.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.Instant;
+
+import org.json.JSONObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildStatisticsTest {
+    private static final long HOUR = 60L * 60 * 1000;
+
+    @TempDir
+    File tempDir;
+
+    private BuildSummaryFile summary;
+    private File snapshotFile;
+    private long now;
+
+    @BeforeEach
+    void setUp() {
+        summary = new BuildSummaryFile(tempDir);
+        snapshotFile = new File(tempDir, "stats.json");
+        now = System.currentTimeMillis();
+    }
+
+    private JSONObject build(String repository, String branch, String status, long ageMillis, long totalMillis) {
+        return new JSONObject()
+            .put("repository", repository)
+            .put("branch", branch)
+            .put("status", status)
+            .put("buildDate", Instant.ofEpochMilli(now - ageMillis).toString())
+            .put("durations", new JSONObject().put("totalMillis", totalMillis));
+    }
+
+    private void store(BuildStatistics statistics, JSONObject build) throws Exception {
+        summary.append(build);
+        statistics.record(build);
+    }
+
+    @Test
+    @DisplayName("Windows count only the builds inside them")
+    void testWindows() throws Exception {
+        BuildStatistics statistics = new BuildStatistics(snapshotFile);
+        statistics.load(summary);
+        store(statistics, build("owner/a", "main", "success", 0, 1000));
+        store(statistics, build("owner/a", "main", "failure", 3 * HOUR, 2000));
+        store(statistics, build("owner/a", "dev", "success", 3 * 24 * HOUR, 3000));
+        store(statistics, build("owner/a", "dev", "success", 30 * 24 * HOUR, 4000));
+
+        JSONObject repository = statistics.toJson(null, now).getJSONArray("repositories").getJSONObject(0);
+        assertEquals("owner/a", repository.getString("repository"));
+        assertEquals(1, repository.getJSONObject("hour").getLong("count"));
+        assertEquals(2, repository.getJSONObject("day").getLong("count"));
+        assertEquals(0.5, repository.getJSONObject("day").getDouble("successRate"));
+        assertEquals(3, repository.getJSONObject("week").getLong("count"));
+        JSONObject dev = repository.getJSONArray("branches").getJSONObject(0);
+        assertEquals("dev", dev.getString("branch"));
+        assertEquals(1, dev.getJSONObject("week").getLong("count"));
+    }
+
+    @Test
+    @DisplayName("Totals merge all repositories and filters select one")
+    void testTotalsAndFilter() throws Exception {
+        BuildStatistics statistics = new BuildStatistics(snapshotFile);
+        statistics.load(summary);
+        store(statistics, build("owner/a", "main", "success", 0, 1000));
+        store(statistics, build("owner/b", "main", "failure", 0, 1000));
+
+        JSONObject all = statistics.toJson(null, now);
+        assertEquals(2, all.getJSONObject("total").getJSONObject("hour").getLong("count"));
+        assertEquals(2, all.getJSONArray("repositories").length());
+        JSONObject filtered = statistics.toJson("owner/b", now);
+        assertEquals(1, filtered.getJSONArray("repositories").length());
+        assertEquals(0.0, filtered.getJSONObject("total").getJSONObject("week").getDouble("successRate"));
+    }
+
+    @Test
+    @DisplayName("Restart reads the snapshot and replays only newer summary rows")
+    void testSnapshotAndReplay() throws Exception {
+        summary.append(build("owner/a", "main", "success", 0, 1000));
+        BuildStatistics first = new BuildStatistics(snapshotFile);
+        first.load(summary);
+        assertTrue(snapshotFile.isFile());
+
+        // Appended after the snapshot, e.g. by a server that crashed before its next snapshot
+        summary.append(build("owner/a", "main", "failure", 0, 1000));
+        summary.append(build("owner/a", "main", "failure", 0, 1000));
+
+        BuildStatistics restarted = new BuildStatistics(snapshotFile);
+        restarted.load(summary);
+        JSONObject hour = restarted.toJson(null, now).getJSONObject("total").getJSONObject("hour");
+        assertEquals(3, hour.getLong("count"));
+        assertEquals(1.0 / 3, hour.getDouble("successRate"), 1e-9);
+    }
+
+    @Test
+    @DisplayName("Builds recorded before loading are not counted twice")
+    void testRecordBeforeLoad() throws Exception {
+        BuildStatistics statistics = new BuildStatistics(snapshotFile);
+        store(statistics, build("owner/a", "main", "success", 0, 1000));
+        assertFalse(statistics.isLoaded());
+        statistics.load(summary);
+
+        assertEquals(1, statistics.toJson(null, now).getJSONObject("total").getJSONObject("hour").getLong("count"));
+    }
+
+    @Test
+    @DisplayName("Invalidating drops the statistics and the snapshot")
+    void testInvalidate() throws Exception {
+        summary.append(build("owner/a", "main", "success", 0, 1000));
+        BuildStatistics statistics = new BuildStatistics(snapshotFile);
+        statistics.load(summary);
+        statistics.invalidate();
+
+        assertFalse(statistics.isLoaded());
+        assertFalse(snapshotFile.exists());
+    }
+
+    @Test
+    @DisplayName("Series without a build in the last week are dropped from the snapshot")
+    void testStaleSeriesDropped() throws Exception {
+        summary.append(build("owner/a", "main", "success", 0, 1000));
+        summary.append(build("owner/a", "dev", "success", 8 * 24 * HOUR, 1000));
+        summary.append(build("owner/b", "main", "success", 8 * 24 * HOUR, 1000));
+        BuildStatistics statistics = new BuildStatistics(snapshotFile);
+        statistics.load(summary);
+
+        JSONObject all = statistics.toJson(null, now);
+        assertEquals(1, all.getJSONArray("repositories").length());
+        JSONObject repository = all.getJSONArray("repositories").getJSONObject(0);
+        assertEquals("owner/a", repository.getString("repository"));
+        String snapshot = Files.readString(snapshotFile.toPath());
+        assertFalse(snapshot.contains("owner/b"));
+        assertFalse(snapshot.contains("\"dev\""));
+    }
+
+    @Test
+    @DisplayName("A snapshot that cannot be written does not fail the recorded build")
+    void testSnapshotWriteFailure() throws Exception {
+        File blocker = new File(tempDir, "blocker");
+        Files.writeString(blocker.toPath(), "");
+        BuildStatistics statistics = new BuildStatistics(new File(blocker, "stats.json"));
+        statistics.load(summary);
+
+        store(statistics, build("owner/a", "main", "success", 0, 1000));
+
+        assertEquals(1, statistics.toJson(null, now).getJSONObject("total").getJSONObject("hour").getLong("count"));
+    }
+
+    @Test
+    @DisplayName("Duration percentiles are within the sketch accuracy")
+    void testSketchAccuracy() {
+        BuildStatistics.DurationSketch first = new BuildStatistics.DurationSketch();
+        BuildStatistics.DurationSketch second = new BuildStatistics.DurationSketch();
+        for (int millis = 1; millis <= 10_000; millis++) {
+            (millis % 2 == 0 ? first : second).add(millis);
+        }
+        first.merge(second);
+
+        double accuracy = BuildStatistics.DurationSketch.RELATIVE_ACCURACY;
+        assertEquals(5000, first.quantile(0.50), 5000 * accuracy + 1);
+        assertEquals(9000, first.quantile(0.90), 9000 * accuracy + 1);
+        assertEquals(9900, first.quantile(0.99), 9900 * accuracy + 1);
+    }
+}
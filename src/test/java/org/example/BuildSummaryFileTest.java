@@ -0,0 +1,170 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildSummaryFileTest {
+    @TempDir
+    File tempDir;
+
+    private BuildSummaryFile summary;
+
+    @BeforeEach
+    void setUp() {
+        summary = new BuildSummaryFile(tempDir);
+    }
+
+    private static JSONObject build(String repository, String branch, String status, String date, long totalMillis) {
+        return new JSONObject()
+            .put("repository", repository)
+            .put("branch", branch)
+            .put("status", status)
+            .put("buildDate", date)
+            .put("queueWaitMillis", 100)
+            .put("durations", new JSONObject().put("totalMillis", totalMillis).put("testMillis", totalMillis / 2));
+    }
+
+    private void appendSample() throws Exception {
+        summary.append(build("owner/a", "main", "success", "2026-03-01T10:00:00Z", 1000));
+        summary.append(build("owner/a", "main", "failure", "2026-03-01T11:00:00Z", 3000));
+        summary.append(build("owner/a", "dev", "success", "2026-03-02T10:00:00Z", 2000));
+        summary.append(build("owner/b", "main", "timedOut", "2026-03-03T10:00:00Z", 5000));
+    }
+
+    @Test
+    @DisplayName("Query without filters aggregates every build")
+    void testQueryAll() throws Exception {
+        appendSample();
+        JSONObject result = summary.query(new BuildSummaryFile.Query());
+
+        assertEquals(4, result.getLong("scannedRows"));
+        assertEquals(4, result.getLong("matchedRows"));
+        JSONObject group = result.getJSONArray("groups").getJSONObject(0);
+        assertEquals(2, group.getLong("success"));
+        assertEquals(1, group.getLong("timedOut"));
+        assertEquals(0.5, group.getDouble("failureRate"));
+        assertEquals(2750, group.getLong("avgDurationMillis"));
+        assertEquals(5000, group.getLong("maxDurationMillis"));
+        assertEquals(100, group.getLong("avgQueueWaitMillis"));
+    }
+
+    @Test
+    @DisplayName("Query filters by repository, branch, status and time")
+    void testQueryFilters() throws Exception {
+        appendSample();
+        BuildSummaryFile.Query query = new BuildSummaryFile.Query();
+        query.repository = "owner/a";
+        query.branch = "main";
+        assertEquals(2, summary.query(query).getLong("matchedRows"));
+
+        query.status = "failure";
+        assertEquals(1, summary.query(query).getLong("matchedRows"));
+
+        BuildSummaryFile.Query window = new BuildSummaryFile.Query();
+        window.sinceMillis = BuildSummaryFile.parseTime("2026-03-02");
+        window.untilMillis = BuildSummaryFile.parseTime("2026-03-03T10:00:00Z");
+        assertEquals(1, summary.query(window).getLong("matchedRows"));
+
+        BuildSummaryFile.Query unknown = new BuildSummaryFile.Query();
+        unknown.repository = "owner/unknown";
+        assertEquals(0, summary.query(unknown).getLong("matchedRows"));
+    }
+
+    @Test
+    @DisplayName("Query groups by repository and by day")
+    void testQueryGroups() throws Exception {
+        appendSample();
+        BuildSummaryFile.Query byRepository = new BuildSummaryFile.Query();
+        byRepository.groupBy = "repository";
+        JSONArray groups = summary.query(byRepository).getJSONArray("groups");
+        assertEquals(2, groups.length());
+        assertEquals("owner/a", groups.getJSONObject(0).getString("repository"));
+        assertEquals(3, groups.getJSONObject(0).getLong("count"));
+        assertEquals("owner/b", groups.getJSONObject(1).getString("repository"));
+
+        BuildSummaryFile.Query byDay = new BuildSummaryFile.Query();
+        byDay.groupBy = "day";
+        groups = summary.query(byDay).getJSONArray("groups");
+        assertEquals(3, groups.length());
+        assertEquals("2026-03-01", groups.getJSONObject(0).getString("day"));
+        assertEquals(2, groups.getJSONObject(0).getLong("count"));
+    }
+
+    @Test
+    @DisplayName("Torn trailing row is cut off before the next append")
+    void testTornRowTruncated() throws Exception {
+        appendSample();
+        File rows = new File(tempDir, "builds.bin");
+        Files.write(rows.toPath(), new byte[7], StandardOpenOption.APPEND);
+        summary.append(build("owner/b", "main", "success", "2026-03-04T10:00:00Z", 1000));
+
+        assertEquals(5L * BuildSummaryFile.ROW_SIZE, rows.length());
+        assertEquals(5, summary.query(new BuildSummaryFile.Query()).getLong("matchedRows"));
+    }
+
+    @Test
+    @DisplayName("Rebuild replaces the rows and dictionaries")
+    void testRebuild() throws Exception {
+        appendSample();
+        summary.rebuild(List.of(build("owner/c", "main", "success", "2026-03-05T10:00:00Z", 1000)));
+
+        BuildSummaryFile reopened = new BuildSummaryFile(tempDir);
+        BuildSummaryFile.Query query = new BuildSummaryFile.Query();
+        query.groupBy = "repository";
+        JSONObject result = reopened.query(query);
+        assertEquals(1, result.getLong("scannedRows"));
+        assertEquals("owner/c", result.getJSONArray("groups").getJSONObject(0).getString("repository"));
+    }
+
+    @Test
+    @DisplayName("Summary file does not exist before the first append")
+    void testExists() throws Exception {
+        assertFalse(summary.exists());
+        summary.append(build("owner/a", "main", "success", "2026-03-01T10:00:00Z", 1000));
+        assertTrue(summary.exists());
+    }
+
+    @Test
+    @DisplayName("Scan of a million rows matches every row")
+    void testScanOfMillionRows() throws Exception {
+        // The scan throughput is measured by BuildSummaryFileBenchmark
+        summary.append(build("owner/a", "main", "success", "2026-03-01T10:00:00Z", 1000));
+        int rows = 1_000_000;
+        ByteBuffer buffer = ByteBuffer.allocate(rows * BuildSummaryFile.ROW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long start = BuildSummaryFile.parseTime("2026-01-01");
+        for (int i = 0; i < rows; i++) {
+            int offset = i * BuildSummaryFile.ROW_SIZE;
+            buffer.putLong(offset, start + i * 60_000L);
+            buffer.put(offset + 16, (byte) (i % 4));
+            buffer.putInt(offset + 24, i % 10_000);
+        }
+        try (FileChannel channel = FileChannel.open(new File(tempDir, "builds.bin").toPath(), StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        BuildSummaryFile.Query query = new BuildSummaryFile.Query();
+        query.groupBy = "day";
+        JSONObject result = summary.query(query);
+
+        assertEquals(rows + 1, result.getLong("matchedRows"));
+    }
+}
@@ -0,0 +1,89 @@
+package org.example;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationListener;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildWaitersTest {
+    private BuildJob job(String id) {
+        return new BuildJob(id, "owner/repo", "", "main", true, "abc123", null, System.currentTimeMillis());
+    }
+
+    @Test
+    @DisplayName("Finished build resumes every waiting request")
+    void testBuildFinishedResumesWaiters() {
+        BuildWaiters waiters = new BuildWaiters();
+        BuildJob job = job("build-1");
+        RecordingContinuation first = new RecordingContinuation();
+        RecordingContinuation second = new RecordingContinuation();
+        assertTrue(waiters.register(job, first));
+        assertTrue(waiters.register(job, second));
+        assertEquals(2, waiters.size());
+
+        job.markFinished();
+        waiters.buildFinished(job);
+
+        assertTrue(first.resumed);
+        assertTrue(second.resumed);
+        assertSame(job, first.getAttribute(BuildWaiters.JOB_ATTRIBUTE));
+        assertEquals(0, waiters.size());
+    }
+
+    @Test
+    @DisplayName("Registering for a finished build is refused")
+    void testRegisterAfterFinishRefused() {
+        BuildWaiters waiters = new BuildWaiters();
+        BuildJob job = job("build-2");
+        job.markFinished();
+
+        assertFalse(waiters.register(job, new RecordingContinuation()));
+        assertEquals(0, waiters.size());
+    }
+
+    @Test
+    @DisplayName("Timed out request can be unregistered")
+    void testUnregister() {
+        BuildWaiters waiters = new BuildWaiters();
+        BuildJob job = job("build-3");
+        RecordingContinuation continuation = new RecordingContinuation();
+        waiters.register(job, continuation);
+        waiters.unregister(job.id, continuation);
+
+        job.markFinished();
+        waiters.buildFinished(job);
+        assertFalse(continuation.resumed);
+    }
+
+    private static final class RecordingContinuation implements Continuation {
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+        boolean resumed;
+
+        public void setTimeout(long timeoutMs) {}
+        public void suspend() {}
+        public void suspend(ServletResponse response) {}
+        public void resume() { resumed = true; }
+        public void complete() {}
+        public boolean isSuspended() { return !resumed; }
+        public boolean isResumed() { return resumed; }
+        public boolean isExpired() { return false; }
+        public boolean isInitial() { return true; }
+        public boolean isResponseWrapped() { return false; }
+        public ServletResponse getServletResponse() { return null; }
+        public void addContinuationListener(ContinuationListener listener) {}
+        public void setAttribute(String name, Object attribute) { attributes.put(name, attribute); }
+        public Object getAttribute(String name) { return attributes.get(name); }
+        public void removeAttribute(String name) { attributes.remove(name); }
+        public void undispatch() {}
+    }
+}
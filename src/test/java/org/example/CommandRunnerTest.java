@@ -4,9 +4,14 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
 
 class CommandRunnerTest {
     @TempDir
@@ -108,4 +113,55 @@ class CommandRunnerTest {
             fail("Test resulted in an exception");
         }
     }
+
+    private File writeStubWrapper(String script) throws Exception {
+        File wrapper = new File(tempDir, "gradlew");
+        Files.write(wrapper.toPath(), ("#!/bin/sh\n" + script).getBytes(StandardCharsets.UTF_8));
+        assertTrue(wrapper.setExecutable(true));
+        return wrapper;
+    }
+
+    @Test
+    @DisplayName("Timed out command has its whole process tree killed")
+    void testTimeoutKillsProcessTree() throws Exception {
+        assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"));
+        File pidFile = new File(tempDir, "pids");
+        // Two children, one of which forks a grandchild, all recording their PIDs
+        writeStubWrapper(
+            "sleep 300 & echo $! >> " + pidFile + "\n"
+            + "sh -c 'sleep 300 & echo $! >> " + pidFile + "; echo $$ >> " + pidFile + "; wait' &\n"
+            + "echo started\n"
+            + "wait\n"
+        );
+
+        long start = System.currentTimeMillis();
+        CommandRunner.CommandResult result = CommandRunner.buildRepoWithLogs(tempDir.getAbsolutePath(), 1000);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue(result.timedOut);
+        assertFalse(result.success);
+        assertTrue(result.output.contains("started"));
+        assertTrue(result.output.contains("timed out"));
+        assertTrue(elapsed < 30000, "took " + elapsed + " ms");
+
+        List<String> pids = Files.readAllLines(pidFile.toPath());
+        assertEquals(3, pids.size());
+        for (String pid : pids) {
+            Optional<ProcessHandle> process = ProcessHandle.of(Long.parseLong(pid.trim()));
+            assertFalse(process.map(ProcessHandle::isAlive).orElse(false), "process " + pid + " still alive");
+        }
+    }
+
+    @Test
+    @DisplayName("Command finishing within the timeout succeeds")
+    void testCommandWithinTimeoutSucceeds() throws Exception {
+        assumeFalse(System.getProperty("os.name").toLowerCase().contains("win"));
+        writeStubWrapper("echo built\n");
+
+        CommandRunner.CommandResult result = CommandRunner.buildRepoWithLogs(tempDir.getAbsolutePath(), 10000);
+
+        assertTrue(result.success);
+        assertFalse(result.timedOut);
+        assertTrue(result.output.contains("built"));
+    }
 }
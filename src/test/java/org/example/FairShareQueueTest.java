@@ -0,0 +1,85 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FairShareQueueTest {
+    private static final long HOUR = 3_600_000;
+
+    private BuildJob job(String repository, String branch, long queuedAt) {
+        boolean defaultBranch = "main".equals(branch);
+        return new BuildJob(repository + "-" + queuedAt, repository, "", branch, defaultBranch, "", null, queuedAt);
+    }
+
+    private List<String> drain(FairShareQueue queue, long now, double weightOfA) {
+        List<String> order = new ArrayList<String>();
+        BuildJob next;
+        while ((next = queue.peek(now)) != null) {
+            queue.remove(next, "a/a".equals(next.repository) ? weightOfA : 1);
+            order.add(next.repository);
+        }
+        return order;
+    }
+
+    @Test
+    @DisplayName("Push storm of one repository does not starve another")
+    void testRepositoriesAlternate() {
+        FairShareQueue queue = new FairShareQueue(HOUR);
+        for (int i = 0; i < 4; i++) {
+            queue.add(job("a/a", "feature", i));
+        }
+        queue.add(job("b/b", "feature", 10));
+
+        assertEquals(List.of("a/a", "b/b", "a/a", "a/a", "a/a"), drain(queue, 100, 1));
+    }
+
+    @Test
+    @DisplayName("Weights give repositories proportional shares")
+    void testWeights() {
+        FairShareQueue queue = new FairShareQueue(HOUR);
+        for (int i = 0; i < 4; i++) {
+            queue.add(job("a/a", "feature", i));
+            queue.add(job("b/b", "feature", i));
+        }
+
+        List<String> order = drain(queue, 100, 2).subList(0, 6);
+        assertEquals(4, order.stream().filter("a/a"::equals).count());
+    }
+
+    @Test
+    @DisplayName("Default-branch builds go before feature-branch builds")
+    void testDefaultBranchPriority() {
+        FairShareQueue queue = new FairShareQueue(HOUR);
+        queue.add(job("a/a", "feature", 1));
+        BuildJob main = job("b/b", "main", 2);
+        queue.add(main);
+
+        assertEquals(main, queue.peek(100));
+    }
+
+    @Test
+    @DisplayName("Job waiting past the starvation limit goes first")
+    void testAntiStarvation() {
+        FairShareQueue queue = new FairShareQueue(1000);
+        BuildJob old = job("a/a", "feature", 0);
+        queue.add(old);
+        queue.add(job("b/b", "main", 500));
+
+        assertEquals("b/b", queue.peek(600).repository);
+        assertEquals(old, queue.peek(1500));
+    }
+
+    @Test
+    @DisplayName("Empty queue has no next job")
+    void testEmptyQueue() {
+        FairShareQueue queue = new FairShareQueue(HOUR);
+        assertNull(queue.peek(0));
+        assertEquals(0, queue.size());
+    }
+}
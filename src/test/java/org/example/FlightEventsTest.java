@@ -0,0 +1,119 @@
+package org.example;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.example.util.Utils;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlightEventsTest {
+    private static final String OWNER = "test_flight_owner123";
+    private static final String REPOSITORY = OWNER + "/repo";
+    private static final Path OWNER_DIRECTORY = Paths.get(Utils.dataDir().getPath(), "repositories", OWNER);
+    private static final Path SUMMARY_DIRECTORY = Paths.get(Utils.dataDir().getPath(), "summary");
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteTestBuilds();
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        deleteTestBuilds();
+    }
+
+    /**
+     * Runs an action while recording one event type and returns the recorded events.
+     */
+    private static List<RecordedEvent> record(String eventName, Action action) throws Exception {
+        Path file = Files.createTempFile("flight-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(eventName).withoutThreshold();
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    @Test
+    @DisplayName("Every process records its command, exit code and output size")
+    void testCommandEvent() throws Exception {
+        List<RecordedEvent> events = record("org.example.Command", () -> {
+            CommandRunner.runCommandWithOutput(CommandRunner.NO_TIMEOUT, "sh", "-c", "printf hello; exit 3");
+        });
+
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("sh -c printf hello; exit 3", event.getString("command"));
+        assertEquals(3, event.getInt("exitCode"));
+        assertEquals(5, event.getLong("outputBytes"));
+        assertFalse(event.getBoolean("timedOut"));
+    }
+
+    @Test
+    @DisplayName("Store calls record the records and bytes they read")
+    void testStoreCallEvent() throws Exception {
+        BuildHistoryStore.appendBuild(REPOSITORY, new JSONObject().put("id", "flight-1").put("branch", "main"));
+        BuildHistoryStore.appendBuild(REPOSITORY, new JSONObject().put("id", "flight-2").put("branch", "main"));
+        long fileSize = Files.size(OWNER_DIRECTORY.resolve("repo").resolve("builds.json"));
+
+        List<RecordedEvent> events = record("org.example.StoreCall", () -> BuildHistoryStore.listBuilds(REPOSITORY));
+
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("listBuilds", event.getString("operation"));
+        assertEquals(REPOSITORY, event.getString("repository"));
+        assertEquals(2, event.getLong("recordsScanned"));
+        assertEquals(fileSize, event.getLong("bytesRead"));
+    }
+
+    @Test
+    @DisplayName("Failed status posts record the error")
+    void testStatusPostEvent() throws Exception {
+        List<RecordedEvent> events = record("org.example.StatusPost", () -> assertThrows(IOException.class,
+            () -> GitHubStatusClient.postStatus("not a url", "pending", "Build started", "ctx", "token")));
+
+        assertEquals(1, events.size());
+        RecordedEvent event = events.get(0);
+        assertEquals("pending", event.getString("state"));
+        assertEquals(0, event.getInt("responseCode"));
+        assertTrue(event.getString("error").contains("Invalid statuses URL"));
+    }
+
+    private static void deleteTestBuilds() throws IOException {
+        for (Path directory : List.of(OWNER_DIRECTORY, SUMMARY_DIRECTORY)) {
+            if (Files.exists(directory)) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+}
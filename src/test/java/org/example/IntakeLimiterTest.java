@@ -0,0 +1,62 @@
+package org.example;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntakeLimiterTest {
+    @Test
+    @DisplayName("Repository burst is admitted, then limited to the refill rate")
+    void testRepositoryRate() {
+        IntakeLimiter limiter = new IntakeLimiter(100, 6, 3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.admit("owner/repo", 0, 0).admitted);
+        }
+        IntakeLimiter.Decision limited = limiter.admit("owner/repo", 0, 0);
+        assertFalse(limited.admitted);
+        assertEquals("repository-rate", limited.reason);
+        assertEquals(10, limited.retryAfterSeconds);
+
+        // Other repositories have their own bucket
+        assertTrue(limiter.admit("owner/other", 0, 0).admitted);
+        assertFalse(limiter.admit("owner/repo", 0, 9000).admitted);
+        assertTrue(limiter.admit("owner/repo", 0, 10000).admitted);
+    }
+
+    @Test
+    @DisplayName("Full queue rejects every repository")
+    void testQueueFull() {
+        IntakeLimiter limiter = new IntakeLimiter(2, 60, 20);
+        assertTrue(limiter.admit("owner/repo", 1, 0).admitted);
+        IntakeLimiter.Decision full = limiter.admit("owner/other", 2, 0);
+        assertFalse(full.admitted);
+        assertEquals("queue-full", full.reason);
+        assertTrue(full.retryAfterSeconds > 0);
+
+        limiter.recordDuplicate();
+        JSONObject metrics = limiter.metrics();
+        assertEquals(1, metrics.getLong("admitted"));
+        assertEquals(1, metrics.getJSONObject("rejected").getLong("queue-full"));
+        assertEquals(1, metrics.getLong("duplicates"));
+    }
+
+    @Test
+    @DisplayName("A burst over many repositories admits each one's burst and refill")
+    void testBurstAdmitted() {
+        // The time per check is measured by IntakeLimiterBenchmark
+        IntakeLimiter limiter = new IntakeLimiter(500, 60, 20);
+        int requests = 1_000_000;
+        int admitted = 0;
+        for (int i = 0; i < requests; i++) {
+            if (limiter.admit("owner/repo-" + (i % 1000), 0, i / 100).admitted) {
+                admitted++;
+            }
+        }
+        // 1000 repositories with a burst of 20 and 10 s of refill at one build per second each
+        assertTrue(admitted >= 20_000 && admitted <= 31_000, "admitted " + admitted);
+    }
+}
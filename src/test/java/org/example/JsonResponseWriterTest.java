@@ -0,0 +1,96 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonResponseWriterTest {
+    private static String writeArray(boolean gzip, boolean pretty, JSONObject... elements) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JsonResponseWriter json = new JsonResponseWriter(output, gzip, pretty)) {
+            json.beginArray();
+            for (JSONObject element : elements) {
+                json.element(element);
+            }
+            json.endArray();
+        }
+        byte[] bytes = output.toByteArray();
+        if (gzip) {
+            try (GZIPInputStream input = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                bytes = input.readAllBytes();
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    @DisplayName("Streamed array is compact by default")
+    void testCompactArray() throws Exception {
+        String body = writeArray(false, false, new JSONObject().put("id", "a"), new JSONObject().put("id", "b"));
+
+        assertEquals("[{\"id\":\"a\"},{\"id\":\"b\"}]\n", body);
+    }
+
+    @Test
+    @DisplayName("Pretty streamed array matches the indented array")
+    void testPrettyArray() throws Exception {
+        JSONObject first = new JSONObject().put("id", "a").put("status", "success");
+        JSONObject second = new JSONObject().put("id", "b").put("status", "failure");
+        String body = writeArray(false, true, first, second);
+
+        assertEquals(new JSONArray().put(first).put(second).toString(2) + "\n", body);
+        assertEquals("[]\n", writeArray(false, true));
+    }
+
+    @Test
+    @DisplayName("Gzip output decompresses to the same JSON")
+    void testGzip() throws Exception {
+        String body = writeArray(true, false, new JSONObject().put("id", "a"));
+
+        assertEquals("[{\"id\":\"a\"}]\n", body);
+    }
+
+    @Test
+    @DisplayName("Gzip is used only when the client accepts it")
+    void testAcceptsGzip() {
+        assertTrue(JsonResponseWriter.acceptsGzip("gzip, deflate, br"));
+        assertTrue(JsonResponseWriter.acceptsGzip("deflate;q=1.0, gzip;q=0.5"));
+        assertTrue(JsonResponseWriter.acceptsGzip("*"));
+        assertFalse(JsonResponseWriter.acceptsGzip("gzip;q=0"));
+        assertFalse(JsonResponseWriter.acceptsGzip("*, gzip;q=0"));
+        assertTrue(JsonResponseWriter.acceptsGzip("*;q=0, gzip"));
+        assertFalse(JsonResponseWriter.acceptsGzip("*;q=0"));
+        assertFalse(JsonResponseWriter.acceptsGzip("identity"));
+        assertFalse(JsonResponseWriter.acceptsGzip(null));
+    }
+
+    @Test
+    @DisplayName("If-None-Match uses weak comparison and accepts lists")
+    void testEtagMatches() {
+        assertTrue(JsonResponseWriter.etagMatches("W/\"abc-1\"", "W/\"abc-1\""));
+        assertTrue(JsonResponseWriter.etagMatches("\"abc-1\"", "W/\"abc-1\""));
+        assertTrue(JsonResponseWriter.etagMatches("\"x\", W/\"abc-1\"", "W/\"abc-1\""));
+        assertTrue(JsonResponseWriter.etagMatches("*", "W/\"abc-1\""));
+        assertFalse(JsonResponseWriter.etagMatches("W/\"abc-0\"", "W/\"abc-1\""));
+    }
+
+    @Test
+    @DisplayName("Only an explicitly listed ETag proves the client holds it")
+    void testEtagListed() {
+        assertTrue(JsonResponseWriter.etagListed("\"x\", W/\"abc-1\"", "W/\"abc-1\""));
+        assertFalse(JsonResponseWriter.etagListed("*", "W/\"abc-1\""));
+        assertFalse(JsonResponseWriter.etagListed("W/\"1\"", "W/\"abc-1\""));
+        assertFalse(JsonResponseWriter.etagListed(null, "W/\"abc-1\""));
+    }
+}
@@ -0,0 +1,72 @@
+package org.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PipelineDefinitionTest {
+    private static PipelineDefinition pipeline(String stages) {
+        return PipelineDefinition.of(RepositorySettings.of(new JSONObject().put("stages", new JSONArray(stages))));
+    }
+
+    @Test
+    @DisplayName("Repository without stages builds and then tests")
+    void testDefaultPipeline() {
+        PipelineDefinition pipeline = PipelineDefinition.of(RepositorySettings.of(new JSONObject()));
+
+        assertSame(PipelineDefinition.DEFAULT, pipeline);
+        assertEquals("test", pipeline.testStage().name);
+        assertTrue(pipeline.runsAlone("build"));
+        assertTrue(pipeline.runsAlone("test"));
+    }
+
+    @Test
+    @DisplayName("Stages are ordered after their dependencies and parallel stages get worktrees")
+    void testStageGraph() {
+        PipelineDefinition pipeline = pipeline("["
+            + "{\"name\": \"checks\", \"gradle\": [\"checkstyleMain\"], \"needs\": [\"build\"]},"
+            + "{\"name\": \"unit\", \"tests\": true, \"needs\": [\"build\"]},"
+            + "{\"name\": \"build\", \"gradle\": [\"assemble\"]},"
+            + "{\"name\": \"publish\", \"gradle\": [\"publish\"], \"needs\": [\"unit\", \"checks\"]}"
+            + "]");
+
+        List<String> order = pipeline.stages().stream().map(stage -> stage.name).collect(Collectors.toList());
+        assertEquals(List.of("build", "checks", "unit", "publish"), order);
+        assertTrue(pipeline.dependsOn("publish", "build"));
+        assertFalse(pipeline.dependsOn("unit", "checks"));
+        assertTrue(pipeline.runsAlone("build"));
+        assertTrue(pipeline.runsAlone("publish"));
+        assertFalse(pipeline.runsAlone("unit"));
+        assertFalse(pipeline.runsAlone("checks"));
+    }
+
+    @Test
+    @DisplayName("Malformed stages are rejected")
+    void testInvalidStages() {
+        assertThrows(IllegalArgumentException.class, () -> pipeline("[]"));
+        assertThrows(IllegalArgumentException.class, () -> pipeline(
+            "[{\"name\": \"a\", \"gradle\": [\"a\"], \"needs\": [\"b\"]}, {\"name\": \"b\", \"gradle\": [\"b\"], \"needs\": [\"a\"]}]"
+        ));
+        assertThrows(IllegalArgumentException.class, () -> pipeline(
+            "[{\"name\": \"a\", \"gradle\": [\"a\"], \"needs\": [\"missing\"]}]"
+        ));
+        assertThrows(IllegalArgumentException.class, () -> pipeline(
+            "[{\"name\": \"a\", \"tests\": true}, {\"name\": \"b\", \"tests\": true}]"
+        ));
+        assertThrows(IllegalArgumentException.class, () -> pipeline("[{\"name\": \"../a\", \"gradle\": [\"a\"]}]"));
+        assertThrows(IllegalArgumentException.class, () -> pipeline("[{\"name\": \"a\"}]"));
+        assertThrows(IllegalArgumentException.class, () -> pipeline(
+            "[{\"name\": \"a\", \"gradle\": [\"a\"]}, {\"name\": \"a\", \"gradle\": [\"b\"]}]"
+        ));
+    }
+}
@@ -0,0 +1,87 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResourceMonitorTest {
+    @TempDir
+    File tempDir;
+
+    private final ResourceMonitor.Snapshot host = new ResourceMonitor.Snapshot(4, 0.2, 8192, 16384);
+
+    @Test
+    @DisplayName("Idle host always admits a build")
+    void testIdleAdmits() {
+        ResourceMonitor.Snapshot busy = new ResourceMonitor.Snapshot(1, 1.0, 0, 0);
+        assertTrue(ResourceMonitor.decide(busy, 0, 0, 0, 8, 65536).admitted);
+    }
+
+    @Test
+    @DisplayName("Build is deferred when reserved cores would exceed the host")
+    void testCpuReservationDefers() {
+        ResourceMonitor.Decision decision = ResourceMonitor.decide(host, 1, 3, 1024, 2, 1024);
+        assertFalse(decision.admitted);
+        assertEquals("cpu-reserved", decision.reason);
+    }
+
+    @Test
+    @DisplayName("Build is deferred when free memory does not cover its hint")
+    void testFreeMemoryDefers() {
+        ResourceMonitor.Decision decision = ResourceMonitor.decide(host, 1, 1, 1024, 1, 10000);
+        assertFalse(decision.admitted);
+        assertEquals("memory-free", decision.reason);
+    }
+
+    @Test
+    @DisplayName("Build is deferred when CPU load is saturated")
+    void testCpuLoadDefers() {
+        ResourceMonitor.Snapshot loaded = new ResourceMonitor.Snapshot(4, 0.95, 8192, 16384);
+        ResourceMonitor.Decision decision = ResourceMonitor.decide(loaded, 1, 1, 1024, 1, 1024);
+        assertFalse(decision.admitted);
+        assertEquals("cpu-load", decision.reason);
+    }
+
+    @Test
+    @DisplayName("Build is admitted when resources are available")
+    void testCapacityAdmits() {
+        assertTrue(ResourceMonitor.decide(host, 1, 1, 1024, 2, 1024).admitted);
+    }
+
+    @Test
+    @DisplayName("Snapshot applies cgroup v2 CPU quota and memory limit")
+    void testCgroupLimits() throws IOException {
+        Files.writeString(new File(tempDir, "cpu.max").toPath(), "50000 100000\n");
+        Files.writeString(new File(tempDir, "memory.max").toPath(), String.valueOf(512L * 1024 * 1024));
+        Files.writeString(new File(tempDir, "memory.current").toPath(), String.valueOf(128L * 1024 * 1024));
+
+        ResourceMonitor monitor = new ResourceMonitor(ManagementFactory.getOperatingSystemMXBean(), tempDir,
+            new File(tempDir, "meminfo"));
+        ResourceMonitor.Snapshot snapshot = monitor.snapshot();
+        assertEquals(0.5, snapshot.cores);
+        assertEquals(512, snapshot.memoryLimitMb);
+        assertTrue(snapshot.freeMemoryMb <= 384);
+    }
+
+    @Test
+    @DisplayName("Free memory is MemAvailable, which includes reclaimable page cache")
+    void testMemAvailable() throws IOException {
+        File meminfo = new File(tempDir, "meminfo");
+        Files.writeString(meminfo.toPath(), "MemTotal:       16777216 kB\n"
+            + "MemFree:          524288 kB\n"
+            + "MemAvailable:    8388608 kB\n"
+            + "Cached:          7340032 kB\n");
+
+        ResourceMonitor monitor = new ResourceMonitor(ManagementFactory.getOperatingSystemMXBean(), tempDir, meminfo);
+        assertEquals(8192, monitor.snapshot().freeMemoryMb);
+    }
+}
@@ -0,0 +1,75 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShardedTestRunnerTest {
+    private ShardedTestRunner.TestClass testClass(String task, String name, long millis) {
+        return new ShardedTestRunner.TestClass(task, name, millis);
+    }
+
+    @Test
+    @DisplayName("Plan shards balances recorded durations")
+    void testPlanShardsBalancesDurations() {
+        List<List<ShardedTestRunner.TestClass>> shards = ShardedTestRunner.planShards(List.of(
+            testClass(":test", "a.A", 100),
+            testClass(":test", "a.B", 600),
+            testClass(":test", "a.C", 300),
+            testClass(":test", "a.D", 300)
+        ), 2);
+
+        assertEquals(2, shards.size());
+        assertEquals(List.of("a.B", "a.A"), shards.get(0).stream().map(c -> c.className).toList());
+        assertEquals(List.of("a.C", "a.D"), shards.get(1).stream().map(c -> c.className).toList());
+    }
+
+    @Test
+    @DisplayName("Plan shards drops shards that receive no classes")
+    void testPlanShardsDropsEmptyShards() {
+        List<List<ShardedTestRunner.TestClass>> shards = ShardedTestRunner.planShards(List.of(
+            testClass(":test", "a.A", 100)
+        ), 3);
+
+        assertEquals(1, shards.size());
+    }
+
+    @Test
+    @DisplayName("Gradle arguments filter each task by its classes")
+    void testGradleArguments() {
+        List<String> arguments = ShardedTestRunner.gradleArguments(List.of(
+            testClass(":core:test", "a.A", 100),
+            testClass(":api:test", "b.B", 100),
+            testClass(":core:test", "a.C", 100)
+        ));
+
+        assertEquals(List.of(
+            ":api:test", "--tests", "b.B",
+            ":core:test", "--tests", "a.A", "--tests", "a.C"
+        ), arguments);
+    }
+
+    @Test
+    @DisplayName("Test classes are named by package and declaration, skipping abstract classes and mentions")
+    void testTestClasses() {
+        assertEquals(List.of("a.b.ConcreteTest"), ShardedTestRunner.testClasses(
+            "package a.b;\n"
+            + "import org.junit.jupiter.api.Test;\n"
+            + "abstract class BaseTest { @Test void inherited() {} }\n"
+            + "public class ConcreteTest extends BaseTest {\n"
+            + "    static class Nested {}\n"
+            + "    @Test void run() { Object type = String.class; }\n"
+            + "}\n"
+        ));
+        // Kotlin file named differently from its class
+        assertEquals(List.of("c.SpecTest"), ShardedTestRunner.testClasses(
+            "package c\n\nclass SpecTest {\n    @Test fun works() {}\n}\n"
+        ));
+        assertEquals(List.of(), ShardedTestRunner.testClasses(
+            "package d;\n/** Use @Test on methods. */\nclass Helper { String s = \"@Test\"; }\n"
+        ));
+    }
+}
@@ -0,0 +1,118 @@
+package org.example;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageExecutorTest {
+    private static final String DIAMOND = "["
+        + "{\"name\": \"build\", \"gradle\": [\"assemble\"]},"
+        + "{\"name\": \"unit\", \"tests\": true, \"needs\": [\"build\"]},"
+        + "{\"name\": \"checks\", \"gradle\": [\"check\"], \"needs\": [\"build\"]},"
+        + "{\"name\": \"publish\", \"gradle\": [\"publish\"], \"needs\": [\"unit\", \"checks\"]}"
+        + "]";
+
+    private static PipelineDefinition pipeline(String stages) {
+        return PipelineDefinition.of(RepositorySettings.of(new JSONObject().put("stages", new JSONArray(stages))));
+    }
+
+    /**
+     * Runs a stage by sleeping for its configured time and succeeding unless it is listed as failing.
+     */
+    private static StageExecutor.StageRunner sleeping(Map<String, Long> millis, List<String> failing) {
+        return stage -> {
+            Thread.sleep(millis.getOrDefault(stage.name, 0L));
+            return new CommandRunner.CommandResult(!failing.contains(stage.name), stage.name + " done\n");
+        };
+    }
+
+    private static Map<String, String> statuses(List<StageExecutor.StageResult> results) {
+        return results.stream().collect(Collectors.toMap(result -> result.stage.name, result -> result.status));
+    }
+
+    @Test
+    @DisplayName("Independent stages run concurrently and the critical path is the slower branch")
+    void testParallelStages() throws Exception {
+        long start = System.currentTimeMillis();
+        List<String> finishOrder = new CopyOnWriteArrayList<String>();
+        List<StageExecutor.StageResult> results = StageExecutor.run(
+            pipeline(DIAMOND), true, start,
+            sleeping(Map.of("build", 100L, "unit", 400L, "checks", 400L, "publish", 100L), List.of()),
+            result -> finishOrder.add(result.stage.name)
+        );
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(Map.of("build", "success", "unit", "success", "checks", "success", "publish", "success"),
+            statuses(results));
+        assertTrue(elapsed < 900, "stages took " + elapsed + " ms");
+        assertEquals("build", finishOrder.get(0));
+        assertEquals("publish", finishOrder.get(3));
+
+        JSONObject criticalPath = StageExecutor.criticalPath(results);
+        List<Object> path = criticalPath.getJSONArray("stages").toList();
+        assertEquals(3, path.size());
+        assertEquals("build", path.get(0));
+        assertEquals("publish", path.get(2));
+        assertTrue(criticalPath.getLong("durationMillis") >= 600);
+    }
+
+    @Test
+    @DisplayName("Failed stage cancels running stages and skips its dependents")
+    void testFailFast() throws Exception {
+        Map<String, Boolean> interrupted = new ConcurrentHashMap<String, Boolean>();
+        StageExecutor.StageRunner runner = stage -> {
+            if ("unit".equals(stage.name)) {
+                return new CommandRunner.CommandResult(false, "1 test failed\n");
+            }
+            try {
+                Thread.sleep("checks".equals(stage.name) ? 10000 : 0);
+            } catch (InterruptedException e) {
+                interrupted.put(stage.name, true);
+                throw e;
+            }
+            return new CommandRunner.CommandResult(true, "");
+        };
+        long start = System.currentTimeMillis();
+        List<StageExecutor.StageResult> results = StageExecutor.run(pipeline(DIAMOND), true, start, runner, result -> {});
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(Map.of("build", "success", "unit", "failure", "checks", "cancelled", "publish", "skipped"),
+            statuses(results));
+        assertTrue(interrupted.containsKey("checks"));
+    }
+
+    @Test
+    @DisplayName("Without fail-fast independent stages finish")
+    void testNoFailFast() throws Exception {
+        List<StageExecutor.StageResult> results = StageExecutor.run(
+            pipeline(DIAMOND), false, System.currentTimeMillis(),
+            sleeping(Map.of("checks", 200L), List.of("unit")), result -> {}
+        );
+
+        assertEquals(Map.of("build", "success", "unit", "failure", "checks", "success", "publish", "skipped"),
+            statuses(results));
+        assertEquals(-1, results.get(3).startOffsetMillis);
+    }
+
+    @Test
+    @DisplayName("Timed out stage is reported as timed out")
+    void testTimedOutStage() throws Exception {
+        List<StageExecutor.StageResult> results = StageExecutor.run(
+            pipeline("[{\"name\": \"build\", \"gradle\": [\"assemble\"]}, {\"name\": \"test\", \"tests\": true, \"needs\": [\"build\"]}]"),
+            true, System.currentTimeMillis(),
+            stage -> new CommandRunner.CommandResult(false, "killed\n", true), result -> {}
+        );
+
+        assertEquals(Map.of("build", "timedOut", "test", "skipped"), statuses(results));
+    }
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestReportParserTest {
+    private static final String REPORT =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<testsuite name=\"org.example.FooTest\" tests=\"3\">\n"
+        + "  <testcase name=\"passes\" classname=\"org.example.FooTest\" time=\"0.25\"/>\n"
+        + "  <testcase name=\"fails\" classname=\"org.example.FooTest\" time=\"1.5\">\n"
+        + "    <failure message=\"boom\">stack</failure>\n"
+        + "  </testcase>\n"
+        + "  <testcase name=\"ignored\" classname=\"org.example.FooTest\" time=\"0\"><skipped/></testcase>\n"
+        + "</testsuite>\n";
+
+    @TempDir
+    File tempDir;
+
+    private File writeReport(String path) throws IOException {
+        File report = new File(tempDir, path);
+        report.getParentFile().mkdirs();
+        Files.writeString(report.toPath(), REPORT);
+        return report;
+    }
+
+    @Test
+    @DisplayName("Parse reads name, class, duration and outcome")
+    void testParseRootReport() throws IOException {
+        writeReport("build/test-results/test/TEST-org.example.FooTest.xml");
+        List<TestReportParser.TestCaseResult> results = TestReportParser.parse(tempDir, 0);
+
+        assertEquals(3, results.size());
+        TestReportParser.TestCaseResult failed = results.get(1);
+        assertEquals(":test", failed.task);
+        assertEquals("org.example.FooTest", failed.className);
+        assertEquals("fails", failed.name);
+        assertEquals(1500, failed.durationMillis);
+        assertEquals("failed", failed.outcome);
+        assertEquals("passed", results.get(0).outcome);
+        assertEquals("skipped", results.get(2).outcome);
+    }
+
+    @Test
+    @DisplayName("Parse maps subproject reports to their task path")
+    void testParseSubprojectReport() throws IOException {
+        writeReport("libs/core/build/test-results/integrationTest/TEST-org.example.FooTest.xml");
+        List<TestReportParser.TestCaseResult> results = TestReportParser.parse(tempDir, 0);
+
+        assertEquals(3, results.size());
+        assertEquals(":libs:core:integrationTest", results.get(0).task);
+    }
+
+    @Test
+    @DisplayName("Parse ignores reports older than the test stage")
+    void testParseIgnoresStaleReports() throws IOException {
+        File report = writeReport("build/test-results/test/TEST-org.example.FooTest.xml");
+        assertTrue(report.setLastModified(1000));
+        assertTrue(TestReportParser.parse(tempDir, 2000).isEmpty());
+    }
+}
@@ -0,0 +1,113 @@
+package org.example;
+
+import org.example.util.Utils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestResultStoreTest {
+    private static final String OWNER = "test_owner456";
+    private static final String FULL_REPOSITORY_NAME = OWNER + "/test_repository456";
+    private static final Path OWNER_DIRECTORY = Paths.get(Utils.dataDir().getPath(), "repositories", OWNER);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteTestDirectory();
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        deleteTestDirectory();
+    }
+
+    private TestReportParser.TestCaseResult result(String name, long millis, String outcome) {
+        return new TestReportParser.TestCaseResult(":test", "org.example.FooTest", name, millis, outcome);
+    }
+
+    @Test
+    @DisplayName("Slowest tests are ordered by average duration")
+    void testSlowestTests() throws IOException {
+        TestResultStore.appendResults(FULL_REPOSITORY_NAME, "b1", "c1",
+            List.of(result("fast", 10, "passed"), result("slow", 900, "passed")));
+        TestResultStore.appendResults(FULL_REPOSITORY_NAME, "b2", "c2",
+            List.of(result("fast", 30, "passed"), result("slow", 1100, "passed")));
+
+        JSONArray slowest = TestResultStore.slowestTests(FULL_REPOSITORY_NAME, 1, TestResultStore.DEFAULT_WINDOW);
+        assertEquals(1, slowest.length());
+        JSONObject top = slowest.getJSONObject(0);
+        assertEquals("slow", top.getString("name"));
+        assertEquals(1000, top.getLong("averageMillis"));
+        assertEquals(1100, top.getLong("maxMillis"));
+    }
+
+    @Test
+    @DisplayName("Test failing and passing on the same commit is flaky")
+    void testFlakyTests() throws IOException {
+        TestResultStore.appendResults(FULL_REPOSITORY_NAME, "b1", "c1",
+            List.of(result("flaky", 10, "failed"), result("stable", 10, "passed")));
+        TestResultStore.appendResults(FULL_REPOSITORY_NAME, "b2", "c1",
+            List.of(result("flaky", 10, "passed"), result("stable", 10, "passed")));
+
+        JSONArray flaky = TestResultStore.flakyTests(FULL_REPOSITORY_NAME, TestResultStore.DEFAULT_WINDOW);
+        assertEquals(1, flaky.length());
+        assertEquals("flaky", flaky.getJSONObject(0).getString("name"));
+        assertTrue(flaky.getJSONObject(0).getBoolean("failedAndPassedOnSameCommit"));
+    }
+
+    @Test
+    @DisplayName("Class durations sum test cases per build")
+    void testAverageClassDurations() throws IOException {
+        TestResultStore.appendResults(FULL_REPOSITORY_NAME, "b1", "c1",
+            List.of(result("a", 100, "passed"), result("b", 200, "passed")));
+        TestResultStore.appendResults(FULL_REPOSITORY_NAME, "b2", "c2",
+            List.of(result("a", 300, "passed"), result("b", 400, "passed")));
+
+        Map<String, Long> durations = TestResultStore.averageClassDurations(FULL_REPOSITORY_NAME, TestResultStore.DEFAULT_WINDOW);
+        assertEquals(500L, durations.get(":test org.example.FooTest"));
+    }
+
+    @Test
+    @DisplayName("Queries read only the most recent builds of the window")
+    void testWindow() throws IOException {
+        TestResultStore.appendResults(FULL_REPOSITORY_NAME, "b1", "c1", List.of(result("a", 5000, "passed")));
+        for (int i = 2; i <= 200; i++) {
+            TestResultStore.appendResults(FULL_REPOSITORY_NAME, "b" + i, "c" + i, List.of(result("a", 100, "passed")));
+        }
+        // A blank line, as left by an interrupted append, is not counted as a build
+        Files.writeString(OWNER_DIRECTORY.resolve("test_repository456").resolve("test-results.jsonl"), "\n",
+            StandardOpenOption.APPEND);
+
+        assertEquals(100, TestResultStore.slowestTests(FULL_REPOSITORY_NAME, 1, 3).getJSONObject(0).getLong("maxMillis"));
+        JSONObject all = TestResultStore.slowestTests(FULL_REPOSITORY_NAME, 1, 1000).getJSONObject(0);
+        assertEquals(5000, all.getLong("maxMillis"));
+        assertEquals((5000 + 199 * 100) / 200, all.getLong("averageMillis"));
+        assertEquals(0, TestResultStore.slowestTests(FULL_REPOSITORY_NAME, 1, 0).length());
+    }
+
+    private static void deleteTestDirectory() throws IOException {
+        if (Files.exists(OWNER_DIRECTORY)) {
+            try (Stream<Path> files = Files.walk(OWNER_DIRECTORY)) {
+                List<Path> sortedFiles = files.sorted(Comparator.reverseOrder()).toList();
+                for (Path file : sortedFiles) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.example;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestSelectorTest {
+    @TempDir
+    File tempDir;
+
+    private void writeProject() throws IOException {
+        write("settings.gradle", "rootProject.name = 'multi'\ninclude 'core', 'api'\ninclude(\n  ':app'\n)\n");
+        write("core/build.gradle", "plugins { id 'java' }\n");
+        write("api/build.gradle", "dependencies { implementation project(':core') }\n");
+        write("app/build.gradle", "dependencies { implementation project(path: ':api') }\n");
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(tempDir, path);
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content);
+    }
+
+    @Test
+    @DisplayName("Change in a leaf module only tests that module")
+    void testLeafModuleChange() throws IOException {
+        writeProject();
+        TestSelector.Selection selection = TestSelector.selectForChanges(
+            tempDir, List.of("app/src/main/java/App.java"), "base");
+
+        assertFalse(selection.full);
+        assertEquals(List.of(":app"), selection.testedModules);
+        assertEquals(List.of(":api", ":core"), selection.skippedModules);
+        assertEquals(List.of(":app:test"), selection.testTasks());
+    }
+
+    @Test
+    @DisplayName("Change in a shared module also tests its dependents")
+    void testDependentsAreTested() throws IOException {
+        writeProject();
+        TestSelector.Selection selection = TestSelector.selectForChanges(
+            tempDir, List.of("core/src/main/java/Core.java"), "base");
+
+        assertFalse(selection.full);
+        assertEquals(List.of(":api", ":app", ":core"), selection.testedModules);
+        assertTrue(selection.skippedModules.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Change outside subprojects runs the full test task")
+    void testRootChangeRunsFullTests() throws IOException {
+        writeProject();
+        TestSelector.Selection selection = TestSelector.selectForChanges(
+            tempDir, List.of("core/Core.java", "build.gradle"), "base");
+
+        assertTrue(selection.full);
+        assertEquals(List.of("test"), selection.testTasks());
+    }
+}
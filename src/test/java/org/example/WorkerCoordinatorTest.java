@@ -0,0 +1,313 @@
+package org.example;
+
+import org.eclipse.jetty.server.Server;
+import org.example.util.Utils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkerCoordinatorTest {
+    private static final String OWNER = "test_worker_owner123";
+    private static final String REPOSITORY = OWNER + "/repo";
+    private static final Path OWNER_DIRECTORY = Paths.get(Utils.dataDir().getPath(), "repositories", OWNER);
+    private static final Path SUMMARY_DIRECTORY = Paths.get(Utils.dataDir().getPath(), "summary");
+
+    @TempDir
+    File tempDir;
+
+    private WorkerCoordinator coordinator;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        deleteTestBuilds();
+        // Long timeout so only the explicit reap calls drop workers
+        coordinator = new WorkerCoordinator(60000);
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        deleteTestBuilds();
+    }
+
+    private static BuildJob job(String id) {
+        return new BuildJob(id, REPOSITORY, "/tmp/none", "main", true, "abc", null, System.currentTimeMillis());
+    }
+
+    private Thread runAsync(BuildJob job) {
+        Thread thread = new Thread(() -> coordinator.run(job));
+        thread.start();
+        return thread;
+    }
+
+    private JSONObject claimWithin(String workerId, long timeoutMillis) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            JSONObject claim = coordinator.claim(workerId);
+            if (claim != null) {
+                return claim;
+            }
+            Thread.sleep(10);
+        }
+        return null;
+    }
+
+    private static JSONObject record(String id) {
+        return new JSONObject().put("id", id).put("repository", REPOSITORY).put("commit", "abc")
+            .put("branch", "main").put("buildDate", "2026-01-01T00:00:00Z")
+            .put("buildSuccess", true).put("testsSuccess", true).put("status", "success");
+    }
+
+    @Test
+    @DisplayName("Claimed build is stored when the worker completes it")
+    void testClaimAndComplete() throws Exception {
+        assertNull(coordinator.claim("w1"));
+        BuildJob job = job("worker-build-1");
+        Thread runner = runAsync(job);
+
+        JSONObject claim = claimWithin("w1", 5000);
+        assertNotNull(claim);
+        assertEquals("worker-build-1", claim.getJSONObject("job").getString("id"));
+        assertNotNull(claim.optJSONObject("settings"));
+        assertTrue(coordinator.log("w1", job.id, "Build: ok\n"));
+        assertFalse(coordinator.log("w2", job.id, "Build: ok\n"));
+
+        assertTrue(coordinator.complete("w1", job.id, record(job.id)));
+        runner.join(5000);
+        assertFalse(runner.isAlive());
+        assertEquals("w1", job.record().getString("worker"));
+        assertEquals("w1", BuildHistoryStore.getBuildById(job.id).getString("worker"));
+        assertEquals(1, coordinator.metrics().getLong("completions"));
+    }
+
+    @Test
+    @DisplayName("Heartbeat cancels builds the worker does not own and sums capacity")
+    void testHeartbeat() throws Exception {
+        BuildJob job = job("worker-build-2");
+        runAsync(job);
+        claimWithin("w1", 5000);
+
+        JSONObject snapshot = new ResourceMonitor.Snapshot(4, 0.5, 2048, 4096).toJson();
+        JSONObject response = coordinator.heartbeat("w1", new JSONObject().put("slots", 2).put("snapshot", snapshot)
+            .put("running", new JSONArray().put(job.id).put("stale-build")));
+        assertEquals(List.of("stale-build"), response.getJSONArray("cancel").toList());
+
+        coordinator.heartbeat("w2", new JSONObject().put("slots", 1)
+            .put("snapshot", new ResourceMonitor.Snapshot(2, 0.2, 1024, 2048).toJson()));
+        ResourceMonitor.Snapshot capacity = coordinator.monitor().snapshot();
+        assertEquals(6, capacity.cores);
+        assertEquals(3072, capacity.freeMemoryMb);
+        assertEquals(6144, capacity.memoryLimitMb);
+        assertEquals((0.5 * 4 + 0.2 * 2) / 6, capacity.cpuLoad, 1e-9);
+
+        coordinator.complete("w1", job.id, record(job.id));
+    }
+
+    @Test
+    @DisplayName("Builds of a silent worker are reassigned and its late record rejected")
+    void testReassignment() throws Exception {
+        BuildJob first = job("worker-build-3");
+        BuildJob second = job("worker-build-4");
+        runAsync(first);
+        claimWithin("w1", 5000);
+        Thread runner = runAsync(second);
+        while (coordinator.metrics().getInt("waiting") == 0) {
+            Thread.sleep(10);
+        }
+
+        coordinator.reap(System.currentTimeMillis() + 120000);
+        assertFalse(coordinator.metrics().getJSONObject("workers").has("w1"));
+        // The lost build goes first, ahead of the one that was already waiting
+        JSONObject reclaimed = coordinator.claim("w2");
+        assertEquals(first.id, reclaimed.getJSONObject("job").getString("id"));
+        assertEquals(2, reclaimed.getInt("attempt"));
+        assertEquals(second.id, coordinator.claim("w2").getJSONObject("job").getString("id"));
+
+        assertFalse(coordinator.complete("w1", first.id, record(first.id)));
+        JSONArray cancel = coordinator.heartbeat("w1", new JSONObject().put("running", new JSONArray().put(first.id)))
+            .getJSONArray("cancel");
+        assertEquals(List.of(first.id), cancel.toList());
+        assertTrue(coordinator.complete("w2", first.id, record(first.id)));
+        assertTrue(coordinator.complete("w2", second.id, record(second.id)));
+        runner.join(5000);
+
+        JSONObject metrics = coordinator.metrics();
+        assertEquals(1, metrics.getLong("reassignments"));
+        assertEquals(1, metrics.getLong("rejectedCompletions"));
+    }
+
+    @Test
+    @DisplayName("Builds a live worker does not report as running are reassigned after the grace period")
+    void testUnreportedBuildReassigned() throws Exception {
+        BuildJob job = job("worker-build-6");
+        Thread runner = runAsync(job);
+        claimWithin("w1", 5000);
+        long now = System.currentTimeMillis();
+
+        // Within the grace period the claim response may still be on its way
+        coordinator.heartbeat("w1", new JSONObject().put("running", new JSONArray()), now);
+        assertEquals(0, coordinator.metrics().getLong("reassignments"));
+
+        coordinator.heartbeat("w1", new JSONObject().put("running", new JSONArray()),
+            now + WorkerCoordinator.CLAIM_GRACE_MILLIS + 1);
+        assertEquals(1, coordinator.metrics().getLong("reassignments"));
+        JSONObject reclaimed = coordinator.claim("w2");
+        assertEquals(job.id, reclaimed.getJSONObject("job").getString("id"));
+        assertTrue(coordinator.complete("w2", job.id, record(job.id)));
+        runner.join(5000);
+        assertFalse(runner.isAlive());
+    }
+
+    @Test
+    @DisplayName("Build lost on too many workers is stored as interrupted")
+    void testLostBuild() throws Exception {
+        BuildJob job = job("worker-build-5");
+        Thread runner = runAsync(job);
+        long now = System.currentTimeMillis();
+        for (int attempt = 1; attempt <= WorkerCoordinator.MAX_ATTEMPTS; attempt++) {
+            assertNotNull(claimWithin("w" + attempt, 5000));
+            now += 120000;
+            coordinator.reap(now);
+        }
+        runner.join(5000);
+
+        assertFalse(runner.isAlive());
+        JSONObject stored = BuildHistoryStore.getBuildById(job.id);
+        assertEquals("interrupted", stored.getString("status"));
+        assertNull(coordinator.claim("w4"));
+    }
+
+    /**
+     * Starts a worker JVM as {@code mode=worker} would on another host, with its own data
+     * directory and workspace root.
+     */
+    private Process startWorkerProcess(String url, String workerId) throws IOException {
+        Path workerDirectory = tempDir.toPath().resolve(workerId);
+        Files.createDirectories(workerDirectory);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java,
+            "-cp", System.getProperty("java.class.path"),
+            "-Dmode=worker",
+            "-DcoordinatorUrl=" + url,
+            "-DworkerId=" + workerId,
+            "-DheartbeatSeconds=1",
+            "-DdataDir=" + workerDirectory.resolve("data"),
+            "-DworkspaceRoot=" + workerDirectory.resolve("workspaces"),
+            ContinuousIntegrationServer.class.getName());
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(workerDirectory.resolve("worker.log").toFile());
+        return builder.start();
+    }
+
+    @Test
+    @DisplayName("Worker processes claim and complete builds over HTTP")
+    void testWorkersOverHttp() throws Exception {
+        BuildScheduler scheduler = new BuildScheduler(coordinator.monitor(), coordinator::run);
+        Server server = new Server(0);
+        server.setHandler(new ContinuousIntegrationServer(scheduler, coordinator));
+        server.start();
+        String url = "http://localhost:" + server.getConnectors()[0].getLocalPort();
+        List<Process> workers = List.of(startWorkerProcess(url, "w1"), startWorkerProcess(url, "w2"));
+
+        try {
+            int builds = 4;
+            CountDownLatch finished = new CountDownLatch(builds);
+            scheduler.addCompletionListener(job -> finished.countDown());
+            List<BuildJob> jobs = new ArrayList<BuildJob>();
+            for (int i = 0; i < builds; i++) {
+                // The clone URL does not exist, so each worker runs the real pipeline to a failure
+                BuildJob job = job("worker-http-" + i);
+                jobs.add(job);
+                scheduler.submit(job);
+            }
+            assertTrue(finished.await(60, TimeUnit.SECONDS));
+            for (BuildJob job : jobs) {
+                JSONObject stored = BuildHistoryStore.getBuildById(job.id);
+                assertNotNull(stored);
+                assertTrue(Set.of("w1", "w2").contains(stored.getString("worker")));
+            }
+            assertEquals(builds, coordinator.metrics().getLong("completions"));
+            // Records are stored only by the coordinator, never in a worker's own data directory
+            for (String workerId : List.of("w1", "w2")) {
+                assertFalse(Files.exists(tempDir.toPath().resolve(workerId).resolve("data").resolve("repositories")
+                    .resolve(OWNER).resolve("repo").resolve("builds.json")));
+            }
+        } finally {
+            for (Process worker : workers) {
+                worker.destroy();
+                worker.waitFor(10, TimeUnit.SECONDS);
+            }
+            server.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Worker sends an interrupted record when the runner stores nothing")
+    void testRunnerWithoutRecord() throws Exception {
+        BuildScheduler scheduler = new BuildScheduler(coordinator.monitor(), coordinator::run);
+        Server server = new Server(0);
+        server.setHandler(new ContinuousIntegrationServer(scheduler, coordinator));
+        server.start();
+        String url = "http://localhost:" + server.getConnectors()[0].getLocalPort();
+        BuildWorker worker = new BuildWorker(url, "w1", 1, (job, settings, store) -> {
+            throw new IllegalStateException("workspace unavailable");
+        });
+        Thread workerThread = new Thread(() -> {
+            try {
+                worker.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        workerThread.setDaemon(true);
+        workerThread.start();
+
+        try {
+            CountDownLatch finished = new CountDownLatch(1);
+            scheduler.addCompletionListener(job -> finished.countDown());
+            BuildJob job = job("worker-http-dropped");
+            scheduler.submit(job);
+            assertTrue(finished.await(30, TimeUnit.SECONDS));
+            JSONObject stored = BuildHistoryStore.getBuildById(job.id);
+            assertEquals("interrupted", stored.getString("status"));
+            assertEquals("w1", stored.getString("worker"));
+        } finally {
+            worker.stop();
+            server.stop();
+        }
+    }
+
+    private static void deleteTestBuilds() throws IOException {
+        for (Path directory : List.of(OWNER_DIRECTORY, SUMMARY_DIRECTORY)) {
+            if (Files.exists(directory)) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                        Files.delete(file);
+                    }
+                }
+            }
+        }
+    }
+}
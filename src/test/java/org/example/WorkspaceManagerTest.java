@@ -0,0 +1,141 @@
+package org.example;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.json.JSONObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkspaceManagerTest {
+    @TempDir
+    File tempDir;
+
+    private File root;
+    private File indexFile;
+
+    @BeforeEach
+    void setUp() {
+        CommandRunner.showIO = false;
+        root = new File(tempDir, "ci");
+        indexFile = new File(tempDir, "workspaces.json");
+    }
+
+    private static void fakeClone(File dir, int sizeMb) throws Exception {
+        File git = new File(dir, ".git");
+        assertTrue(git.mkdirs());
+        Files.write(new File(git, "pack").toPath(), new byte[sizeMb * 1024 * 1024]);
+    }
+
+    @Test
+    @DisplayName("Released workspace is reused warm by the next build")
+    void testReuseWarmSlot() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(root, indexFile, 100);
+        WorkspaceManager.Lease first = manager.acquire("owner/repo", "url", "main");
+        assertFalse(first.warm);
+        fakeClone(first.dir, 1);
+        manager.release(first);
+
+        WorkspaceManager.Lease second = manager.acquire("owner/repo", "url", "main");
+        assertTrue(second.warm);
+        assertEquals(first.dir, second.dir);
+
+        JSONObject metrics = manager.metrics();
+        assertEquals(1, metrics.getLong("warmLeases"));
+        assertEquals(1, metrics.getLong("coldLeases"));
+        assertEquals(1, metrics.getInt("leased"));
+    }
+
+    @Test
+    @DisplayName("Concurrent builds of one repository get separate slots")
+    void testConcurrentBuildsGetSeparateSlots() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(root, indexFile, 100);
+        WorkspaceManager.Lease first = manager.acquire("owner/repo", "url", "main");
+        WorkspaceManager.Lease second = manager.acquire("owner/repo", "url", "feature");
+
+        assertNotEquals(first.dir, second.dir);
+        assertTrue(second.dir.getName().startsWith(first.dir.getName() + "-slot-"));
+    }
+
+    @Test
+    @DisplayName("Incomplete workspace is emptied before it is leased")
+    void testIncompleteSlotEmptied() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(root, indexFile, 100);
+        WorkspaceManager.Lease first = manager.acquire("owner/repo", "url", "main");
+        assertTrue(first.dir.mkdirs());
+        Files.write(new File(first.dir, "partial").toPath(), new byte[] {1});
+        manager.release(first);
+
+        WorkspaceManager.Lease second = manager.acquire("owner/repo", "url", "main");
+        assertFalse(second.warm);
+        assertFalse(second.dir.exists());
+    }
+
+    @Test
+    @DisplayName("Least recently built repository is evicted when over quota")
+    void testEvictsLeastRecentlyBuilt() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(root, indexFile, 3);
+        WorkspaceManager.Lease oldest = manager.acquire("owner/old", "url", "main");
+        fakeClone(oldest.dir, 2);
+        manager.release(oldest);
+        Thread.sleep(5);
+
+        WorkspaceManager.Lease newest = manager.acquire("owner/new", "url", "main");
+        fakeClone(newest.dir, 2);
+        manager.release(newest);
+
+        assertFalse(oldest.dir.exists());
+        assertTrue(newest.dir.exists());
+        JSONObject metrics = manager.metrics();
+        assertEquals(1, metrics.getLong("evictions"));
+        assertEquals(2, metrics.getLong("usedMb"));
+    }
+
+    @Test
+    @DisplayName("Workspace with a running build is not evicted")
+    void testLeasedSlotNotEvicted() throws Exception {
+        WorkspaceManager manager = new WorkspaceManager(root, indexFile, 3);
+        WorkspaceManager.Lease running = manager.acquire("owner/running", "url", "main");
+        fakeClone(running.dir, 2);
+        WorkspaceManager.Lease other = manager.acquire("owner/other", "url", "main");
+        fakeClone(other.dir, 2);
+        manager.release(other);
+
+        assertTrue(running.dir.exists());
+        assertTrue(other.dir.exists());
+    }
+
+    @Test
+    @DisplayName("Pre-warming clones the most frequently built repository again")
+    void testPrewarm() throws Exception {
+        File origin = new File(tempDir, "origin");
+        assertTrue(origin.mkdirs());
+        assertTrue(CommandRunner.runCommand("git", "-C", origin.getAbsolutePath(), "init", "-q", "-b", "main"));
+        Files.write(new File(origin, "README").toPath(), new byte[] {1});
+        assertTrue(CommandRunner.runCommand("git", "-C", origin.getAbsolutePath(), "add", "README"));
+        assertTrue(CommandRunner.runCommand(
+            "git", "-C", origin.getAbsolutePath(), "-c", "user.name=ci", "-c", "user.email=ci@example.org",
+            "commit", "-q", "-m", "initial"
+        ));
+
+        WorkspaceManager manager = new WorkspaceManager(root, indexFile, 100);
+        WorkspaceManager.Lease lease = manager.acquire("owner/repo", origin.getAbsolutePath(), "main");
+        manager.release(lease);
+
+        // A restarted server reads the index written by the previous one
+        WorkspaceManager restarted = new WorkspaceManager(root, indexFile, 100);
+        restarted.prewarm(1);
+
+        assertTrue(new File(lease.dir, "README").isFile());
+        WorkspaceManager.Lease next = restarted.acquire("owner/repo", origin.getAbsolutePath(), "main");
+        assertTrue(next.warm);
+    }
+}